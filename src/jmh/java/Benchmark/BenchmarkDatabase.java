@@ -0,0 +1,65 @@
+package Benchmark;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Random;
+
+import Util.ConnectionUtil;
+import Util.SchemaMigrator;
+
+/**
+ * Seeds the database benchmarks run against. Benchmarks fork with db.url
+ * pointed at a private in-memory database (see their @Fork arguments), so the
+ * file database used by the JUnit tests is never touched.
+ */
+public class BenchmarkDatabase {
+
+    private static final int BATCH_SIZE = 10000;
+
+    /**
+     * Reset and migrate the schema and insert the given number of accounts and messages.
+     * Messages are spread across accounts with a fixed seed so every run sees
+     * the same data.
+     *
+     * @param accounts number of accounts, at least 1.
+     * @param messages number of messages.
+     */
+    public static void seed(int accounts, int messages) throws SQLException {
+        ConnectionUtil.resetTestDatabase();
+        SchemaMigrator.migrate();
+        Random random = new Random(42);
+
+        try (Connection connection = ConnectionUtil.getConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement ps = connection
+                    .prepareStatement("INSERT INTO account(username,password) VALUES(?,?)")) {
+                // testuser1 already exists as account 1.
+                for (int i = 2; i <= accounts; i++) {
+                    ps.setString(1, "benchuser" + i);
+                    ps.setString(2, "password");
+                    ps.addBatch();
+                    if (i % BATCH_SIZE == 0) {
+                        ps.executeBatch();
+                    }
+                }
+                ps.executeBatch();
+            }
+            try (PreparedStatement ps = connection.prepareStatement(
+                    "INSERT INTO message(posted_by,message_text,time_posted_epoch) VALUES(?,?,?)")) {
+                // The reset script already inserted message 1.
+                for (int i = 2; i <= messages; i++) {
+                    ps.setInt(1, 1 + random.nextInt(accounts));
+                    ps.setString(2, "benchmark message " + i);
+                    ps.setLong(3, 1669947792L + i);
+                    ps.addBatch();
+                    if (i % BATCH_SIZE == 0) {
+                        ps.executeBatch();
+                    }
+                }
+                ps.executeBatch();
+            }
+            connection.commit();
+        }
+    }
+}
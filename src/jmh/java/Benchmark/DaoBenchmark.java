@@ -0,0 +1,94 @@
+package Benchmark;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import DAO.AccountDAO;
+import DAO.MessageDAO;
+import Model.Account;
+import Model.Message;
+
+/**
+ * Regression benchmark for the DAO queries behind the read endpoints and
+ * message creation, without the service layer caches in front of them.
+ *
+ * Messages are spread over 1000 accounts, so a user timeline holds about
+ * rows / 1000 messages; the timeline query should grow with that and the
+ * other queries should stay flat as the table grows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Ddb.url=jdbc:h2:mem:bench;DB_CLOSE_DELAY=-1",
+        "-Ddb.pool.leakDetectionThresholdMs=0", "-Xms1g", "-Xmx1g" })
+public class DaoBenchmark {
+
+    static final int ACCOUNTS = 1000;
+
+    @Param({ "1000", "100000" })
+    int rows;
+
+    MessageDAO messageDAO;
+    AccountDAO accountDAO;
+    int next;
+
+    @Setup
+    public void setUp() throws SQLException {
+        BenchmarkDatabase.seed(ACCOUNTS, rows);
+        messageDAO = new MessageDAO();
+        accountDAO = new AccountDAO();
+    }
+
+    @Benchmark
+    public Message getOneMessageGivenMessageId() {
+        return messageDAO.getOneMessageGivenMessageId(nextMessageId());
+    }
+
+    @Benchmark
+    public List<Message> getAllMessagesFromUser() {
+        return messageDAO.getAllMessagesFromUser(nextAccountId());
+    }
+
+    @Benchmark
+    public List<Message> getMessagesPage() {
+        return messageDAO.getMessagesPage(null, nextMessageId(), null, 20);
+    }
+
+    @Benchmark
+    public Message createMessage() {
+        return messageDAO.createMessage(new Message(nextAccountId(), "benchmark message", 1669947792L));
+    }
+
+    @Benchmark
+    public Account getAccount() {
+        int account_id = nextAccountId();
+        // BenchmarkDatabase names every account but the first benchuser<id>.
+        return accountDAO.getAccount(account_id == 1 ? "testuser1" : "benchuser" + account_id);
+    }
+
+    private int nextMessageId() {
+        // Walk the id space with a stride so lookups are spread over the table.
+        next = (next + 7919) % rows;
+        return next + 1;
+    }
+
+    private int nextAccountId() {
+        next = (next + 7919) % rows;
+        return next % ACCOUNTS + 1;
+    }
+}
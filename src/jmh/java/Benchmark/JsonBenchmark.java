@@ -0,0 +1,131 @@
+package Benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Model.Account;
+import Model.Message;
+import Service.MessageCache;
+import Util.JacksonJsonMapper;
+
+/**
+ * Compares the per-request JSON work of a handler such as createMessageHandler
+ * before and after the shared JacksonJsonMapper: reading the request body and
+ * writing the response body. The remaining benchmarks time each Message and
+ * Account conversion the handlers do on their own, and a 100-message list as
+ * returned by GET /messages, both serialized by Jackson and copied from the
+ * JSON kept by MessageCache.
+ *
+ * The interesting number is allocation per request, so run it with the GC
+ * profiler: mvn -Pbench verify -Djmh.args="JsonBenchmark -prof gc"
+ * and compare gc.alloc.rate.norm between the two benchmarks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonBenchmark {
+
+    byte[] requestBody = ("{\"posted_by\":1, \"message_text\": \"hello message\", "
+            + "\"time_posted_epoch\": 1669947792}").getBytes(StandardCharsets.UTF_8);
+    byte[] accountBody = "{\"username\":\"testuser1\", \"password\": \"password\"}"
+            .getBytes(StandardCharsets.UTF_8);
+    Message storedMessage = new Message(1, 1, "hello message", 1669947792L);
+    Account storedAccount = new Account(1, "testuser1", "password");
+    List<Message> messages = new ArrayList<>();
+    OutputStream response = OutputStream.nullOutputStream();
+    JacksonJsonMapper jsonMapper = new JacksonJsonMapper();
+    MessageCache messageCache = new MessageCache(1000, Duration.ofHours(1));
+
+    {
+        for (int i = 1; i <= 100; i++) {
+            Message message = new Message(i, 1 + i % 10, "benchmark message " + i, 1669947792L + i);
+            messages.add(message);
+            messageCache.put(message, messageCache.stamp());
+        }
+    }
+
+    /**
+     * The previous handler path: a new ObjectMapper per request, the body read
+     * as a String, and the response serialized to a String before being
+     * encoded into the response.
+     */
+    @Benchmark
+    public void perRequestObjectMapper() throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        Message message = mapper.readValue(new String(requestBody, StandardCharsets.UTF_8), Message.class);
+        String json = mapper.writeValueAsString(message);
+        response.write(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * The current handler path: cached reader and writer, body read from a
+     * stream and the response written straight to the output stream.
+     */
+    @Benchmark
+    public void sharedJsonMapper() throws IOException {
+        Message message = jsonMapper.read(new ByteArrayInputStream(requestBody), Message.class);
+        jsonMapper.write(response, message);
+    }
+
+    @Benchmark
+    public Message readMessage() throws IOException {
+        return jsonMapper.read(new ByteArrayInputStream(requestBody), Message.class);
+    }
+
+    @Benchmark
+    public void writeMessage() throws IOException {
+        jsonMapper.write(response, storedMessage);
+    }
+
+    @Benchmark
+    public void writeMessageList() throws IOException {
+        jsonMapper.write(response, messages);
+    }
+
+    /**
+     * The list as writeMessages() in the controller writes it for warm
+     * messages: cached bytes joined with commas.
+     */
+    @Benchmark
+    public void writeCachedMessageList() throws IOException {
+        response.write('[');
+        for (int i = 0; i < messages.size(); i++) {
+            if (i > 0) {
+                response.write(',');
+            }
+            messageCache.writeJson(messages.get(i), response);
+        }
+        response.write(']');
+    }
+
+    @Benchmark
+    public Account readAccount() throws IOException {
+        return jsonMapper.read(new ByteArrayInputStream(accountBody), Account.class);
+    }
+
+    @Benchmark
+    public void writeAccount() throws IOException {
+        jsonMapper.write(response, storedAccount);
+    }
+}
@@ -0,0 +1,300 @@
+package Benchmark;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import Controller.SocialMediaController;
+import Util.LatencyTimer;
+import io.javalin.Javalin;
+
+/**
+ * Open-loop load generator for the whole HTTP stack, used to check changes to
+ * the controller, service and DAO layers against a fixed baseline.
+ *
+ * The app is started on an ephemeral port against a private in-memory
+ * database seeded by BenchmarkDatabase. One thread then sends requests at a
+ * fixed rate, whether or not earlier ones have completed, so a slow server
+ * cannot slow the load down. Latency is measured from the time each request
+ * was scheduled to be sent rather than when it actually was, which corrects
+ * for coordinated omission: if the generator falls behind, the delay is
+ * charged to the requests that were held up.
+ *
+ * The endpoint of each request is drawn from the workload profile with a
+ * seeded Random, so two runs with the same settings send the same sequence.
+ *
+ * Run it with:
+ * mvn -Pbench test-compile exec:java -Dexec.mainClass=Benchmark.LoadTest -Dexec.classpathScope=test
+ *
+ * Options (system properties):
+ * load.profile (mixed), one of the PROFILES, or load.mix for a custom mix
+ * such as "getMessage=80,createMessage=20"; load.rate (500 requests per
+ * second); load.warmupSeconds (10); load.seconds (30); load.seed (42);
+ * load.accounts (1000); load.messages (100000); load.maxInFlight (10000).
+ * The usual db.pool.*, cache.* and auth.* settings apply as well. All traffic
+ * comes from one address, so the login rate limits are lifted unless set.
+ */
+public class LoadTest {
+
+    /**
+     * The requests a workload is made of, with the route they are reported as.
+     */
+    enum Endpoint {
+        register("POST /register"),
+        login("POST /login"),
+        createMessage("POST /messages"),
+        getMessage("GET /messages/{message_id}"),
+        getMessagesPage("GET /messages?limit=20"),
+        getTimeline("GET /accounts/{account_id}/messages");
+
+        final String route;
+
+        Endpoint(String route) {
+            this.route = route;
+        }
+    }
+
+    /**
+     * Named workload mixes, as relative weights per endpoint.
+     */
+    static final Map<String, String> PROFILES = new LinkedHashMap<>();
+    static {
+        PROFILES.put("mixed", "register=2,login=8,createMessage=15,getMessage=50,getMessagesPage=5,getTimeline=20");
+        PROFILES.put("read", "getMessage=70,getMessagesPage=5,getTimeline=25");
+        PROFILES.put("write", "createMessage=80,register=10,getMessage=10");
+        PROFILES.put("auth", "register=20,login=80");
+    }
+
+    private static final String PROFILE = System.getProperty("load.profile", "mixed");
+    private static final String MIX = System.getProperty("load.mix", PROFILES.get(PROFILE));
+    private static final int RATE = Integer.getInteger("load.rate", 500);
+    private static final int WARMUP_SECONDS = Integer.getInteger("load.warmupSeconds", 10);
+    private static final int SECONDS = Integer.getInteger("load.seconds", 30);
+    private static final long SEED = Long.getLong("load.seed", 42);
+    private static final int ACCOUNTS = Integer.getInteger("load.accounts", 1000);
+    private static final int MESSAGES = Integer.getInteger("load.messages", 100000);
+    private static final int MAX_IN_FLIGHT = Integer.getInteger("load.maxInFlight", 10000);
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+
+    public static void main(String[] args) throws Exception {
+        if (MIX == null) {
+            throw new IllegalArgumentException("Unknown load.profile " + PROFILE + ", expected one of "
+                    + PROFILES.keySet() + " or a load.mix");
+        }
+        Map<Endpoint, Integer> mix = parseMix(MIX);
+
+        // Must be set before ConnectionUtil and the services are loaded.
+        defaultProperty("db.url", "jdbc:h2:mem:load;DB_CLOSE_DELAY=-1");
+        defaultProperty("db.pool.leakDetectionThresholdMs", "0");
+        defaultProperty("auth.login.usernameBurst", Integer.toString(Integer.MAX_VALUE));
+        defaultProperty("auth.login.usernamePerMinute", Integer.toString(Integer.MAX_VALUE));
+        defaultProperty("auth.login.ipBurst", Integer.toString(Integer.MAX_VALUE));
+        defaultProperty("auth.login.ipPerMinute", Integer.toString(Integer.MAX_VALUE));
+
+        System.out.println("Seeding " + ACCOUNTS + " accounts and " + MESSAGES + " messages");
+        BenchmarkDatabase.seed(ACCOUNTS, MESSAGES);
+
+        Javalin app = new SocialMediaController().startAPI().start(0);
+        try {
+            HttpClient webClient = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_1_1)
+                    .connectTimeout(Duration.ofSeconds(10))
+                    .build();
+            Generator generator = new Generator(webClient, "http://localhost:" + app.port(), mix);
+
+            System.out.println("Warming up for " + WARMUP_SECONDS + " s at " + RATE + " requests/s");
+            generator.drive(WARMUP_SECONDS);
+            System.out.println("Measuring for " + SECONDS + " s at " + RATE + " requests/s, mix " + mix);
+            Map<Endpoint, LatencyTimer> timers = generator.drive(SECONDS);
+            report(timers, generator.total, generator.maxSendLagNanos);
+        } finally {
+            app.stop();
+        }
+    }
+
+    private static void defaultProperty(String key, String value) {
+        System.setProperty(key, System.getProperty(key, value));
+    }
+
+    /**
+     * @param mix comma separated endpoint=weight pairs.
+     * @return the weight of every endpoint in the mix.
+     */
+    static Map<Endpoint, Integer> parseMix(String mix) {
+        Map<Endpoint, Integer> weights = new EnumMap<>(Endpoint.class);
+        for (String pair : mix.split(",")) {
+            String[] parts = pair.trim().split("=");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Expected endpoint=weight but got " + pair);
+            }
+            int weight = Integer.parseInt(parts[1].trim());
+            if (weight > 0) {
+                weights.put(Endpoint.valueOf(parts[0].trim()), weight);
+            }
+        }
+        if (weights.isEmpty()) {
+            throw new IllegalArgumentException("The mix " + mix + " has no endpoint with a positive weight");
+        }
+        return weights;
+    }
+
+    private static void report(Map<Endpoint, LatencyTimer> timers, LatencyTimer total, long maxSendLagNanos) {
+        System.out.println();
+        System.out.println(String.format("%-38s %9s %9s %9s %9s %9s %9s %9s %8s", "endpoint", "requests", "req/s",
+                "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms", "errors"));
+        for (Map.Entry<Endpoint, LatencyTimer> entry : timers.entrySet()) {
+            System.out.println(row(entry.getKey().route, entry.getValue()));
+        }
+        System.out.println(row("total", total));
+        System.out.println();
+        System.out.println(String.format("Generator fell behind schedule by at most %.2f ms", maxSendLagNanos / 1e6));
+    }
+
+    private static String row(String name, LatencyTimer timer) {
+        double[] q = timer.getQuantileSeconds(0.5, 0.9, 0.99, 0.999, 1.0);
+        return String.format("%-38s %9d %9.0f %9.2f %9.2f %9.2f %9.2f %9.2f %8d", name, timer.getCount(),
+                timer.getCount() / (double) SECONDS, q[0] * 1e3, q[1] * 1e3, q[2] * 1e3, q[3] * 1e3, q[4] * 1e3,
+                timer.getErrorCount());
+    }
+
+    /**
+     * Sends the requests of one run on a fixed schedule and times their
+     * responses from the scheduled send time.
+     */
+    private static final class Generator {
+        private final HttpClient webClient;
+        private final String base;
+        private final Endpoint[] endpoints;
+        private final int[] cumulativeWeights;
+        private final Random random = new Random(SEED);
+        private final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+        private int registered;
+        LatencyTimer total;
+        long maxSendLagNanos;
+
+        Generator(HttpClient webClient, String base, Map<Endpoint, Integer> mix) {
+            this.webClient = webClient;
+            this.base = base;
+            this.endpoints = mix.keySet().toArray(new Endpoint[0]);
+            this.cumulativeWeights = new int[endpoints.length];
+            int sum = 0;
+            for (int i = 0; i < endpoints.length; i++) {
+                sum += mix.get(endpoints[i]);
+                cumulativeWeights[i] = sum;
+            }
+        }
+
+        /**
+         * Send requests at the configured rate for the given number of
+         * seconds, then wait for the outstanding ones.
+         *
+         * @return the latency of every request, by endpoint.
+         */
+        Map<Endpoint, LatencyTimer> drive(int seconds) throws InterruptedException {
+            Map<Endpoint, LatencyTimer> timers = new EnumMap<>(Endpoint.class);
+            for (Endpoint endpoint : endpoints) {
+                timers.put(endpoint, new LatencyTimer());
+            }
+            LatencyTimer total = new LatencyTimer();
+            this.total = total;
+            maxSendLagNanos = 0;
+            long interval = TimeUnit.SECONDS.toNanos(1) / RATE;
+            long requests = (long) RATE * seconds;
+            long start = System.nanoTime();
+
+            for (long i = 0; i < requests; i++) {
+                long scheduled = start + i * interval;
+                long now;
+                while ((now = System.nanoTime()) < scheduled) {
+                    LockSupport.parkNanos(scheduled - now);
+                }
+                maxSendLagNanos = Math.max(maxSendLagNanos, now - scheduled);
+
+                Endpoint endpoint = nextEndpoint();
+                LatencyTimer timer = timers.get(endpoint);
+                if (!inFlight.tryAcquire()) {
+                    // Too many outstanding requests: count it as failed
+                    // rather than let the generator block.
+                    timer.error();
+                    total.error();
+                    timer.recordSince(scheduled);
+                    total.recordSince(scheduled);
+                    continue;
+                }
+                webClient.sendAsync(request(endpoint), HttpResponse.BodyHandlers.discarding())
+                        .whenComplete((response, failure) -> {
+                            if (failure != null || response.statusCode() != 200) {
+                                timer.error();
+                                total.error();
+                            }
+                            long latency = System.nanoTime() - scheduled;
+                            timer.record(latency);
+                            total.record(latency);
+                            inFlight.release();
+                        });
+            }
+            if (!inFlight.tryAcquire(MAX_IN_FLIGHT, REQUEST_TIMEOUT.toSeconds() + 10, TimeUnit.SECONDS)) {
+                System.out.println("Some requests did not complete in time");
+            } else {
+                inFlight.release(MAX_IN_FLIGHT);
+            }
+            return timers;
+        }
+
+        private Endpoint nextEndpoint() {
+            int roll = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+            int i = 0;
+            while (roll >= cumulativeWeights[i]) {
+                i++;
+            }
+            return endpoints[i];
+        }
+
+        private HttpRequest request(Endpoint endpoint) {
+            switch (endpoint) {
+                case register:
+                    return post("/register",
+                            "{\"username\":\"loaduser" + ++registered + "\",\"password\":\"password\"}");
+                case login:
+                    // BenchmarkDatabase names every account but the first benchuser<id>.
+                    int account_id = 1 + random.nextInt(ACCOUNTS);
+                    String username = account_id == 1 ? "testuser1" : "benchuser" + account_id;
+                    return post("/login", "{\"username\":\"" + username + "\",\"password\":\"password\"}");
+                case createMessage:
+                    return post("/messages", "{\"posted_by\":" + (1 + random.nextInt(ACCOUNTS))
+                            + ",\"message_text\":\"load test message\",\"time_posted_epoch\":1669947792}");
+                case getMessage:
+                    return get("/messages/" + (1 + random.nextInt(MESSAGES)));
+                case getMessagesPage:
+                    return get("/messages?limit=20&after_id=" + random.nextInt(MESSAGES));
+                case getTimeline:
+                    return get("/accounts/" + (1 + random.nextInt(ACCOUNTS)) + "/messages?limit=20");
+                default:
+                    throw new IllegalStateException("Unknown endpoint " + endpoint);
+            }
+        }
+
+        private HttpRequest get(String path) {
+            return HttpRequest.newBuilder(URI.create(base + path))
+                    .timeout(REQUEST_TIMEOUT)
+                    .build();
+        }
+
+        private HttpRequest post(String path, String body) {
+            return HttpRequest.newBuilder(URI.create(base + path))
+                    .POST(HttpRequest.BodyPublishers.ofString(body))
+                    .header("Content-Type", "application/json")
+                    .timeout(REQUEST_TIMEOUT)
+                    .build();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package Benchmark;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import Model.Message;
+import Service.MessageService;
+
+/**
+ * Regression benchmark for GET /messages/{message_id}. The lookup is a single
+ * primary key query, so the average time should stay flat as the message table
+ * grows from a thousand to a million rows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Ddb.url=jdbc:h2:mem:bench;DB_CLOSE_DELAY=-1",
+        "-Ddb.pool.leakDetectionThresholdMs=0", "-Xms1g", "-Xmx1g" })
+public class MessageLookupBenchmark {
+
+    @Param({ "1000", "100000", "1000000" })
+    int rows;
+
+    MessageService messageService;
+    int next;
+
+    @Setup
+    public void setUp() throws SQLException {
+        BenchmarkDatabase.seed(1000, rows);
+        messageService = new MessageService();
+    }
+
+    @Benchmark
+    public Message getMessagegivenMessageId() {
+        // Walk the id space with a stride so lookups are spread over the table.
+        next = (next + 7919) % rows;
+        return messageService.getMessagegivenMessageId(next + 1);
+    }
+}
@@ -0,0 +1,152 @@
+package Benchmark;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import DAO.MessageDAO;
+import Model.Message;
+import Util.ConnectionPool;
+import Util.ConnectionUtil;
+
+/**
+ * PATCH and DELETE at the DAO level, comparing the previous multi-statement
+ * paths with the single statements over H2's FINAL TABLE and OLD TABLE
+ * deltas. Besides the time per call, every iteration prints the database
+ * round trips (statements) and connection borrows per call, counted by the
+ * ConnectionPool.
+ *
+ * The delete benchmarks insert a message before each call to have something
+ * to delete; that insert is not included in the counts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Ddb.url=jdbc:h2:mem:bench;DB_CLOSE_DELAY=-1",
+        "-Ddb.pool.leakDetectionThresholdMs=0", "-Xms1g", "-Xmx1g" })
+public class MessageWriteBenchmark {
+
+    static final int ROWS = 100000;
+
+    MessageDAO messageDAO;
+    ConnectionPool pool;
+    int next;
+    long calls;
+    long statements;
+    long borrows;
+
+    @Setup
+    public void setUp() throws SQLException {
+        BenchmarkDatabase.seed(1000, ROWS);
+        messageDAO = new MessageDAO();
+        pool = ConnectionUtil.getPool();
+    }
+
+    @Setup(Level.Iteration)
+    public void resetCounts() {
+        calls = 0;
+        statements = 0;
+        borrows = 0;
+    }
+
+    @TearDown(Level.Iteration)
+    public void printCounts() {
+        System.out.printf("%n  %.2f round trips, %.2f connections per call%n", statements / (double) calls,
+                borrows / (double) calls);
+    }
+
+    /**
+     * The previous update: look the message up, update it, then read it back.
+     */
+    @Benchmark
+    public Message updateThreeStatements() throws SQLException {
+        int message_id = nextId();
+        long statementsBefore = pool.getStatementCount();
+        long borrowsBefore = pool.getBorrowCount();
+        Message message = null;
+        if (messageDAO.getOneMessageGivenMessageId(message_id) != null) {
+            try (Connection connection = ConnectionUtil.getConnection();
+                    PreparedStatement ps = connection
+                            .prepareStatement("UPDATE message SET message_text = ? WHERE message_id = ?")) {
+                ps.setString(1, "updated " + next);
+                ps.setInt(2, message_id);
+                ps.executeUpdate();
+            }
+            message = messageDAO.getOneMessageGivenMessageId(message_id);
+        }
+        count(statementsBefore, borrowsBefore);
+        return message;
+    }
+
+    @Benchmark
+    public Message updateFinalTable() {
+        int message_id = nextId();
+        long statementsBefore = pool.getStatementCount();
+        long borrowsBefore = pool.getBorrowCount();
+        Message message = messageDAO.updateMessageGivenMessageId("updated " + next, message_id);
+        count(statementsBefore, borrowsBefore);
+        return message;
+    }
+
+    /**
+     * The previous delete: look the message up, then delete it.
+     */
+    @Benchmark
+    public Message deleteTwoStatements() throws SQLException {
+        int message_id = insert();
+        long statementsBefore = pool.getStatementCount();
+        long borrowsBefore = pool.getBorrowCount();
+        Message message = messageDAO.getOneMessageGivenMessageId(message_id);
+        if (message != null) {
+            try (Connection connection = ConnectionUtil.getConnection();
+                    PreparedStatement ps = connection.prepareStatement("DELETE FROM message WHERE message_id = ?")) {
+                ps.setInt(1, message_id);
+                ps.executeUpdate();
+            }
+        }
+        count(statementsBefore, borrowsBefore);
+        return message;
+    }
+
+    @Benchmark
+    public Message deleteOldTable() {
+        int message_id = insert();
+        long statementsBefore = pool.getStatementCount();
+        long borrowsBefore = pool.getBorrowCount();
+        Message message = messageDAO.deleteOneMessageGivenMessageId(message_id);
+        count(statementsBefore, borrowsBefore);
+        return message;
+    }
+
+    private int nextId() {
+        // Walk the id space with a stride so updates are spread over the table.
+        next = (next + 7919) % ROWS;
+        return next + 1;
+    }
+
+    private int insert() {
+        return messageDAO.createMessage(new Message(1, "to be deleted", 1669947792L)).getMessage_id();
+    }
+
+    private void count(long statementsBefore, long borrowsBefore) {
+        calls++;
+        statements += pool.getStatementCount() - statementsBefore;
+        borrows += pool.getBorrowCount() - borrowsBefore;
+    }
+}
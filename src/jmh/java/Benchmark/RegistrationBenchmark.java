@@ -0,0 +1,66 @@
+package Benchmark;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import DAO.AccountDAO;
+import Model.Account;
+
+/**
+ * Registration throughput at the DAO level, without password hashing, which
+ * would otherwise dominate. checkThenInsert is the previous path, a lookup by
+ * username followed by the insert; insertOnly lets the UNIQUE constraint do
+ * the check in the same statement. duplicateInsert measures a rejected
+ * registration, which now fails inside the insert.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(value = 1, jvmArgsAppend = { "-Ddb.url=jdbc:h2:mem:bench;DB_CLOSE_DELAY=-1",
+        "-Ddb.pool.leakDetectionThresholdMs=0", "-Xms1g", "-Xmx1g" })
+public class RegistrationBenchmark {
+
+    AccountDAO accountDAO;
+    AtomicInteger next = new AtomicInteger();
+
+    @Setup
+    public void setUp() throws SQLException {
+        BenchmarkDatabase.seed(1000, 1);
+        accountDAO = new AccountDAO();
+    }
+
+    @Benchmark
+    public Account checkThenInsert() {
+        Account account = new Account("checked" + next.incrementAndGet(), "hash");
+        if (accountDAO.getAccount(account.getUsername()) != null) {
+            return null;
+        }
+        return accountDAO.insertAccount(account);
+    }
+
+    @Benchmark
+    public Account insertOnly() {
+        return accountDAO.insertAccount(new Account("inserted" + next.incrementAndGet(), "hash"));
+    }
+
+    @Benchmark
+    public Account duplicateInsert() {
+        return accountDAO.insertAccount(new Account("testuser1", "hash"));
+    }
+}
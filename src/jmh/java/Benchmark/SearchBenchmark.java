@@ -0,0 +1,92 @@
+package Benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import Model.Message;
+import Service.MessageSearchIndex;
+
+/**
+ * Query time of the MessageSearchIndex behind GET /messages/search, for one
+ * page of 20 results.
+ *
+ * Messages are ten words drawn from a 10000 word vocabulary with a skewed
+ * distribution, so "w0" is in most messages and "w5000" in a few hundred out
+ * of a million. The index is filled straight from generated messages rather
+ * than through H2, which only matters for the one-off build.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms2g", "-Xmx2g" })
+public class SearchBenchmark {
+
+    static final int VOCABULARY = 10000;
+    static final int WORDS_PER_MESSAGE = 10;
+
+    @Param({ "100000", "1000000" })
+    int messages;
+
+    MessageSearchIndex searchIndex;
+
+    @Setup
+    public void setUp() {
+        searchIndex = new MessageSearchIndex(handler -> {
+            Random random = new Random(42);
+            StringBuilder text = new StringBuilder();
+            for (int i = 1; i <= messages; i++) {
+                text.setLength(0);
+                for (int w = 0; w < WORDS_PER_MESSAGE; w++) {
+                    // Squaring a uniform draw skews it towards the low, common words.
+                    double u = random.nextDouble();
+                    text.append('w').append((int) (u * u * VOCABULARY)).append(' ');
+                }
+                handler.handle(new Message(i, 1, text.toString(), 1669947792L));
+            }
+            return true;
+        });
+        searchIndex.search("w0", 0, 1);
+    }
+
+    /**
+     * One very common word: every hit scores the same, so only the newest 20
+     * postings are visited.
+     */
+    @Benchmark
+    public int[] commonWord() {
+        return searchIndex.search("w0", 0, 20);
+    }
+
+    @Benchmark
+    public int[] rareWord() {
+        return searchIndex.search("w5000", 0, 20);
+    }
+
+    /**
+     * A common and a rare word: the rare word decides the ranking, but the
+     * common word's postings are merged until 20 messages with both are found.
+     */
+    @Benchmark
+    public int[] commonAndRareWord() {
+        return searchIndex.search("w1 w3000", 0, 20);
+    }
+
+    @Benchmark
+    public int[] deepPage() {
+        return searchIndex.search("w10 w20", 980, 20);
+    }
+}
@@ -0,0 +1,64 @@
+package Benchmark;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import DAO.MessageDAO;
+import Model.Message;
+
+/**
+ * The database side of GET /messages/{message_id}, with and without the
+ * pool's prepared statement cache (db.pool.statementCacheSize).
+ *
+ * H2 keeps its own small per-session cache of parsed queries
+ * (QUERY_CACHE_SIZE, 8 by default), which hides the parse cost while only a
+ * few SQL strings are in use. The h2QueryCache parameter turns it off to show
+ * the full parse and plan cost a real request mix would pay once it uses
+ * more distinct statements than H2 caches.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Ddb.pool.leakDetectionThresholdMs=0", "-Xms1g", "-Xmx1g" })
+public class StatementCacheBenchmark {
+
+    static final int ROWS = 100000;
+
+    @Param({ "0", "64" })
+    int statementCacheSize;
+
+    @Param({ "8", "0" })
+    int h2QueryCache;
+
+    MessageDAO messageDAO;
+    int next;
+
+    @Setup
+    public void setUp() throws SQLException {
+        // The pool reads its settings when ConnectionUtil is first loaded.
+        System.setProperty("db.url", "jdbc:h2:mem:bench;DB_CLOSE_DELAY=-1;QUERY_CACHE_SIZE=" + h2QueryCache);
+        System.setProperty("db.pool.statementCacheSize", Integer.toString(statementCacheSize));
+        BenchmarkDatabase.seed(1000, ROWS);
+        messageDAO = new MessageDAO();
+    }
+
+    @Benchmark
+    public Message getOneMessageGivenMessageId() {
+        next = (next + 7919) % ROWS;
+        return messageDAO.getOneMessageGivenMessageId(next + 1);
+    }
+}
@@ -0,0 +1,97 @@
+package Benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import DAO.LogStore;
+import DAO.MessageDAO;
+import DAO.MessageStore;
+import Model.Message;
+
+/**
+ * Compares the H2 DAO with the embedded log-structured store on the message
+ * queries behind the read endpoints and on message creation. The log store
+ * imports the seeded H2 database into a fresh temporary directory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Ddb.url=jdbc:h2:mem:bench;DB_CLOSE_DELAY=-1",
+        "-Ddb.pool.leakDetectionThresholdMs=0", "-Xms1g", "-Xmx1g" })
+public class StoreBenchmark {
+
+    static final int ACCOUNTS = 1000;
+
+    @Param({ "h2", "log" })
+    String backend;
+
+    @Param({ "100000" })
+    int rows;
+
+    MessageStore messageStore;
+    int next;
+
+    @Setup
+    public void setUp() throws SQLException, IOException {
+        BenchmarkDatabase.seed(ACCOUNTS, rows);
+        messageStore = "log".equals(backend)
+                ? new LogStore(Files.createTempDirectory("logstore-bench"), 64 << 20, false, 3600, 0.5)
+                : new MessageDAO();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        if (messageStore instanceof LogStore) {
+            ((LogStore) messageStore).close();
+        }
+    }
+
+    @Benchmark
+    public Message getOneMessageGivenMessageId() {
+        return messageStore.getOneMessageGivenMessageId(nextMessageId());
+    }
+
+    @Benchmark
+    public List<Message> getAllMessagesFromUser() {
+        return messageStore.getAllMessagesFromUser(nextAccountId());
+    }
+
+    @Benchmark
+    public List<Message> getMessagesPage() {
+        return messageStore.getMessagesPage(null, nextMessageId(), null, 20);
+    }
+
+    @Benchmark
+    public Message createMessage() {
+        return messageStore.createMessage(new Message(nextAccountId(), "benchmark message", 1669947792L));
+    }
+
+    private int nextMessageId() {
+        // Walk the id space with a stride so lookups are spread over the table.
+        next = (next + 7919) % rows;
+        return next + 1;
+    }
+
+    private int nextAccountId() {
+        next = (next + 7919) % rows;
+        return next % ACCOUNTS + 1;
+    }
+}
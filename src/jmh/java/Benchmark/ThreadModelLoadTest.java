@@ -0,0 +1,210 @@
+package Benchmark;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import Controller.SocialMediaController;
+import io.javalin.Javalin;
+import io.javalin.util.LoomUtil;
+
+/**
+ * Compares request throughput and latency of the default platform thread pool
+ * against virtual threads (-Dserver.virtualThreads=true) with many concurrent
+ * clients. This is a plain main rather than a JMH benchmark because it drives
+ * the whole HTTP stack from the outside.
+ *
+ * Each client runs a closed loop over a mix of 80% GET /messages/{id}, 10%
+ * GET /accounts/{id}/messages?limit=20 and 10% POST /messages. The message
+ * and timeline caches are disabled unless configured, so reads reach JDBC.
+ * Virtual threads need JDK 21; on older JDKs only the platform run is done.
+ *
+ * Run it with:
+ * mvn -Pbench test-compile exec:java -Dexec.mainClass=Benchmark.ThreadModelLoadTest -Dexec.classpathScope=test
+ *
+ * Options (system properties): load.clients (1000), load.warmupSeconds (10),
+ * load.seconds (30), load.accounts (1000), load.messages (100000), plus the
+ * usual db.pool.* and cache.* settings.
+ */
+public class ThreadModelLoadTest {
+
+    private static final int CLIENTS = Integer.getInteger("load.clients", 1000);
+    private static final int WARMUP_SECONDS = Integer.getInteger("load.warmupSeconds", 10);
+    private static final int SECONDS = Integer.getInteger("load.seconds", 30);
+    private static final int ACCOUNTS = Integer.getInteger("load.accounts", 1000);
+    private static final int MESSAGES = Integer.getInteger("load.messages", 100000);
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+
+    public static void main(String[] args) throws Exception {
+        // Must be set before ConnectionUtil is loaded.
+        System.setProperty("db.url", System.getProperty("db.url", "jdbc:h2:mem:load;DB_CLOSE_DELAY=-1"));
+        System.setProperty("cache.message.maxSize", System.getProperty("cache.message.maxSize", "0"));
+        System.setProperty("cache.timeline.maxIds", System.getProperty("cache.timeline.maxIds", "0"));
+
+        List<String> results = new ArrayList<>();
+        results.add(run(false));
+        if (LoomUtil.INSTANCE.getLoomAvailable()) {
+            results.add(run(true));
+        } else {
+            System.out.println("Java " + System.getProperty("java.version")
+                    + " has no virtual threads; skipping the virtual thread run");
+        }
+
+        System.out.println();
+        System.out.println(String.format("%-9s %8s %10s %9s %9s %9s %8s", "threads", "clients", "req/s",
+                "p50 ms", "p99 ms", "max ms", "errors"));
+        results.forEach(System.out::println);
+    }
+
+    /**
+     * Seed a fresh database, start the app in the given mode and measure it.
+     *
+     * @return one formatted result row.
+     */
+    private static String run(boolean virtualThreads) throws Exception {
+        String mode = virtualThreads ? "virtual" : "platform";
+        System.out.println("Seeding " + ACCOUNTS + " accounts and " + MESSAGES + " messages for the " + mode
+                + " run");
+        BenchmarkDatabase.seed(ACCOUNTS, MESSAGES);
+
+        System.setProperty("server.virtualThreads", Boolean.toString(virtualThreads));
+        Javalin app = new SocialMediaController().startAPI().start(0);
+        ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+        try {
+            String base = "http://localhost:" + app.port();
+            HttpClient webClient = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_1_1)
+                    .connectTimeout(Duration.ofSeconds(10))
+                    .build();
+
+            drive(webClient, base, clients, WARMUP_SECONDS);
+            Result result = drive(webClient, base, clients, SECONDS);
+            return String.format("%-9s %8d %10.0f %9.2f %9.2f %9.2f %8d", mode, CLIENTS,
+                    result.latencies.length / (double) SECONDS, result.percentile(0.50), result.percentile(0.99),
+                    result.percentile(1.0), result.errors);
+        } finally {
+            app.stop();
+            clients.shutdownNow();
+        }
+    }
+
+    /**
+     * Run every client in a closed loop for the given number of seconds.
+     */
+    private static Result drive(HttpClient webClient, String base, ExecutorService clients, int seconds)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        List<long[]> samples = new ArrayList<>();
+        int[] counts = new int[CLIENTS];
+        AtomicLong errors = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(CLIENTS);
+
+        for (int c = 0; c < CLIENTS; c++) {
+            long[] latencies = new long[1 << 16];
+            samples.add(latencies);
+            int client = c;
+            clients.execute(() -> {
+                long[] own = latencies;
+                int count = 0;
+                try {
+                    while (System.nanoTime() < deadline) {
+                        HttpRequest request = nextRequest(base);
+                        long start = System.nanoTime();
+                        try {
+                            HttpResponse<Void> response = webClient.send(request,
+                                    HttpResponse.BodyHandlers.discarding());
+                            if (response.statusCode() != 200) {
+                                errors.incrementAndGet();
+                            }
+                        } catch (Exception e) {
+                            errors.incrementAndGet();
+                            if (e instanceof InterruptedException) {
+                                return;
+                            }
+                        }
+                        if (count == own.length) {
+                            own = Arrays.copyOf(own, own.length * 2);
+                            samples.set(client, own);
+                        }
+                        own[count++] = System.nanoTime() - start;
+                    }
+                } finally {
+                    counts[client] = count;
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+
+        int total = 0;
+        for (int count : counts) {
+            total += count;
+        }
+        long[] all = new long[total];
+        int offset = 0;
+        for (int c = 0; c < CLIENTS; c++) {
+            System.arraycopy(samples.get(c), 0, all, offset, counts[c]);
+            offset += counts[c];
+        }
+        Arrays.sort(all);
+        return new Result(all, errors.get());
+    }
+
+    private static HttpRequest nextRequest(String base) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int roll = random.nextInt(10);
+        if (roll == 0) {
+            String body = "{\"posted_by\":" + (1 + random.nextInt(ACCOUNTS))
+                    + ",\"message_text\":\"load test message\",\"time_posted_epoch\":1669947792}";
+            return HttpRequest.newBuilder(URI.create(base + "/messages"))
+                    .POST(HttpRequest.BodyPublishers.ofString(body))
+                    .header("Content-Type", "application/json")
+                    .timeout(REQUEST_TIMEOUT)
+                    .build();
+        }
+        if (roll == 1) {
+            return HttpRequest.newBuilder(
+                    URI.create(base + "/accounts/" + (1 + random.nextInt(ACCOUNTS)) + "/messages?limit=20"))
+                    .timeout(REQUEST_TIMEOUT)
+                    .build();
+        }
+        return HttpRequest.newBuilder(URI.create(base + "/messages/" + (1 + random.nextInt(MESSAGES))))
+                .timeout(REQUEST_TIMEOUT)
+                .build();
+    }
+
+    /**
+     * Sorted request latencies in nanoseconds and the number of failed requests.
+     */
+    private static final class Result {
+        final long[] latencies;
+        final long errors;
+
+        Result(long[] latencies, long errors) {
+            this.latencies = latencies;
+            this.errors = errors;
+        }
+
+        /**
+         * @return the latency at the given quantile, in milliseconds.
+         */
+        double percentile(double quantile) {
+            if (latencies.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(quantile * latencies.length) - 1;
+            return latencies[Math.max(0, index)] / 1e6;
+        }
+    }
+}
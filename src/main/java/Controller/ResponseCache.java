@@ -0,0 +1,119 @@
+package Controller;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import Util.ResponseCompression;
+
+/**
+ * Finished JSON bodies of message lists, keyed by path and query string and
+ * tagged with the ETag they were built under. A request for a list whose
+ * ETag has not changed since is answered with the stored bytes, gzipped once
+ * and then reused for every client that accepts gzip.
+ *
+ * A body is only served under the ETag it was stored with. ETags are read
+ * before the list, so a stored body is never older than its ETag claims.
+ */
+final class ResponseCache {
+
+    static final class Body {
+        final String etag;
+
+        /**
+         * The Link header sent with the body, or null.
+         */
+        final String link;
+        final byte[] json;
+        private volatile byte[] gzipped;
+
+        Body(String etag, String link, byte[] json) {
+            this.etag = etag;
+            this.link = link;
+            this.json = json;
+        }
+
+        /**
+         * @return the body gzipped, compressing it on first use. Racing callers
+         *         compress the same bytes, so either may win.
+         */
+        byte[] gzipped(ResponseCompression compression) {
+            byte[] result = gzipped;
+            if (result == null) {
+                result = compression.gzip(json);
+                gzipped = result;
+            }
+            return result;
+        }
+    }
+
+    private final Cache<String, Body> cache;
+
+    /**
+     * Counted here rather than by Caffeine, for which a body stored under an
+     * older ETag is a hit.
+     */
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder gzippedResponses = new LongAdder();
+    private final LongAdder bytesSaved = new LongAdder();
+
+    /**
+     * @param maxBytes upper bound on the JSON bytes held.
+     */
+    ResponseCache(long maxBytes) {
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .<String, Body>weigher((key, body) -> body.json.length)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * @return the body stored for the key under this ETag, or null.
+     */
+    Body get(String key, String etag) {
+        Body body = cache.getIfPresent(key);
+        if (body == null || !body.etag.equals(etag)) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return body;
+    }
+
+    Body put(String key, String etag, String link, byte[] json) {
+        Body body = new Body(etag, link, json);
+        cache.put(key, body);
+        return body;
+    }
+
+    /**
+     * Count a body sent gzipped.
+     */
+    void gzipped(Body body) {
+        gzippedResponses.increment();
+        bytesSaved.add(body.json.length - body.gzipped.length);
+    }
+
+    /**
+     * @return the hit, miss and eviction counters together with the current
+     *         size, and the bytes gzip saved.
+     */
+    Map<String, Object> stats() {
+        long hitCount = hits.sum();
+        long requests = hitCount + misses.sum();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("size", cache.estimatedSize());
+        result.put("hits", hitCount);
+        result.put("misses", requests - hitCount);
+        result.put("hitRate", requests == 0 ? 1.0 : (double) hitCount / requests);
+        result.put("evictions", cache.stats().evictionCount());
+        result.put("gzippedResponses", gzippedResponses.sum());
+        result.put("bytesSaved", bytesSaved.sum());
+        return result;
+    }
+}
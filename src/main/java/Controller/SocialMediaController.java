@@ -1,14 +1,39 @@
 package Controller;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonGenerator;
 
 import Model.Account;
 import Model.Message;
 import Service.AccountService;
+import Service.LoginRateLimiter;
 import Service.MessageService;
+import Service.MessageWriteBehind;
+import Util.ConnectionUtil;
+import Util.JacksonJsonMapper;
+import Util.LatencyTimer;
+import Util.Metrics;
+import Util.ResponseCompression;
+import Util.SchemaMigrator;
 import io.javalin.Javalin;
+import io.javalin.http.ContentType;
 import io.javalin.http.Context;
+import io.javalin.http.Handler;
+import io.javalin.http.HandlerType;
+import io.javalin.http.Header;
+import io.javalin.util.ConcurrencyUtil;
+import io.javalin.util.LoomUtil;
 
 /**
  * TODO: You will need to write your own endpoints and handlers for your
@@ -26,46 +51,130 @@ public class SocialMediaController {
      * @return a Javalin app object which defines the behavior of the Javalin
      *         controller.
      */
+    private static final Logger LOGGER = LoggerFactory.getLogger(SocialMediaController.class);
+
     AccountService accountService;
     MessageService messageService;
+    JacksonJsonMapper jsonMapper;
+    ResponseCompression compression;
+    ResponseCache responseCache;
+
+    /**
+     * Page size used when a client pages through messages without a limit.
+     */
+    private static final int DEFAULT_PAGE_SIZE = 100;
+
+    /**
+     * Largest page a client may ask for; bigger exports should use stream=true.
+     */
+    private static final int MAX_PAGE_SIZE = 1000;
+
+    /**
+     * Search results per page when the client does not give a limit, and the
+     * most it may ask for.
+     */
+    private static final int DEFAULT_SEARCH_PAGE_SIZE = 20;
+    private static final int MAX_SEARCH_PAGE_SIZE = 100;
+
+    /**
+     * Deepest offset a search may page to, which bounds the ranking work per
+     * query.
+     */
+    private static final int MAX_SEARCH_OFFSET = 1000;
+
+    /**
+     * Feed messages per page when the client does not give a limit, and the
+     * most it may ask for.
+     */
+    private static final int DEFAULT_FEED_PAGE_SIZE = 20;
+    private static final int MAX_FEED_PAGE_SIZE = 100;
+
+    /**
+     * Most messages accepted by one POST /messages/batch request.
+     */
+    private static final int MAX_BATCH_SIZE = Integer.getInteger("messages.batch.maxSize", 10000);
 
     public SocialMediaController() {
         this.accountService = new AccountService();
         this.messageService = new MessageService();
+        this.jsonMapper = new JacksonJsonMapper();
+        this.compression = ResponseCompression.fromSystemProperties();
+        this.responseCache = new ResponseCache(Long.getLong("cache.response.maxBytes", 64L << 20));
     }
 
+    /**
+     * Responses are gzipped as set by the http.compression properties (see
+     * ResponseCompression), and message lists are kept finished in a response
+     * cache of at most cache.response.maxBytes.
+     */
     public Javalin startAPI() {
-        Javalin app = Javalin.create();
-        app.post("/register", this::userRegisterHandler);
-        app.post("/login", this::loginHandler);
-        app.post("/messages", this::createMessageHandler);
-        app.get("/messages", this::getAllMessagesHandler);
-        app.get("/messages/{message_id}", this::getMessageHandler);
-        app.delete("/messages/{message_id}", this::deleteMessageHandler);
-        app.patch("/messages/{message_id}", this::updateMessageHandler);
-        app.get("/accounts/{account_id}/messages", this::getAllMessagesFromUserHandler);
+        SchemaMigrator.migrate();
+        configureRequestThreads();
+        Javalin app = Javalin.create(config -> {
+            config.jsonMapper(jsonMapper);
+            config.compression.custom(compression.strategy());
+        });
+        route(app, HandlerType.POST, "/register", this::userRegisterHandler);
+        route(app, HandlerType.POST, "/login", this::loginHandler);
+        route(app, HandlerType.POST, "/messages", this::createMessageHandler);
+        route(app, HandlerType.POST, "/messages/batch", this::createMessagesBatchHandler);
+        route(app, HandlerType.GET, "/messages", this::getAllMessagesHandler);
+        // Before /messages/{message_id}, which would otherwise take "search" as an ID.
+        route(app, HandlerType.GET, "/messages/search", this::searchMessagesHandler);
+        route(app, HandlerType.GET, "/messages/{message_id}", this::getMessageHandler);
+        route(app, HandlerType.DELETE, "/messages/{message_id}", this::deleteMessageHandler);
+        route(app, HandlerType.PATCH, "/messages/{message_id}", this::updateMessageHandler);
+        route(app, HandlerType.GET, "/accounts/{account_id}/messages", this::getAllMessagesFromUserHandler);
+        route(app, HandlerType.PUT, "/accounts/{account_id}/following/{followee_id}", this::followHandler);
+        route(app, HandlerType.DELETE, "/accounts/{account_id}/following/{followee_id}", this::unfollowHandler);
+        route(app, HandlerType.GET, "/accounts/{account_id}/feed", this::getFeedHandler);
+        route(app, HandlerType.GET, "/stats", this::statsHandler);
+        app.get("/metrics", this::metricsHandler);
+        app.events(event -> event.serverStopped(messageService::close));
 
         return app;
     }
 
+    /**
+     * Register a handler and time its requests into the route's LatencyTimer.
+     * Requests that throw or answer with a 5xx status are also counted as
+     * errors.
+     */
+    private static void route(Javalin app, HandlerType type, String path, Handler handler) {
+        LatencyTimer timer = Metrics.route(type + " " + path);
+        app.addHandler(type, path, ctx -> {
+            long start = System.nanoTime();
+            try {
+                handler.handle(ctx);
+                if (ctx.statusCode() >= 500) {
+                    timer.error();
+                }
+            } catch (Exception e) {
+                timer.error();
+                throw e;
+            } finally {
+                timer.recordSince(start);
+            }
+        });
+    }
+
     /**
      * Handler to create a new user Account.
-     * The Jackson ObjectMapper will automatically convert the JSON of the POST
+     * The shared JacksonJsonMapper will convert the JSON of the POST
      * request into an Account object.
      * If a null account is returned, the API will return a 400 client error
      * message.
      * 
      * @param ctx The Javalin Context object manages information about both the HTTP
      *            request and response.
-     * @throws JsonProcessingException will be thrown if there is an issue
-     *                                 converting JSON into an object.
+     * @throws IOException will be thrown if there is an issue
+     *                     converting between JSON and an object.
      */
-    private void userRegisterHandler(Context ctx) throws JsonProcessingException {
-        ObjectMapper mapper = new ObjectMapper();
-        Account account = mapper.readValue(ctx.body(), Account.class);
+    private void userRegisterHandler(Context ctx) throws IOException {
+        Account account = jsonMapper.read(ctx.bodyInputStream(), Account.class);
         Account addedAccount = accountService.addAccount(account);
         if (addedAccount != null) {
-            ctx.json(mapper.writeValueAsString(addedAccount));
+            writeJson(ctx, addedAccount);
         } else {
             ctx.status(400);
         }
@@ -75,19 +184,25 @@ public class SocialMediaController {
      * Handler to verify login.
      * Login will be successful if the username and password provided in the request
      * body matches a real account on the database.
-     * If login is not successful, the response status should be 401.
+     * If login is not successful, the response status should be 401. Too many
+     * attempts for one username or from one address get a 429.
      * 
      * @param ctx The Javalin Context object manages information about both the HTTP
      *            request and response.
-     * @throws JsonProcessingException will be thrown if there is an issue
-     *                                 converting JSON into an object.
+     * @throws IOException will be thrown if there is an issue
+     *                     converting between JSON and an object.
      */
-    private void loginHandler(Context ctx) throws JsonProcessingException {
-        ObjectMapper mapper = new ObjectMapper();
-        Account account = mapper.readValue(ctx.body(), Account.class);
-        Account addedAccount = accountService.login(account);
+    private void loginHandler(Context ctx) throws IOException {
+        Account account = jsonMapper.read(ctx.bodyInputStream(), Account.class);
+        Account addedAccount;
+        try {
+            addedAccount = accountService.login(account, ctx.ip());
+        } catch (LoginRateLimiter.RateLimitedException e) {
+            ctx.status(429);
+            return;
+        }
         if (addedAccount != null) {
-            ctx.json(mapper.writeValueAsString(addedAccount));
+            writeJson(ctx, addedAccount);
         } else {
             ctx.status(401);
         }
@@ -96,63 +211,171 @@ public class SocialMediaController {
     /**
      * Handler to post a new message.
      * If a null message is returned, the API will return a 400 client error
-     * message.
+     * message. If the write-behind queue is full, the API will return 429 so
+     * the client backs off, and if the message was queued but not saved in
+     * time, 503.
      * 
      * @param ctx The Javalin Context object manages information about both the HTTP
      *            request and response.
-     * @throws JsonProcessingException will be thrown if there is an issue
-     *                                 converting JSON into an object.
+     * @throws IOException will be thrown if there is an issue
+     *                     converting between JSON and an object.
      */
-    private void createMessageHandler(Context ctx) throws JsonProcessingException {
-        ObjectMapper mapper = new ObjectMapper();
-        Message message = mapper.readValue(ctx.body(), Message.class);
-        Message createdMessage = messageService.createMessage(message);
+    private void createMessageHandler(Context ctx) throws IOException {
+        Message message = jsonMapper.read(ctx.bodyInputStream(), Message.class);
+        Message createdMessage;
+        try {
+            createdMessage = messageService.createMessage(message);
+        } catch (MessageWriteBehind.QueueFullException e) {
+            ctx.status(429);
+            return;
+        } catch (MessageWriteBehind.CommitTimeoutException e) {
+            ctx.status(503);
+            return;
+        }
         if (createdMessage != null) {
-            ctx.json(mapper.writeValueAsString(createdMessage));
+            writeJson(ctx, createdMessage);
         } else {
             ctx.status(400);
         }
     }
 
+    /**
+     * Handler to post many messages at once.
+     * The request body is a JSON array of messages, each validated like a
+     * single POST /messages. Valid messages are saved in one transaction and
+     * the response lists, per item, either the created message or the reason
+     * it was rejected.
+     * An empty array, or one larger than messages.batch.maxSize, gets a 400.
+     * 
+     * @param ctx The Javalin Context object manages information about both the HTTP
+     *            request and response.
+     * @throws IOException will be thrown if there is an issue
+     *                     converting between JSON and an object.
+     */
+    private void createMessagesBatchHandler(Context ctx) throws IOException {
+        Message[] messages = jsonMapper.read(ctx.bodyInputStream(), Message[].class);
+        if (messages == null || messages.length == 0 || messages.length > MAX_BATCH_SIZE) {
+            ctx.status(400);
+            return;
+        }
+        writeJson(ctx, messageService.createMessages(Arrays.asList(messages)));
+    }
+
     /**
      * Handler to retrieve all messages.
+     * Supports keyset pagination with the limit, after_id and before_id query
+     * parameters, and streaming the full list with stream=true.
+     * Lists and pages carry a weak ETag that changes with every message write,
+     * and a matching If-None-Match gets a 304. Until the ETag changes, the
+     * same request is answered from the response cache.
+     * 
+     * @param ctx The Javalin Context object manages information about both the HTTP
+     *            request and response.
+     * @throws IOException will be thrown if there is an issue writing the
+     *                     response.
+     */
+    private void getAllMessagesHandler(Context ctx) throws IOException {
+        if (isStreamRequested(ctx)) {
+            streamMessages(ctx, null);
+            return;
+        }
+        String etag = weakETag(messageService.getAllMessagesVersion());
+        if (isNotModified(ctx, etag)) {
+            ctx.status(304);
+        } else if (!writeCachedList(ctx, etag)) {
+            if (isPageRequested(ctx)) {
+                writeMessagesPage(ctx, null, etag);
+            } else {
+                writeMessageList(ctx, messageService.getAllMessages(), null, etag);
+            }
+        }
+    }
+
+    /**
+     * Handler to search message texts.
+     * Results are ranked by relevance, then recency, and paged with the limit
+     * and offset query parameters; a Link header points at the next page
+     * while pages are full. A missing or blank q gets a 400.
      * 
      * @param ctx The Javalin Context object manages information about both the HTTP
      *            request and response.
-     * @throws JsonProcessingException will be thrown if there is an issue
-     *                                 converting JSON into an object.
+     * @throws IOException will be thrown if there is an issue
+     *                     converting between JSON and an object.
      */
-    private void getAllMessagesHandler(Context ctx) throws JsonProcessingException {
-        ctx.json(messageService.getAllMessages());
+    private void searchMessagesHandler(Context ctx) throws IOException {
+        String query = ctx.queryParam("q");
+        if (query == null || query.isBlank()) {
+            ctx.status(400);
+            return;
+        }
+        int limit = ctx.queryParamAsClass("limit", Integer.class)
+                .check(l -> l > 0 && l <= MAX_SEARCH_PAGE_SIZE, "limit must be between 1 and " + MAX_SEARCH_PAGE_SIZE)
+                .getOrDefault(DEFAULT_SEARCH_PAGE_SIZE);
+        int offset = ctx.queryParamAsClass("offset", Integer.class)
+                .check(o -> o >= 0 && o <= MAX_SEARCH_OFFSET, "offset must be between 0 and " + MAX_SEARCH_OFFSET)
+                .getOrDefault(0);
+
+        List<Message> results = messageService.searchMessages(query, offset, limit);
+        if (results == null) {
+            ctx.status(500);
+            return;
+        }
+        if (results.size() == limit && offset + limit <= MAX_SEARCH_OFFSET) {
+            ctx.header("Link", "<" + ctx.path() + "?q=" + URLEncoder.encode(query, StandardCharsets.UTF_8)
+                    + "&limit=" + limit + "&offset=" + (offset + limit) + ">; rel=\"next\"");
+        }
+        writeMessages(ctx, results);
     }
 
     /**
      * Handler to get a message identified by a given message_id.
+     * The response carries a strong ETag that changes whenever the message
+     * does, deletion included, and is only ever sent with the message. So an
+     * If-None-Match holding the current ETag proves the message still exists
+     * and gets a 304 without the message being read. Only an If-None-Match
+     * of "*" needs the message loaded first, and a message that does not
+     * exist gets neither an ETag nor a 304. The version is read before the
+     * message, so the ETag is never newer than the body it is sent with.
      * 
      * @param ctx The Javalin Context object manages information about both the HTTP
      *            request and response.
-     * @throws JsonProcessingException will be thrown if there is an issue
-     *                                 converting JSON into an object.
+     * @throws IOException will be thrown if there is an issue
+     *                     converting between JSON and an object.
      */
-    private void getMessageHandler(Context ctx) throws JsonProcessingException {
-        if (messageService.getMessagegivenMessageId(Integer.parseInt(ctx.pathParam("message_id"))) != null) {
-            ctx.json(messageService.getMessagegivenMessageId(Integer.parseInt(ctx.pathParam("message_id"))));
+    private void getMessageHandler(Context ctx) throws IOException {
+        int message_id = Integer.parseInt(ctx.pathParam("message_id"));
+        String etag = "\"" + messageService.getMessageVersion(message_id) + "\"";
+        if (ifNoneMatchLists(ctx, etag, false)) {
+            ctx.header(Header.ETAG, etag);
+            ctx.status(304);
+            return;
         }
+        Message message = messageService.getMessagegivenMessageId(message_id);
+        if (message == null) {
+            return;
+        }
+        if (isNotModified(ctx, etag)) {
+            ctx.status(304);
+            return;
+        }
+        writeMessage(ctx, message);
     }
 
     /**
      * Handler to delete an existing message and remove the message from the
-     * database.
+     * database. The response holds the deleted message, or is empty if there
+     * was nothing to delete, e.g. because a concurrent delete got there first.
      * 
      * @param ctx The Javalin Context object manages information about both the HTTP
      *            request and response.
-     * @throws JsonProcessingException will be thrown if there is an issue
-     *                                 converting JSON into an object.
+     * @throws IOException will be thrown if there is an issue
+     *                     converting between JSON and an object.
      */
-    private void deleteMessageHandler(Context ctx) throws JsonProcessingException {
-        if (messageService.getMessagegivenMessageId(Integer.parseInt(ctx.pathParam("message_id"))) != null) {
-            ctx.json(messageService.getMessagegivenMessageId(Integer.parseInt(ctx.pathParam("message_id"))));
-            messageService.deleteMessagegivenMessageId(Integer.parseInt(ctx.pathParam("message_id")));
+    private void deleteMessageHandler(Context ctx) throws IOException {
+        int message_id = Integer.parseInt(ctx.pathParam("message_id"));
+        Message message = messageService.deleteMessagegivenMessageId(message_id);
+        if (message != null) {
+            writeJson(ctx, message);
         }
     }
 
@@ -164,32 +387,358 @@ public class SocialMediaController {
      * 
      * @param ctx The Javalin Context object manages information about both the HTTP
      *            request and response.
-     * @throws JsonProcessingException will be thrown if there is an issue
-     *                                 converting JSON into an object.
+     * @throws IOException will be thrown if there is an issue
+     *                     converting between JSON and an object.
      */
-    private void updateMessageHandler(Context ctx) throws JsonProcessingException {
-        ObjectMapper mapper = new ObjectMapper();
-        Message message = mapper.readValue(ctx.body(), Message.class);
+    private void updateMessageHandler(Context ctx) throws IOException {
+        Message message = jsonMapper.read(ctx.bodyInputStream(), Message.class);
         message.setMessage_id(Integer.parseInt(ctx.pathParam("message_id")));
         message = messageService.updateMessageGivenMessageId(message);
 
         if (message == null) {
             ctx.status(400);
         } else {
-            ctx.json(mapper.writeValueAsString(message));
+            writeJson(ctx, message);
         }
     }
 
     /**
      * Handler to get all messages posted by a particular user given the Account
      * Id.
+     * Supports the same pagination, streaming and ETag handling as GET
+     * /messages, with an ETag that only changes with the account's messages.
+     * 
+     * @param ctx The Javalin Context object manages information about both the HTTP
+     *            request and response.
+     * @throws IOException will be thrown if there is an issue writing the
+     *                     response.
+     */
+    private void getAllMessagesFromUserHandler(Context ctx) throws IOException {
+        int account_id = Integer.parseInt(ctx.pathParam("account_id"));
+        if (isStreamRequested(ctx)) {
+            streamMessages(ctx, account_id);
+            return;
+        }
+        String etag = weakETag(messageService.getAccountMessagesVersion(account_id));
+        if (isNotModified(ctx, etag)) {
+            ctx.status(304);
+        } else if (!writeCachedList(ctx, etag)) {
+            if (isPageRequested(ctx)) {
+                writeMessagesPage(ctx, account_id, etag);
+            } else {
+                writeMessageList(ctx, messageService.getAllMessagesFromUser(account_id), null, etag);
+            }
+        }
+    }
+
+    /**
+     * Handler to make one account follow another.
+     * If either account does not exist or they are the same account, the
+     * response status will be 400. Following an account twice is not an
+     * error.
+     * 
+     * @param ctx The Javalin Context object manages information about both the HTTP
+     *            request and response.
+     */
+    private void followHandler(Context ctx) {
+        int account_id = Integer.parseInt(ctx.pathParam("account_id"));
+        int followee_id = Integer.parseInt(ctx.pathParam("followee_id"));
+        if (!messageService.follow(account_id, followee_id)) {
+            ctx.status(400);
+        }
+    }
+
+    /**
+     * Handler to make one account stop following another. Like deleting a
+     * message, the response status is always 200.
+     * 
+     * @param ctx The Javalin Context object manages information about both the HTTP
+     *            request and response.
+     */
+    private void unfollowHandler(Context ctx) {
+        int account_id = Integer.parseInt(ctx.pathParam("account_id"));
+        int followee_id = Integer.parseInt(ctx.pathParam("followee_id"));
+        messageService.unfollow(account_id, followee_id);
+    }
+
+    /**
+     * Handler to get one page of an account's home feed: its own messages and
+     * those of the accounts it follows, newest first.
+     * Pages are cut with the limit and before_id query parameters, and a Link
+     * header points at the next, older page while pages are full.
+     * 
+     * @param ctx The Javalin Context object manages information about both the HTTP
+     *            request and response.
+     * @throws IOException will be thrown if there is an issue writing the
+     *                     response.
+     */
+    private void getFeedHandler(Context ctx) throws IOException {
+        int account_id = Integer.parseInt(ctx.pathParam("account_id"));
+        int limit = ctx.queryParamAsClass("limit", Integer.class)
+                .check(l -> l > 0 && l <= MAX_FEED_PAGE_SIZE, "limit must be between 1 and " + MAX_FEED_PAGE_SIZE)
+                .getOrDefault(DEFAULT_FEED_PAGE_SIZE);
+        Integer before_id = ctx.queryParamAsClass("before_id", Integer.class).allowNullable().get();
+
+        List<Message> page = messageService.getFeed(account_id, before_id, limit);
+        if (page == null) {
+            ctx.status(500);
+            return;
+        }
+        if (page.size() == limit) {
+            ctx.header("Link", "<" + ctx.path() + "?limit=" + limit + "&before_id="
+                    + page.get(page.size() - 1).getMessage_id() + ">; rel=\"next\"");
+        }
+        writeMessages(ctx, page);
+    }
+
+    /**
+     * Handler to report the internal counters used to size the caches.
      * 
      * @param ctx The Javalin Context object manages information about both the HTTP
      *            request and response.
-     * @throws JsonProcessingException will be thrown if there is an issue
-     *                                 converting JSON into an object.
+     * @throws IOException will be thrown if there is an issue writing the
+     *                     response.
+     */
+    private void statsHandler(Context ctx) throws IOException {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("messageCache", messageService.getCacheStats());
+        stats.put("timelineCache", messageService.getTimelineCacheStats());
+        stats.put("searchIndex", messageService.getSearchIndexStats());
+        stats.put("feed", messageService.getFeedStats());
+        stats.put("statementCache", ConnectionUtil.getPool().statementCacheStats());
+        Map<String, Object> ingest = messageService.getIngestStats();
+        if (ingest != null) {
+            stats.put("ingest", ingest);
+        }
+        Map<String, Object> store = messageService.getStoreStats();
+        if (store != null) {
+            stats.put("store", store);
+        }
+        stats.put("responseCache", responseCache.stats());
+        writeJson(ctx, stats);
+    }
+
+    /**
+     * Handler to expose request, database, connection pool and JVM metrics in
+     * the Prometheus text format.
+     * 
+     * @param ctx The Javalin Context object manages information about both the HTTP
+     *            request and response.
+     */
+    private void metricsHandler(Context ctx) {
+        ctx.contentType(Metrics.CONTENT_TYPE);
+        ctx.result(Metrics.scrape());
+    }
+
+    /**
+     * Set the ETag of the response and tell whether the client already holds
+     * that version according to its If-None-Match header. Tags are compared
+     * weakly, as If-None-Match requires.
+     */
+    private static boolean isNotModified(Context ctx, String etag) {
+        ctx.header(Header.ETAG, etag);
+        return ifNoneMatchLists(ctx, etag, true);
+    }
+
+    /**
+     * @return whether the request's If-None-Match lists the ETag, or "*" if
+     *         wildcard is true.
+     */
+    private static boolean ifNoneMatchLists(Context ctx, String etag, boolean wildcard) {
+        String ifNoneMatch = ctx.header(Header.IF_NONE_MATCH);
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        String opaqueTag = opaqueTag(etag);
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if ((wildcard && tag.equals("*")) || opaqueTag(tag).equals(opaqueTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String weakETag(String version) {
+        return "W/\"" + version + "\"";
+    }
+
+    private static String opaqueTag(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+
+    private boolean isStreamRequested(Context ctx) {
+        return "true".equals(ctx.queryParam("stream"));
+    }
+
+    private boolean isPageRequested(Context ctx) {
+        return ctx.queryParam("limit") != null || ctx.queryParam("after_id") != null
+                || ctx.queryParam("before_id") != null;
+    }
+
+    /**
+     * Respond with one keyset page of messages. A Link header points at the
+     * next page when this one is full and at the previous page when the client
+     * is already paging.
+     * Invalid parameters are rejected by Javalin's validators with a 400.
+     */
+    private void writeMessagesPage(Context ctx, Integer account_id, String etag) throws IOException {
+        int limit = ctx.queryParamAsClass("limit", Integer.class)
+                .check(l -> l > 0 && l <= MAX_PAGE_SIZE, "limit must be between 1 and " + MAX_PAGE_SIZE)
+                .getOrDefault(DEFAULT_PAGE_SIZE);
+        Integer after_id = ctx.queryParamAsClass("after_id", Integer.class).allowNullable().get();
+        Integer before_id = ctx.queryParamAsClass("before_id", Integer.class).allowNullable().get();
+
+        List<Message> page = messageService.getMessagesPage(account_id, after_id, before_id, limit);
+        StringBuilder link = new StringBuilder();
+        if (!page.isEmpty()) {
+            if (page.size() == limit) {
+                link.append("<").append(ctx.path()).append("?limit=").append(limit).append("&after_id=")
+                        .append(page.get(page.size() - 1).getMessage_id()).append(">; rel=\"next\"");
+            }
+            if (after_id != null || before_id != null) {
+                if (link.length() > 0) {
+                    link.append(", ");
+                }
+                link.append("<").append(ctx.path()).append("?limit=").append(limit).append("&before_id=")
+                        .append(page.get(0).getMessage_id()).append(">; rel=\"prev\"");
+            }
+        }
+        writeMessageList(ctx, page, link.length() > 0 ? link.toString() : null, etag);
+    }
+
+    /**
+     * Stream every matching message from the database straight into the
+     * response as a JSON array, without ever holding the full list in memory.
+     * If the query fails part way through, the array is left unterminated so
+     * the client can tell the export is incomplete.
+     */
+    private void streamMessages(Context ctx, Integer account_id) throws IOException {
+        ctx.contentType(ContentType.APPLICATION_JSON);
+        JsonGenerator generator = jsonMapper.createGenerator(ctx.outputStream());
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+        try {
+            generator.writeStartArray();
+            if (messageService.forEachMessage(account_id, generator::writeObject)) {
+                generator.writeEndArray();
+            }
+        } finally {
+            generator.close();
+        }
+    }
+
+    /**
+     * Write a response body as JSON straight to the response output stream,
+     * without building an intermediate String.
+     */
+    private void writeJson(Context ctx, Object value) throws IOException {
+        ctx.contentType(ContentType.APPLICATION_JSON);
+        jsonMapper.write(ctx.outputStream(), value);
+    }
+
+    /**
+     * Write one message as JSON, from the bytes cached for it where possible.
+     */
+    private void writeMessage(Context ctx, Message message) throws IOException {
+        ctx.contentType(ContentType.APPLICATION_JSON);
+        messageService.writeMessageJson(message, ctx.outputStream());
+    }
+
+    /**
+     * Write a JSON array of messages. Javalin decides whether to compress on
+     * the first write alone, and writes single bytes uncompressed, so the
+     * array goes out in one write.
+     */
+    private void writeMessages(Context ctx, List<Message> messages) throws IOException {
+        ctx.contentType(ContentType.APPLICATION_JSON);
+        ctx.outputStream().write(messageListJson(messages));
+    }
+
+    /**
+     * Build a JSON array of messages by concatenating the JSON of each
+     * message, copied from the message cache where it holds the message.
+     * The bytes are the same Jackson writes for the list as a whole.
+     */
+    private byte[] messageListJson(List<Message> messages) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 + messages.size() * 128);
+        out.write('[');
+        for (int i = 0; i < messages.size(); i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            messageService.writeMessageJson(messages.get(i), out);
+        }
+        out.write(']');
+        return out.toByteArray();
+    }
+
+    private static String responseCacheKey(Context ctx) {
+        String query = ctx.queryString();
+        return query == null ? ctx.path() : ctx.path() + "?" + query;
+    }
+
+    /**
+     * Write a message list stored in the response cache for this request
+     * under the current ETag.
+     *
+     * @return false if there was none.
      */
-    private void getAllMessagesFromUserHandler(Context ctx) throws JsonProcessingException {
-        ctx.json(messageService.getAllMessagesFromUser(Integer.parseInt(ctx.pathParam("account_id"))));
+    private boolean writeCachedList(Context ctx, String etag) throws IOException {
+        ResponseCache.Body body = responseCache.get(responseCacheKey(ctx), etag);
+        if (body == null) {
+            return false;
+        }
+        writeBody(ctx, body);
+        return true;
+    }
+
+    /**
+     * Write a message list and store it in the response cache under the ETag
+     * read before the list.
+     */
+    private void writeMessageList(Context ctx, List<Message> messages, String link, String etag)
+            throws IOException {
+        writeBody(ctx, responseCache.put(responseCacheKey(ctx), etag, link, messageListJson(messages)));
+    }
+
+    /**
+     * Write a stored body, sending the gzipped bytes when the client accepts
+     * gzip and the body is large enough. Both bypass ctx.outputStream(), which
+     * would compress again.
+     */
+    private void writeBody(Context ctx, ResponseCache.Body body) throws IOException {
+        ctx.contentType(ContentType.APPLICATION_JSON);
+        ctx.header(Header.VARY, Header.ACCEPT_ENCODING);
+        if (body.link != null) {
+            ctx.header("Link", body.link);
+        }
+        byte[] bytes = body.json;
+        if (compression.shouldCompress(bytes.length, ctx.header(Header.ACCEPT_ENCODING))) {
+            bytes = body.gzipped(compression);
+            responseCache.gzipped(body);
+            ctx.header(Header.CONTENT_ENCODING, "gzip");
+        }
+        ctx.res().setContentLength(bytes.length);
+        ctx.res().getOutputStream().write(bytes);
+    }
+
+    /**
+     * By default Jetty runs handlers on a pool of at most 250 platform threads,
+     * so blocking JDBC calls cap how many requests are in flight. With
+     * -Dserver.virtualThreads=true every request gets its own virtual thread
+     * and only the connection pool limits concurrent database work.
+     *
+     * Javalin picks its thread pool when the server is created, so this must
+     * run before Javalin.create(). It is set either way because Javalin would
+     * otherwise switch to virtual threads on its own whenever the JDK has them.
+     */
+    private static void configureRequestThreads() {
+        boolean requested = Boolean.getBoolean("server.virtualThreads");
+        boolean useVirtualThreads = requested && LoomUtil.INSTANCE.getLoomAvailable();
+        if (requested && !useVirtualThreads) {
+            LOGGER.warn("server.virtualThreads is set but Java " + System.getProperty("java.version")
+                    + " has no virtual threads; using platform threads");
+        }
+        ConcurrencyUtil.INSTANCE.setUseLoom(useVirtualThreads);
     }
-}
\ No newline at end of file
+}
@@ -3,11 +3,26 @@ package DAO;
 import java.util.List;
 import Model.Account;
 import Util.ConnectionUtil;
+import Util.LatencyTimer;
+import Util.Metrics;
 
 import java.sql.*;
 import java.util.ArrayList;
 
-public class AccountDAO {
+public class AccountDAO implements AccountStore {
+
+    /**
+     * SQLState H2 reports when an insert violates a UNIQUE constraint.
+     */
+    private static final String UNIQUE_VIOLATION = "23505";
+
+    /**
+     * Latency and error counts of every method, published on GET /metrics.
+     */
+    private static final LatencyTimer GET_ALL_ACCOUNTS_TIMER = Metrics.dao("AccountDAO.getAllAccounts");
+    private static final LatencyTimer GET_ACCOUNT_TIMER = Metrics.dao("AccountDAO.getAccount");
+    private static final LatencyTimer INSERT_ACCOUNT_TIMER = Metrics.dao("AccountDAO.insertAccount");
+    private static final LatencyTimer UPDATE_PASSWORD_TIMER = Metrics.dao("AccountDAO.updatePassword");
 
     /**
      * Retrieve all accounts in the database.
@@ -15,20 +30,23 @@ public class AccountDAO {
      * @return all Accounts.
      */
     public List<Account> getAllAccounts() {
-        Connection connection = ConnectionUtil.getConnection();
         List<Account> accounts = new ArrayList<>();
+        String sql = "SELECT * FROM account";
 
-        try {
-            String sql = "SELECT * FROM account";
-            PreparedStatement preparedStatement = connection.prepareStatement(sql);
-            ResultSet rs = preparedStatement.executeQuery();
+        long start = System.nanoTime();
+        try (Connection connection = ConnectionUtil.getConnection();
+                PreparedStatement preparedStatement = connection.prepareStatement(sql);
+                ResultSet rs = preparedStatement.executeQuery()) {
             while (rs.next()) {
                 Account account = new Account(rs.getInt("account_id"), rs.getString("username"),
                         rs.getString("password"));
                 accounts.add(account);
             }
         } catch (SQLException e) {
+            GET_ALL_ACCOUNTS_TIMER.error();
             System.out.println(e.getMessage());
+        } finally {
+            GET_ALL_ACCOUNTS_TIMER.recordSince(start);
         }
         return accounts;
     }
@@ -40,92 +58,88 @@ public class AccountDAO {
      * @return Account if getting account is successful.
      */
     public Account getAccount(String username) {
-        Connection connection = ConnectionUtil.getConnection();
-        try {
-
-            String sql = "SELECT * FROM account WHERE username = ?";
-
-            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+        String sql = "SELECT * FROM account WHERE username = ?";
 
+        long start = System.nanoTime();
+        try (Connection connection = ConnectionUtil.getConnection();
+                PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
             preparedStatement.setString(1, username);
 
-            ResultSet rs = preparedStatement.executeQuery();
-            while (rs.next()) {
-                Account account = new Account(rs.getInt("account_id"), rs.getString("username"),
-                        rs.getString("password"));
-                return account;
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                if (rs.next()) {
+                    return new Account(rs.getInt("account_id"), rs.getString("username"),
+                            rs.getString("password"));
+                }
             }
         } catch (SQLException e) {
+            GET_ACCOUNT_TIMER.error();
             System.out.println(e.getMessage());
+        } finally {
+            GET_ACCOUNT_TIMER.recordSince(start);
         }
         return null;
     }
 
     /**
-     * Insert a new account to database.
+     * Insert a new account to database. The caller validates the account and
+     * hashes the password first. Uniqueness of the username is enforced by the
+     * UNIQUE constraint on the column, so the check and the insert are one
+     * atomic statement.
      * 
-     * @param account a account.
-     * @return Account if insert is successful.
+     * @param account a account whose password is the value to store.
+     * @return Account if insert is successful, or null if the username is
+     *         already taken.
      */
     public Account insertAccount(Account account) {
-        Connection connection = ConnectionUtil.getConnection();
-        try {
-
-            // Check if username is empty and if account already exists.
-            if (account.getUsername().isEmpty() || getAccount(account.getUsername()) != null) {
-                return null;
-            }
-
-            // Check if the password meets the length requirement
-            if (account.getPassword().length() < 4) {
-                return null;
-            }
-
-            String sql = "INSERT INTO account(username,password) VALUES(?,?)";
-            PreparedStatement preparedStatement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+        String sql = "INSERT INTO account(username,password) VALUES(?,?)";
 
+        long start = System.nanoTime();
+        try (Connection connection = ConnectionUtil.getConnection();
+                PreparedStatement preparedStatement = connection.prepareStatement(sql,
+                        Statement.RETURN_GENERATED_KEYS)) {
             preparedStatement.setString(1, account.getUsername());
             preparedStatement.setString(2, account.getPassword());
 
             preparedStatement.executeUpdate();
-            ResultSet pkeyResultSet = preparedStatement.getGeneratedKeys();
-            if (pkeyResultSet.next()) {
-                int generated_account_id = (int) pkeyResultSet.getLong(1);
-                return new Account(generated_account_id, account.getUsername(), account.getPassword());
+            try (ResultSet pkeyResultSet = preparedStatement.getGeneratedKeys()) {
+                if (pkeyResultSet.next()) {
+                    int generated_account_id = (int) pkeyResultSet.getLong(1);
+                    return new Account(generated_account_id, account.getUsername(), account.getPassword());
+                }
             }
         } catch (SQLException e) {
-            System.out.println(e.getMessage());
+            if (!UNIQUE_VIOLATION.equals(e.getSQLState())) {
+                INSERT_ACCOUNT_TIMER.error();
+                System.out.println(e.getMessage());
+            }
+        } finally {
+            INSERT_ACCOUNT_TIMER.recordSince(start);
         }
         return null;
     }
 
     /**
-     * Login to account given a username and password.
+     * Replace the stored password of an account, e.g. to upgrade its hash.
      * 
-     * @param username a username.
-     * @param password a password.
-     * @return account if login is successful.
+     * @param account_id an account ID.
+     * @param password   the new value to store.
+     * @return true if the account was updated.
      */
-    public Account loginAccount(String username, String password) {
-        Connection connection = ConnectionUtil.getConnection();
-        try {
-            String sql = "SELECT * FROM account WHERE username = ? AND password = ?";
-            PreparedStatement preparedStatement = connection.prepareStatement(sql);
-
-            preparedStatement.setString(1, username);
-            preparedStatement.setString(2, password);
-
-            ResultSet rs = preparedStatement.executeQuery();
-            while (rs.next()) {
-                Account account = new Account(rs.getInt("account_id"),
-                        rs.getString("username"),
-                        rs.getString("password"));
-                return account;
-            }
+    public boolean updatePassword(int account_id, String password) {
+        String sql = "UPDATE account SET password = ? WHERE account_id = ?";
+
+        long start = System.nanoTime();
+        try (Connection connection = ConnectionUtil.getConnection();
+                PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setString(1, password);
+            preparedStatement.setInt(2, account_id);
+            return preparedStatement.executeUpdate() > 0;
         } catch (SQLException e) {
+            UPDATE_PASSWORD_TIMER.error();
             System.out.println(e.getMessage());
+        } finally {
+            UPDATE_PASSWORD_TIMER.recordSince(start);
         }
-
-        return null;
+        return false;
     }
 }
@@ -0,0 +1,41 @@
+package DAO;
+
+import java.util.List;
+
+import Model.Account;
+
+/**
+ * Where accounts are kept. AccountDAO keeps them in the H2 database and
+ * LogStore in an embedded log-structured store; Stores picks one with the
+ * store.backend system property.
+ */
+public interface AccountStore {
+
+    /**
+     * @return all Accounts.
+     */
+    List<Account> getAllAccounts();
+
+    /**
+     * @param username a username.
+     * @return the account with its stored password, or null if there is none.
+     */
+    Account getAccount(String username);
+
+    /**
+     * Insert a new account. Checking that the username is free and taking it
+     * are one atomic step.
+     *
+     * @param account a account whose password is the value to store.
+     * @return the stored Account with its account_id, or null if the username
+     *         is already taken.
+     */
+    Account insertAccount(Account account);
+
+    /**
+     * @param account_id an account ID.
+     * @param password   the new value to store.
+     * @return true if the account was updated.
+     */
+    boolean updatePassword(int account_id, String password);
+}
@@ -0,0 +1,243 @@
+package DAO;
+
+import Util.ConnectionUtil;
+import Util.LatencyTimer;
+import Util.Metrics;
+
+import java.sql.*;
+import java.util.Arrays;
+
+public class FollowDAO implements FollowStore {
+
+    /**
+     * SQLState H2 reports for a duplicate key, here an existing follow.
+     */
+    private static final String UNIQUE_VIOLATION = "23505";
+
+    /**
+     * SQLState H2 reports when a foreign key does not match, here an account
+     * that does not exist.
+     */
+    private static final String REFERENTIAL_VIOLATION = "23506";
+
+    /**
+     * Latency and error counts of every method, published on GET /metrics.
+     */
+    private static final LatencyTimer FOLLOW_TIMER = Metrics.dao("FollowDAO.follow");
+    private static final LatencyTimer UNFOLLOW_TIMER = Metrics.dao("FollowDAO.unfollow");
+    private static final LatencyTimer GET_FOLLOWER_COUNT_TIMER = Metrics.dao("FollowDAO.getFollowerCount");
+    private static final LatencyTimer GET_FOLLOWERS_TIMER = Metrics.dao("FollowDAO.getFollowers");
+    private static final LatencyTimer GET_FOLLOWEES_WITH_FOLLOWERS_OVER_TIMER = Metrics
+            .dao("FollowDAO.getFolloweesWithFollowersOver");
+    private static final LatencyTimer GET_FEED_MESSAGE_IDS_TIMER = Metrics.dao("FollowDAO.getFeedMessageIds");
+
+    /**
+     * Make one account follow another, and count the new follower in the same
+     * transaction. Following an account twice changes nothing.
+     *
+     * @param follower_id the account that follows.
+     * @param followee_id the account being followed.
+     * @return true if the account now follows the other, false if either
+     *         account does not exist.
+     */
+    public boolean follow(int follower_id, int followee_id) {
+        long start = System.nanoTime();
+        try (Connection connection = ConnectionUtil.getConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement insert = connection
+                    .prepareStatement("INSERT INTO follows(follower_id,followee_id) VALUES(?,?)");
+                    PreparedStatement count = connection.prepareStatement(
+                            "UPDATE account SET follower_count = follower_count + 1 WHERE account_id = ?")) {
+                insert.setInt(1, follower_id);
+                insert.setInt(2, followee_id);
+                insert.executeUpdate();
+                count.setInt(1, followee_id);
+                count.executeUpdate();
+                connection.commit();
+                return true;
+            } catch (SQLException e) {
+                connection.rollback();
+                if (UNIQUE_VIOLATION.equals(e.getSQLState())) {
+                    return true;
+                }
+                if (REFERENTIAL_VIOLATION.equals(e.getSQLState())) {
+                    return false;
+                }
+                throw e;
+            }
+        } catch (SQLException e) {
+            FOLLOW_TIMER.error();
+            System.out.println(e.getMessage());
+        } finally {
+            FOLLOW_TIMER.recordSince(start);
+        }
+        return false;
+    }
+
+    /**
+     * Stop one account following another, and uncount the follower in the
+     * same transaction.
+     *
+     * @param follower_id the account that follows.
+     * @param followee_id the account being followed.
+     * @return true if the account was following the other.
+     */
+    public boolean unfollow(int follower_id, int followee_id) {
+        long start = System.nanoTime();
+        try (Connection connection = ConnectionUtil.getConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement delete = connection
+                    .prepareStatement("DELETE FROM follows WHERE follower_id = ? AND followee_id = ?");
+                    PreparedStatement count = connection.prepareStatement(
+                            "UPDATE account SET follower_count = follower_count - 1 WHERE account_id = ?")) {
+                delete.setInt(1, follower_id);
+                delete.setInt(2, followee_id);
+                boolean deleted = delete.executeUpdate() > 0;
+                if (deleted) {
+                    count.setInt(1, followee_id);
+                    count.executeUpdate();
+                }
+                connection.commit();
+                return deleted;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            UNFOLLOW_TIMER.error();
+            System.out.println(e.getMessage());
+        } finally {
+            UNFOLLOW_TIMER.recordSince(start);
+        }
+        return false;
+    }
+
+    /**
+     * @param account_id an account ID.
+     * @return the number of followers of the account, or -1 if it does not
+     *         exist.
+     */
+    public int getFollowerCount(int account_id) {
+        String sql = "SELECT follower_count FROM account WHERE account_id = ?";
+
+        long start = System.nanoTime();
+        try (Connection connection = ConnectionUtil.getConnection();
+                PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setInt(1, account_id);
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getInt(1);
+                }
+            }
+        } catch (SQLException e) {
+            GET_FOLLOWER_COUNT_TIMER.error();
+            System.out.println(e.getMessage());
+        } finally {
+            GET_FOLLOWER_COUNT_TIMER.recordSince(start);
+        }
+        return -1;
+    }
+
+    /**
+     * @param followee_id an account ID.
+     * @return the IDs of every account following it, or null if the query
+     *         failed.
+     */
+    public int[] getFollowers(int followee_id) {
+        String sql = "SELECT follower_id FROM follows WHERE followee_id = ?";
+
+        long start = System.nanoTime();
+        try (Connection connection = ConnectionUtil.getConnection();
+                PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setInt(1, followee_id);
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                return readIds(rs);
+            }
+        } catch (SQLException e) {
+            GET_FOLLOWERS_TIMER.error();
+            System.out.println(e.getMessage());
+        } finally {
+            GET_FOLLOWERS_TIMER.recordSince(start);
+        }
+        return null;
+    }
+
+    /**
+     * @param follower_id  an account ID.
+     * @param minFollowers a follower count.
+     * @return the IDs of the accounts it follows that have more than
+     *         minFollowers followers, or null if the query failed.
+     */
+    public int[] getFolloweesWithFollowersOver(int follower_id, int minFollowers) {
+        String sql = "SELECT f.followee_id FROM follows f JOIN account a ON a.account_id = f.followee_id "
+                + "WHERE f.follower_id = ? AND a.follower_count > ?";
+
+        long start = System.nanoTime();
+        try (Connection connection = ConnectionUtil.getConnection();
+                PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setInt(1, follower_id);
+            preparedStatement.setInt(2, minFollowers);
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                return readIds(rs);
+            }
+        } catch (SQLException e) {
+            GET_FOLLOWEES_WITH_FOLLOWERS_OVER_TIMER.error();
+            System.out.println(e.getMessage());
+        } finally {
+            GET_FOLLOWEES_WITH_FOLLOWERS_OVER_TIMER.recordSince(start);
+        }
+        return null;
+    }
+
+    /**
+     * Reads each author's range below before_id from the (posted_by,
+     * message_id) index, then sorts what it found across authors. Public so
+     * MessageQueryPlanTest can EXPLAIN the exact statement.
+     */
+    public static final String FEED_MESSAGE_IDS_SQL = "SELECT message_id FROM message WHERE posted_by IN "
+            + "(SELECT followee_id FROM follows WHERE follower_id = ? UNION SELECT CAST(? AS INT)) "
+            + "AND message_id < ? ORDER BY message_id DESC LIMIT ?";
+
+    /**
+     * Read the home feed of an account straight from the database: its own
+     * messages and those of every account it follows.
+     *
+     * @param account_id an account ID.
+     * @param before_id  only return messages with a smaller message_id, or null.
+     * @param limit      maximum number of IDs to return.
+     * @return message IDs, newest first, or null if the query failed.
+     */
+    public int[] getFeedMessageIds(int account_id, Integer before_id, int limit) {
+        String sql = FEED_MESSAGE_IDS_SQL;
+
+        long start = System.nanoTime();
+        try (Connection connection = ConnectionUtil.getConnection();
+                PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setInt(1, account_id);
+            preparedStatement.setInt(2, account_id);
+            preparedStatement.setInt(3, before_id == null ? Integer.MAX_VALUE : before_id);
+            preparedStatement.setInt(4, limit);
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                return readIds(rs);
+            }
+        } catch (SQLException e) {
+            GET_FEED_MESSAGE_IDS_TIMER.error();
+            System.out.println(e.getMessage());
+        } finally {
+            GET_FEED_MESSAGE_IDS_TIMER.recordSince(start);
+        }
+        return null;
+    }
+
+    private int[] readIds(ResultSet rs) throws SQLException {
+        int[] ids = new int[16];
+        int count = 0;
+        while (rs.next()) {
+            if (count == ids.length) {
+                ids = Arrays.copyOf(ids, count * 2);
+            }
+            ids[count++] = rs.getInt(1);
+        }
+        return Arrays.copyOf(ids, count);
+    }
+}
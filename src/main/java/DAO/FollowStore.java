@@ -0,0 +1,58 @@
+package DAO;
+
+/**
+ * Where follows between accounts are kept. FollowDAO keeps them in the H2
+ * database and LogStore in an embedded log-structured store; Stores picks one
+ * with the store.backend system property.
+ */
+public interface FollowStore {
+
+    /**
+     * Make one account follow another. Following an account twice changes
+     * nothing.
+     *
+     * @param follower_id the account that follows.
+     * @param followee_id the account being followed.
+     * @return true if the account now follows the other, false if either
+     *         account does not exist.
+     */
+    boolean follow(int follower_id, int followee_id);
+
+    /**
+     * @param follower_id the account that follows.
+     * @param followee_id the account being followed.
+     * @return true if the account was following the other.
+     */
+    boolean unfollow(int follower_id, int followee_id);
+
+    /**
+     * @param account_id an account ID.
+     * @return the number of followers of the account, or -1 if it does not
+     *         exist.
+     */
+    int getFollowerCount(int account_id);
+
+    /**
+     * @param followee_id an account ID.
+     * @return the IDs of every account following it, or null if they could not
+     *         be read.
+     */
+    int[] getFollowers(int followee_id);
+
+    /**
+     * @param follower_id  an account ID.
+     * @param minFollowers a follower count.
+     * @return the IDs of the accounts it follows that have more than
+     *         minFollowers followers, or null if they could not be read.
+     */
+    int[] getFolloweesWithFollowersOver(int follower_id, int minFollowers);
+
+    /**
+     * @param account_id an account ID.
+     * @param before_id  only return messages with a smaller message_id, or null.
+     * @param limit      maximum number of IDs to return.
+     * @return the IDs of the account's own messages and those of every account
+     *         it follows, newest first, or null if they could not be read.
+     */
+    int[] getFeedMessageIds(int account_id, Integer before_id, int limit);
+}
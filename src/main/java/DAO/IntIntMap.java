@@ -0,0 +1,132 @@
+package DAO;
+
+import java.util.Arrays;
+
+/**
+ * Hash map from int keys to non-negative int values, in two flat arrays.
+ *
+ * Open addressing with linear probing; removal shifts the following entries
+ * back instead of leaving tombstones, so lookups never slow down as entries
+ * come and go. Takes 11 to 22 bytes per entry, against roughly 80 for a
+ * HashMap of boxed Integers.
+ */
+final class IntIntMap {
+
+    /**
+     * Returned by get() for a missing key, and marks an empty slot.
+     */
+    static final int MISSING = -1;
+
+    private int[] keys;
+    private int[] values;
+    private int mask;
+    private int shift;
+    private int size;
+
+    IntIntMap() {
+        this(16);
+    }
+
+    /**
+     * @param expected number of entries to hold without resizing.
+     */
+    IntIntMap(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(16, expected * 3 / 2) - 1) << 1;
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new int[capacity];
+        Arrays.fill(values, MISSING);
+        mask = capacity - 1;
+        shift = Integer.numberOfLeadingZeros(mask);
+    }
+
+    private int slot(int key) {
+        // Fibonacci hashing: the top bits of the product spread consecutive IDs evenly.
+        return (key * 0x9E3779B9) >>> shift;
+    }
+
+    /**
+     * @return the value of the key, or MISSING.
+     */
+    int get(int key) {
+        for (int i = slot(key); values[i] != MISSING; i = i + 1 & mask) {
+            if (keys[i] == key) {
+                return values[i];
+            }
+        }
+        return MISSING;
+    }
+
+    /**
+     * @param value a value of at least 0.
+     * @return the previous value of the key, or MISSING.
+     */
+    int put(int key, int value) {
+        int i = slot(key);
+        for (; values[i] != MISSING; i = i + 1 & mask) {
+            if (keys[i] == key) {
+                int previous = values[i];
+                values[i] = value;
+                return previous;
+            }
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size > keys.length * 3 / 4) {
+            resize();
+        }
+        return MISSING;
+    }
+
+    /**
+     * @return the value the key had, or MISSING.
+     */
+    int remove(int key) {
+        int hole = slot(key);
+        while (values[hole] != MISSING && keys[hole] != key) {
+            hole = hole + 1 & mask;
+        }
+        int previous = values[hole];
+        if (previous == MISSING) {
+            return MISSING;
+        }
+        values[hole] = MISSING;
+        size--;
+        // Pull back every following entry whose probe sequence passes the hole.
+        for (int i = hole + 1 & mask; values[i] != MISSING; i = i + 1 & mask) {
+            if ((i - slot(keys[i]) & mask) >= (i - hole & mask)) {
+                keys[hole] = keys[i];
+                values[hole] = values[i];
+                values[i] = MISSING;
+                hole = i;
+            }
+        }
+        return previous;
+    }
+
+    private void resize() {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(oldKeys.length * 2);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != MISSING) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return bytes held by the two arrays.
+     */
+    long heapBytes() {
+        return 8L * keys.length;
+    }
+}
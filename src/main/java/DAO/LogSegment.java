@@ -0,0 +1,202 @@
+package DAO;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * One append-only file of records, memory-mapped for both appends and reads.
+ *
+ * A record is the length of its payload (int), a CRC32 of its type and
+ * payload (int), its type (byte) and the payload. The mapping grows by
+ * doubling and the file is as long as the mapping, so the unwritten tail reads
+ * as zeros. On replay, records are read back up to the first zero length or
+ * checksum mismatch, which is where a crash cut off the last append, and the
+ * tail from there on is zeroed.
+ *
+ * A mapping addresses at most 2 GB, which bounds the size of a segment. Not
+ * thread-safe; LogStore serializes access.
+ */
+final class LogSegment implements Closeable {
+
+    /**
+     * Bytes in front of every payload: length, checksum and type.
+     */
+    static final int HEADER_BYTES = 9;
+
+    private static final int MAX_BYTES = Integer.MAX_VALUE;
+
+    /**
+     * Called for every record found when a segment is replayed.
+     */
+    @FunctionalInterface
+    interface RecordVisitor {
+        void visit(int offset, byte type, ByteBuffer payload) throws IOException;
+    }
+
+    private final Path path;
+    private final FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int end;
+
+    private LogSegment(Path path, FileChannel channel, int capacity) throws IOException {
+        this.path = path;
+        this.channel = channel;
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    /**
+     * Open a segment, creating it if it does not exist. An existing segment
+     * must be replayed before anything is appended to it.
+     *
+     * @param path         the segment file.
+     * @param initialBytes size of the mapping of a new segment.
+     */
+    static LogSegment open(Path path, int initialBytes) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            long size = channel.size();
+            if (size > MAX_BYTES) {
+                throw new IOException(path + " is larger than a segment can be");
+            }
+            return new LogSegment(path, channel, (int) Math.max(size, initialBytes));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Read back every complete record and position appends after the last
+     * one.
+     *
+     * @param visitor called for every record, in the order appended.
+     */
+    void replay(RecordVisitor visitor) throws IOException {
+        int offset = 0;
+        int capacity = buffer.capacity();
+        while (capacity - offset >= HEADER_BYTES) {
+            int length = buffer.getInt(offset);
+            if (length <= 0 || length > capacity - offset - HEADER_BYTES
+                    || buffer.getInt(offset + 4) != checksum(buffer.get(offset + 8), payload(offset))) {
+                break;
+            }
+            visitor.visit(offset, buffer.get(offset + 8), payload(offset));
+            offset += HEADER_BYTES + length;
+        }
+        end = offset;
+        if (capacity - end >= 4 && buffer.getInt(end) != 0) {
+            for (int i = end; i < capacity; i++) {
+                buffer.put(i, (byte) 0);
+            }
+        }
+    }
+
+    /**
+     * Append a record.
+     *
+     * @param type    record type.
+     * @param payload record contents, at least one byte.
+     * @return the offset of the record.
+     * @throws IOException if the segment cannot grow to hold it.
+     */
+    int append(byte type, byte[] payload) throws IOException {
+        int size = HEADER_BYTES + payload.length;
+        ensureCapacity((long) end + size);
+        int offset = end;
+        buffer.putInt(offset + 4, checksum(type, ByteBuffer.wrap(payload)));
+        buffer.put(offset + 8, type);
+        ByteBuffer target = buffer.duplicate();
+        target.position(offset + HEADER_BYTES);
+        target.put(payload);
+        // The length goes in last, so a record is only visible to replay once complete.
+        buffer.putInt(offset, payload.length);
+        end += size;
+        return offset;
+    }
+
+    /**
+     * Grow the segment ahead of time so that the next appends of this many
+     * bytes, record headers included, cannot fail.
+     *
+     * @throws IOException if the segment cannot grow to hold them.
+     */
+    void reserve(long bytes) throws IOException {
+        ensureCapacity(end + bytes);
+    }
+
+    private void ensureCapacity(long needed) throws IOException {
+        if (needed <= buffer.capacity()) {
+            return;
+        }
+        if (needed > MAX_BYTES) {
+            throw new IOException(path + " is full");
+        }
+        long capacity = Math.min(MAX_BYTES, Math.max(needed, buffer.capacity() * 2L));
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    /**
+     * @return the payload of the record at an offset, as a buffer of its own.
+     */
+    ByteBuffer payload(int offset) {
+        ByteBuffer payload = buffer.duplicate();
+        payload.limit(offset + HEADER_BYTES + buffer.getInt(offset));
+        payload.position(offset + HEADER_BYTES);
+        return payload.slice();
+    }
+
+    /**
+     * @return a copy of the payload of the record at an offset.
+     */
+    byte[] payloadBytes(int offset) {
+        ByteBuffer payload = payload(offset);
+        byte[] bytes = new byte[payload.remaining()];
+        payload.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * @return the bytes taken by the record at an offset, header included.
+     */
+    int recordSize(int offset) {
+        return HEADER_BYTES + buffer.getInt(offset);
+    }
+
+    /**
+     * @return the bytes appended so far.
+     */
+    int size() {
+        return end;
+    }
+
+    Path path() {
+        return path;
+    }
+
+    /**
+     * Write every appended record through to the disk.
+     */
+    void force() {
+        buffer.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+
+    private static int checksum(byte type, ByteBuffer payload) {
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+}
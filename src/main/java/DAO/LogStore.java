@@ -0,0 +1,1023 @@
+package DAO;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import Model.Account;
+import Model.Message;
+import Util.LatencyTimer;
+import Util.Metrics;
+import Util.SchemaMigrator;
+
+/**
+ * Embedded log-structured store for messages, accounts and follows, the
+ * store.backend=log alternative to the H2 DAOs.
+ *
+ * Every change is appended as a record to one memory-mapped segment file, and
+ * the current state is kept in in-memory indexes rebuilt by replaying the
+ * segment on open:
+ * - MessageColumns, primitive columns of every message's ID, author, time and
+ *   record offset, with a primary index on message_id and a secondary index
+ *   on posted_by; message_text is read straight from the mapping,
+ * - accounts by ID and by username, and follows in both directions.
+ *
+ * Updates and deletes leave the old records behind as garbage. A background
+ * thread checks every compactIntervalSeconds and, once garbage makes up
+ * compactRatio of the segment, copies the live records into a new segment and
+ * swaps it in. The store is locked while it copies.
+ *
+ * Appends reach the file through the page cache, so they survive a crash of
+ * the process but not of the machine unless fsync is on, which forces the
+ * mapping to disk after every change. A batch of messages is not atomic
+ * across a crash: a prefix of it may survive.
+ *
+ * When its directory holds no segment yet, the store imports every account,
+ * message and follow from the H2 database, which is also how reset() starts
+ * over after the test database is recreated.
+ */
+public class LogStore implements MessageStore, AccountStore, FollowStore, Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LogStore.class);
+
+    /**
+     * Record types. HEADER opens every segment with the highest IDs ever
+     * handed out, so deleted IDs are not reused after a compaction.
+     */
+    private static final byte HEADER = 1;
+    private static final byte MESSAGE = 2;
+    private static final byte MESSAGE_DELETE = 3;
+    private static final byte ACCOUNT = 4;
+    private static final byte FOLLOW = 5;
+    private static final byte UNFOLLOW = 6;
+
+    private static final int FOLLOW_RECORD_BYTES = LogSegment.HEADER_BYTES + 8;
+
+    /**
+     * Messages decoded per lock acquisition by forEachMessage, so a slow
+     * handler does not hold up writers.
+     */
+    private static final int SCAN_CHUNK = 1000;
+
+    /**
+     * Compaction is not worth it for less garbage than this.
+     */
+    private static final long MIN_COMPACT_BYTES = 1 << 20;
+
+    /**
+     * Latency and error counts of every method, published on GET /metrics.
+     */
+    private static final LatencyTimer GET_ALL_MESSAGES_TIMER = Metrics.dao("LogStore.getAllMessages");
+    private static final LatencyTimer GET_ALL_MESSAGES_FROM_USER_TIMER = Metrics.dao("LogStore.getAllMessagesFromUser");
+    private static final LatencyTimer GET_MESSAGES_PAGE_TIMER = Metrics.dao("LogStore.getMessagesPage");
+    private static final LatencyTimer FOR_EACH_MESSAGE_TIMER = Metrics.dao("LogStore.forEachMessage");
+    private static final LatencyTimer GET_RECENT_MESSAGE_IDS_FROM_USER_TIMER = Metrics.dao("LogStore.getRecentMessageIdsFromUser");
+    private static final LatencyTimer GET_MESSAGES_GIVEN_MESSAGE_IDS_TIMER = Metrics.dao("LogStore.getMessagesGivenMessageIds");
+    private static final LatencyTimer GET_ONE_MESSAGE_GIVEN_MESSAGE_ID_TIMER = Metrics.dao("LogStore.getOneMessageGivenMessageId");
+    private static final LatencyTimer UPDATE_MESSAGE_GIVEN_MESSAGE_ID_TIMER = Metrics.dao("LogStore.updateMessageGivenMessageId");
+    private static final LatencyTimer CREATE_MESSAGE_TIMER = Metrics.dao("LogStore.createMessage");
+    private static final LatencyTimer CREATE_MESSAGES_TIMER = Metrics.dao("LogStore.createMessages");
+    private static final LatencyTimer ACCOUNT_EXISTS_TIMER = Metrics.dao("LogStore.accountExists");
+    private static final LatencyTimer GET_MAX_MESSAGE_ID_TIMER = Metrics.dao("LogStore.getMaxMessageId");
+    private static final LatencyTimer RESERVE_MESSAGE_IDS_TIMER = Metrics.dao("LogStore.reserveMessageIds");
+    private static final LatencyTimer DELETE_ONE_MESSAGE_GIVEN_MESSAGE_ID_TIMER = Metrics.dao("LogStore.deleteOneMessageGivenMessageId");
+    private static final LatencyTimer GET_ALL_ACCOUNTS_TIMER = Metrics.dao("LogStore.getAllAccounts");
+    private static final LatencyTimer GET_ACCOUNT_TIMER = Metrics.dao("LogStore.getAccount");
+    private static final LatencyTimer INSERT_ACCOUNT_TIMER = Metrics.dao("LogStore.insertAccount");
+    private static final LatencyTimer UPDATE_PASSWORD_TIMER = Metrics.dao("LogStore.updatePassword");
+    private static final LatencyTimer FOLLOW_TIMER = Metrics.dao("LogStore.follow");
+    private static final LatencyTimer UNFOLLOW_TIMER = Metrics.dao("LogStore.unfollow");
+    private static final LatencyTimer GET_FOLLOWER_COUNT_TIMER = Metrics.dao("LogStore.getFollowerCount");
+    private static final LatencyTimer GET_FOLLOWERS_TIMER = Metrics.dao("LogStore.getFollowers");
+    private static final LatencyTimer GET_FOLLOWEES_WITH_FOLLOWERS_OVER_TIMER = Metrics
+            .dao("LogStore.getFolloweesWithFollowersOver");
+    private static final LatencyTimer GET_FEED_MESSAGE_IDS_TIMER = Metrics.dao("LogStore.getFeedMessageIds");
+    private static final LatencyTimer COMPACT_TIMER = Metrics.dao("LogStore.compact");
+
+    private final Path directory;
+    private final int initialBytes;
+    private final boolean fsync;
+    private final double compactRatio;
+    private final ScheduledExecutorService compactor;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private LogSegment segment;
+    private long generation;
+
+    private MessageColumns messages = new MessageColumns();
+
+    /**
+     * Offset of the latest record of every account, by account_id, and the
+     * accounts themselves by ID and username.
+     */
+    private Map<Integer, Integer> accountOffsets = new HashMap<>();
+    private final TreeMap<Integer, Account> accountsById = new TreeMap<>();
+    private final Map<String, Account> accountsByUsername = new HashMap<>();
+
+    private final Map<Integer, Set<Integer>> following = new HashMap<>();
+    private final Map<Integer, Set<Integer>> followers = new HashMap<>();
+
+    private int lastMessageId;
+    private int lastAccountId;
+    private long garbageBytes;
+    private long compactions;
+
+    /**
+     * Open the store in a directory, replaying its newest segment or importing
+     * the H2 database if there is none, and start the compaction thread.
+     *
+     * @param directory              where segment files are kept.
+     * @param initialBytes           size of the mapping of a new segment.
+     * @param fsync                  whether every change is forced to disk.
+     * @param compactIntervalSeconds how often to check whether to compact.
+     * @param compactRatio           share of the segment that must be garbage
+     *                               before it is compacted.
+     */
+    public LogStore(Path directory, int initialBytes, boolean fsync, long compactIntervalSeconds,
+            double compactRatio) throws IOException {
+        this.directory = directory;
+        this.initialBytes = initialBytes;
+        this.fsync = fsync;
+        this.compactRatio = compactRatio;
+        Files.createDirectories(directory);
+
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "segment-*.log*")) {
+            for (Path file : files) {
+                if (file.toString().endsWith(".tmp")) {
+                    // Left over from a compaction that did not finish.
+                    Files.delete(file);
+                } else {
+                    segments.add(file);
+                }
+            }
+        }
+        Collections.sort(segments);
+        if (segments.isEmpty()) {
+            startOver(1);
+        } else {
+            // Older segments were already compacted into the newest one.
+            for (Path old : segments.subList(0, segments.size() - 1)) {
+                Files.delete(old);
+            }
+            Path newest = segments.get(segments.size() - 1);
+            String name = newest.getFileName().toString();
+            generation = Long.parseLong(name.substring("segment-".length(), name.length() - ".log".length()));
+            segment = LogSegment.open(newest, initialBytes);
+            segment.replay(this::replay);
+        }
+
+        compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "log-store-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        compactor.scheduleWithFixedDelay(this::compactIfWorthIt, compactIntervalSeconds, compactIntervalSeconds,
+                TimeUnit.SECONDS);
+    }
+
+    /**
+     * Throw everything away and import the H2 database again. Used to start
+     * every test from the freshly recreated test database.
+     */
+    public void reset() throws IOException {
+        lock.writeLock().lock();
+        try {
+            Path old = segment.path();
+            segment.close();
+            Files.delete(old);
+            startOver(generation + 1);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void startOver(long generation) throws IOException {
+        this.generation = generation;
+        messages = new MessageColumns();
+        accountOffsets.clear();
+        accountsById.clear();
+        accountsByUsername.clear();
+        following.clear();
+        followers.clear();
+        lastMessageId = 0;
+        lastAccountId = 0;
+        garbageBytes = 0;
+        segment = LogSegment.open(segmentPath(generation), initialBytes);
+        segment.replay(this::replay);
+        appendHeader(segment);
+        importDatabase();
+        segment.force();
+    }
+
+    /**
+     * Copy every account, message and follow of the H2 database into the
+     * store.
+     */
+    private void importDatabase() throws IOException {
+        SchemaMigrator.migrate();
+        FollowDAO followDAO = new FollowDAO();
+        for (Account account : new AccountDAO().getAllAccounts()) {
+            appendAccount(account);
+        }
+        for (Account account : accountsById.values()) {
+            int[] accountFollowers = followDAO.getFollowers(account.getAccount_id());
+            for (int follower_id : accountFollowers == null ? new int[0] : accountFollowers) {
+                appendFollow(FOLLOW, follower_id, account.getAccount_id());
+            }
+        }
+        if (!new MessageDAO().forEachMessage(null, this::appendMessage)) {
+            throw new IOException("Could not import the messages from the database");
+        }
+    }
+
+    private Path segmentPath(long generation) {
+        return directory.resolve(String.format("segment-%010d.log", generation));
+    }
+
+    private void replay(int offset, byte type, ByteBuffer payload) throws IOException {
+        switch (type) {
+            case HEADER:
+                lastMessageId = Math.max(lastMessageId, payload.getInt());
+                lastAccountId = Math.max(lastAccountId, payload.getInt());
+                break;
+            case MESSAGE:
+                applyMessage(offset, payload.getInt(), payload.getInt(), payload.getLong());
+                break;
+            case MESSAGE_DELETE:
+                applyMessageDelete(offset, payload.getInt());
+                break;
+            case ACCOUNT:
+                applyAccount(offset, decodeAccount(payload));
+                break;
+            case FOLLOW:
+            case UNFOLLOW:
+                applyFollow(type, payload.getInt(), payload.getInt());
+                break;
+            default:
+                throw new IOException("Unknown record type " + type + " at offset " + offset);
+        }
+    }
+
+    // Appending changes. Callers hold the write lock.
+
+    private void appendHeader(LogSegment target) throws IOException {
+        target.append(HEADER, ByteBuffer.allocate(8).putInt(lastMessageId).putInt(lastAccountId).array());
+    }
+
+    private void appendMessage(Message message) throws IOException {
+        appendMessage(message, message.getMessage_text().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void appendMessage(Message message, byte[] text) throws IOException {
+        byte[] payload = ByteBuffer.allocate(16 + text.length).putInt(message.getMessage_id())
+                .putInt(message.getPosted_by()).putLong(message.getTime_posted_epoch()).put(text).array();
+        applyMessage(segment.append(MESSAGE, payload), message.getMessage_id(), message.getPosted_by(),
+                message.getTime_posted_epoch());
+    }
+
+    private void applyMessage(int offset, int message_id, int posted_by, long time_posted_epoch) {
+        int old = messages.put(message_id, posted_by, time_posted_epoch, offset);
+        if (old != MessageColumns.DELETED) {
+            garbageBytes += segment.recordSize(old);
+        }
+        lastMessageId = Math.max(lastMessageId, message_id);
+    }
+
+    private void applyMessageDelete(int offset, int message_id) {
+        int old = messages.remove(message_id);
+        if (old != MessageColumns.DELETED) {
+            garbageBytes += segment.recordSize(old);
+        }
+        garbageBytes += segment.recordSize(offset);
+    }
+
+    private void appendAccount(Account account) throws IOException {
+        byte[] username = account.getUsername().getBytes(StandardCharsets.UTF_8);
+        byte[] password = account.getPassword().getBytes(StandardCharsets.UTF_8);
+        byte[] payload = ByteBuffer.allocate(8 + username.length + password.length).putInt(account.getAccount_id())
+                .putInt(username.length).put(username).put(password).array();
+        applyAccount(segment.append(ACCOUNT, payload), account);
+    }
+
+    private void applyAccount(int offset, Account account) {
+        Integer old = accountOffsets.put(account.getAccount_id(), offset);
+        if (old != null) {
+            garbageBytes += segment.recordSize(old);
+        }
+        accountsById.put(account.getAccount_id(), account);
+        accountsByUsername.put(account.getUsername(), account);
+        lastAccountId = Math.max(lastAccountId, account.getAccount_id());
+    }
+
+    private static Account decodeAccount(ByteBuffer payload) {
+        int account_id = payload.getInt();
+        byte[] username = new byte[payload.getInt()];
+        payload.get(username);
+        byte[] password = new byte[payload.remaining()];
+        payload.get(password);
+        return new Account(account_id, new String(username, StandardCharsets.UTF_8),
+                new String(password, StandardCharsets.UTF_8));
+    }
+
+    private void appendFollow(byte type, int follower_id, int followee_id) throws IOException {
+        segment.append(type, ByteBuffer.allocate(8).putInt(follower_id).putInt(followee_id).array());
+        applyFollow(type, follower_id, followee_id);
+    }
+
+    private void applyFollow(byte type, int follower_id, int followee_id) {
+        if (type == FOLLOW) {
+            following.computeIfAbsent(follower_id, id -> new HashSet<>()).add(followee_id);
+            followers.computeIfAbsent(followee_id, id -> new HashSet<>()).add(follower_id);
+        } else {
+            removeFrom(following, follower_id, followee_id);
+            removeFrom(followers, followee_id, follower_id);
+            // The follow record and this one both become garbage.
+            garbageBytes += 2 * FOLLOW_RECORD_BYTES;
+        }
+    }
+
+    private static void removeFrom(Map<Integer, Set<Integer>> sets, int key, int value) {
+        Set<Integer> set = sets.get(key);
+        if (set != null) {
+            set.remove(value);
+            if (set.isEmpty()) {
+                sets.remove(key);
+            }
+        }
+    }
+
+    private void sync() {
+        if (fsync) {
+            segment.force();
+        }
+    }
+
+    // Reading. Callers hold the read lock.
+
+    /**
+     * Build a message from its row, decoding only message_text from the
+     * segment.
+     */
+    private Message readMessage(int row) {
+        ByteBuffer payload = segment.payload(messages.offset(row));
+        payload.position(16);
+        byte[] text = new byte[payload.remaining()];
+        payload.get(text);
+        return new Message(messages.messageId(row), messages.postedBy(row), new String(text, StandardCharsets.UTF_8),
+                messages.timePostedEpoch(row));
+    }
+
+    private List<Message> readMessages(int[] message_ids) {
+        List<Message> result = new ArrayList<>(message_ids.length);
+        for (int message_id : message_ids) {
+            result.add(readMessage(messages.row(message_id)));
+        }
+        return result;
+    }
+
+    private static Account copy(Account account) {
+        return account == null ? null
+                : new Account(account.getAccount_id(), account.getUsername(), account.getPassword());
+    }
+
+    // MessageStore
+
+    @Override
+    public List<Message> getAllMessages() {
+        long start = System.nanoTime();
+        lock.readLock().lock();
+        try {
+            return readMessages(messages.ids(null, null, null, Integer.MAX_VALUE, false));
+        } finally {
+            lock.readLock().unlock();
+            GET_ALL_MESSAGES_TIMER.recordSince(start);
+        }
+    }
+
+    @Override
+    public List<Message> getAllMessagesFromUser(int account_id) {
+        long start = System.nanoTime();
+        lock.readLock().lock();
+        try {
+            return readMessages(messages.ids(account_id, null, null, Integer.MAX_VALUE, false));
+        } finally {
+            lock.readLock().unlock();
+            GET_ALL_MESSAGES_FROM_USER_TIMER.recordSince(start);
+        }
+    }
+
+    @Override
+    public List<Message> getMessagesPage(Integer posted_by, Integer after_id, Integer before_id, int limit) {
+        boolean descending = before_id != null && after_id == null;
+        long start = System.nanoTime();
+        lock.readLock().lock();
+        try {
+            return readMessages(messages.ids(posted_by, after_id, before_id, limit, descending));
+        } finally {
+            lock.readLock().unlock();
+            GET_MESSAGES_PAGE_TIMER.recordSince(start);
+        }
+    }
+
+    @Override
+    public boolean forEachMessage(Integer posted_by, MessageHandler handler) throws IOException {
+        long start = System.nanoTime();
+        try {
+            Integer after_id = null;
+            List<Message> chunk;
+            do {
+                lock.readLock().lock();
+                try {
+                    chunk = readMessages(messages.ids(posted_by, after_id, null, SCAN_CHUNK, false));
+                } finally {
+                    lock.readLock().unlock();
+                }
+                for (Message message : chunk) {
+                    handler.handle(message);
+                }
+                if (!chunk.isEmpty()) {
+                    after_id = chunk.get(chunk.size() - 1).getMessage_id();
+                }
+            } while (chunk.size() == SCAN_CHUNK);
+            return true;
+        } finally {
+            FOR_EACH_MESSAGE_TIMER.recordSince(start);
+        }
+    }
+
+    @Override
+    public int[] getRecentMessageIdsFromUser(int account_id, int limit) {
+        long start = System.nanoTime();
+        lock.readLock().lock();
+        try {
+            int[] ascending = messages.ids(account_id, null, null, limit, true);
+            int[] recent = new int[ascending.length];
+            for (int i = 0; i < recent.length; i++) {
+                recent[i] = ascending[ascending.length - 1 - i];
+            }
+            return recent;
+        } finally {
+            lock.readLock().unlock();
+            GET_RECENT_MESSAGE_IDS_FROM_USER_TIMER.recordSince(start);
+        }
+    }
+
+    @Override
+    public List<Message> getMessagesGivenMessageIds(Collection<Integer> message_ids) {
+        long start = System.nanoTime();
+        lock.readLock().lock();
+        try {
+            List<Message> result = new ArrayList<>(message_ids.size());
+            for (int message_id : message_ids) {
+                int row = messages.row(message_id);
+                if (row != IntIntMap.MISSING) {
+                    result.add(readMessage(row));
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+            GET_MESSAGES_GIVEN_MESSAGE_IDS_TIMER.recordSince(start);
+        }
+    }
+
+    @Override
+    public Message getOneMessageGivenMessageId(int message_id) {
+        long start = System.nanoTime();
+        lock.readLock().lock();
+        try {
+            int row = messages.row(message_id);
+            return row == IntIntMap.MISSING ? null : readMessage(row);
+        } finally {
+            lock.readLock().unlock();
+            GET_ONE_MESSAGE_GIVEN_MESSAGE_ID_TIMER.recordSince(start);
+        }
+    }
+
+    @Override
+    public Message updateMessageGivenMessageId(String new_message_text, int message_id) {
+        long start = System.nanoTime();
+        lock.writeLock().lock();
+        try {
+            int row = messages.row(message_id);
+            if (row == IntIntMap.MISSING) {
+                return null;
+            }
+            Message old = readMessage(row);
+            Message updated = new Message(message_id, old.getPosted_by(), new_message_text,
+                    old.getTime_posted_epoch());
+            appendMessage(updated);
+            sync();
+            return updated;
+        } catch (IOException e) {
+            UPDATE_MESSAGE_GIVEN_MESSAGE_ID_TIMER.error();
+            System.out.println(e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+            UPDATE_MESSAGE_GIVEN_MESSAGE_ID_TIMER.recordSince(start);
+        }
+        return null;
+    }
+
+    @Override
+    public Message createMessage(Message message) {
+        // Message text cannot be blank or over 255 characters, as in MessageDAO.
+        if (message.getMessage_text().isEmpty() || message.getMessage_text().length() > 255) {
+            return null;
+        }
+
+        long start = System.nanoTime();
+        lock.writeLock().lock();
+        try {
+            if (!accountsById.containsKey(message.getPosted_by())) {
+                return null;
+            }
+            Message created = new Message(lastMessageId + 1, message.getPosted_by(), message.getMessage_text(),
+                    message.getTime_posted_epoch());
+            appendMessage(created);
+            sync();
+            return created;
+        } catch (IOException e) {
+            CREATE_MESSAGE_TIMER.error();
+            System.out.println(e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+            CREATE_MESSAGE_TIMER.recordSince(start);
+        }
+        return null;
+    }
+
+    @Override
+    public List<Message> createMessages(List<Message> messages) {
+        List<Message> created = new ArrayList<>(Collections.nCopies(messages.size(), (Message) null));
+        boolean explicitIds;
+        try {
+            explicitIds = MessageStore.hasExplicitIds(messages);
+        } catch (IllegalArgumentException e) {
+            CREATE_MESSAGES_TIMER.error();
+            System.out.println(e.getMessage());
+            return null;
+        }
+
+        long start = System.nanoTime();
+        lock.writeLock().lock();
+        try {
+            if (explicitIds) {
+                for (Message message : messages) {
+                    if (this.messages.row(message.getMessage_id()) != IntIntMap.MISSING) {
+                        throw new IOException("Duplicate message_id " + message.getMessage_id());
+                    }
+                }
+            }
+            // Grow the segment for the whole batch first, so that it is appended in full or not at all.
+            byte[][] texts = new byte[messages.size()][];
+            long bytes = 0;
+            for (int i = 0; i < messages.size(); i++) {
+                Message message = messages.get(i);
+                if (accountsById.containsKey(message.getPosted_by())) {
+                    texts[i] = message.getMessage_text().getBytes(StandardCharsets.UTF_8);
+                    bytes += LogSegment.HEADER_BYTES + 16 + texts[i].length;
+                }
+            }
+            segment.reserve(bytes);
+            for (int i = 0; i < messages.size(); i++) {
+                if (texts[i] == null) {
+                    continue;
+                }
+                Message message = messages.get(i);
+                Message saved = new Message(explicitIds ? message.getMessage_id() : lastMessageId + 1,
+                        message.getPosted_by(), message.getMessage_text(), message.getTime_posted_epoch());
+                appendMessage(saved, texts[i]);
+                created.set(i, saved);
+            }
+            sync();
+        } catch (IOException e) {
+            CREATE_MESSAGES_TIMER.error();
+            System.out.println(e.getMessage());
+            return null;
+        } finally {
+            lock.writeLock().unlock();
+            CREATE_MESSAGES_TIMER.recordSince(start);
+        }
+        return created;
+    }
+
+    @Override
+    public boolean accountExists(int account_id) {
+        long start = System.nanoTime();
+        lock.readLock().lock();
+        try {
+            return accountsById.containsKey(account_id);
+        } finally {
+            lock.readLock().unlock();
+            ACCOUNT_EXISTS_TIMER.recordSince(start);
+        }
+    }
+
+    @Override
+    public int getMaxMessageId() {
+        long start = System.nanoTime();
+        lock.readLock().lock();
+        try {
+            return messages.maxMessageId();
+        } finally {
+            lock.readLock().unlock();
+            GET_MAX_MESSAGE_ID_TIMER.recordSince(start);
+        }
+    }
+
+    /**
+     * Reserved IDs move lastMessageId past them, so createMessage() never
+     * hands them out. The reservation is not logged: after a restart the
+     * queued messages it was for are gone, or saved and counted by replay.
+     */
+    @Override
+    public int[] reserveMessageIds(int count) {
+        long start = System.nanoTime();
+        lock.writeLock().lock();
+        try {
+            int[] ids = new int[count];
+            for (int i = 0; i < count; i++) {
+                ids[i] = ++lastMessageId;
+            }
+            return ids;
+        } finally {
+            lock.writeLock().unlock();
+            RESERVE_MESSAGE_IDS_TIMER.recordSince(start);
+        }
+    }
+
+    @Override
+    public Message deleteOneMessageGivenMessageId(int message_id) {
+        long start = System.nanoTime();
+        lock.writeLock().lock();
+        try {
+            int row = messages.row(message_id);
+            if (row == IntIntMap.MISSING) {
+                return null;
+            }
+            Message message = readMessage(row);
+            applyMessageDelete(segment.append(MESSAGE_DELETE, ByteBuffer.allocate(4).putInt(message_id).array()),
+                    message_id);
+            sync();
+            return message;
+        } catch (IOException e) {
+            DELETE_ONE_MESSAGE_GIVEN_MESSAGE_ID_TIMER.error();
+            System.out.println(e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+            DELETE_ONE_MESSAGE_GIVEN_MESSAGE_ID_TIMER.recordSince(start);
+        }
+        return null;
+    }
+
+    // AccountStore
+
+    @Override
+    public List<Account> getAllAccounts() {
+        long start = System.nanoTime();
+        lock.readLock().lock();
+        try {
+            List<Account> accounts = new ArrayList<>(accountsById.size());
+            for (Account account : accountsById.values()) {
+                accounts.add(copy(account));
+            }
+            return accounts;
+        } finally {
+            lock.readLock().unlock();
+            GET_ALL_ACCOUNTS_TIMER.recordSince(start);
+        }
+    }
+
+    @Override
+    public Account getAccount(String username) {
+        long start = System.nanoTime();
+        lock.readLock().lock();
+        try {
+            return copy(accountsByUsername.get(username));
+        } finally {
+            lock.readLock().unlock();
+            GET_ACCOUNT_TIMER.recordSince(start);
+        }
+    }
+
+    @Override
+    public Account insertAccount(Account account) {
+        long start = System.nanoTime();
+        lock.writeLock().lock();
+        try {
+            if (accountsByUsername.containsKey(account.getUsername())) {
+                return null;
+            }
+            Account stored = new Account(lastAccountId + 1, account.getUsername(), account.getPassword());
+            appendAccount(stored);
+            sync();
+            return copy(stored);
+        } catch (IOException e) {
+            INSERT_ACCOUNT_TIMER.error();
+            System.out.println(e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+            INSERT_ACCOUNT_TIMER.recordSince(start);
+        }
+        return null;
+    }
+
+    @Override
+    public boolean updatePassword(int account_id, String password) {
+        long start = System.nanoTime();
+        lock.writeLock().lock();
+        try {
+            Account account = accountsById.get(account_id);
+            if (account == null) {
+                return false;
+            }
+            appendAccount(new Account(account_id, account.getUsername(), password));
+            sync();
+            return true;
+        } catch (IOException e) {
+            UPDATE_PASSWORD_TIMER.error();
+            System.out.println(e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+            UPDATE_PASSWORD_TIMER.recordSince(start);
+        }
+        return false;
+    }
+
+    // FollowStore
+
+    @Override
+    public boolean follow(int follower_id, int followee_id) {
+        long start = System.nanoTime();
+        lock.writeLock().lock();
+        try {
+            if (!accountsById.containsKey(follower_id) || !accountsById.containsKey(followee_id)) {
+                return false;
+            }
+            Set<Integer> followees = following.get(follower_id);
+            if (followees == null || !followees.contains(followee_id)) {
+                appendFollow(FOLLOW, follower_id, followee_id);
+                sync();
+            }
+            return true;
+        } catch (IOException e) {
+            FOLLOW_TIMER.error();
+            System.out.println(e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+            FOLLOW_TIMER.recordSince(start);
+        }
+        return false;
+    }
+
+    @Override
+    public boolean unfollow(int follower_id, int followee_id) {
+        long start = System.nanoTime();
+        lock.writeLock().lock();
+        try {
+            Set<Integer> followees = following.get(follower_id);
+            if (followees == null || !followees.contains(followee_id)) {
+                return false;
+            }
+            appendFollow(UNFOLLOW, follower_id, followee_id);
+            sync();
+            return true;
+        } catch (IOException e) {
+            UNFOLLOW_TIMER.error();
+            System.out.println(e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+            UNFOLLOW_TIMER.recordSince(start);
+        }
+        return false;
+    }
+
+    @Override
+    public int getFollowerCount(int account_id) {
+        long start = System.nanoTime();
+        lock.readLock().lock();
+        try {
+            if (!accountsById.containsKey(account_id)) {
+                return -1;
+            }
+            Set<Integer> accountFollowers = followers.get(account_id);
+            return accountFollowers == null ? 0 : accountFollowers.size();
+        } finally {
+            lock.readLock().unlock();
+            GET_FOLLOWER_COUNT_TIMER.recordSince(start);
+        }
+    }
+
+    @Override
+    public int[] getFollowers(int followee_id) {
+        long start = System.nanoTime();
+        lock.readLock().lock();
+        try {
+            Set<Integer> accountFollowers = followers.get(followee_id);
+            return accountFollowers == null ? new int[0]
+                    : accountFollowers.stream().mapToInt(Integer::intValue).toArray();
+        } finally {
+            lock.readLock().unlock();
+            GET_FOLLOWERS_TIMER.recordSince(start);
+        }
+    }
+
+    @Override
+    public int[] getFolloweesWithFollowersOver(int follower_id, int minFollowers) {
+        long start = System.nanoTime();
+        lock.readLock().lock();
+        try {
+            Set<Integer> followees = following.get(follower_id);
+            return followees == null ? new int[0]
+                    : followees.stream().filter(id -> followers.get(id).size() > minFollowers)
+                            .mapToInt(Integer::intValue).toArray();
+        } finally {
+            lock.readLock().unlock();
+            GET_FOLLOWEES_WITH_FOLLOWERS_OVER_TIMER.recordSince(start);
+        }
+    }
+
+    /**
+     * Merge the timelines of the account and everything it follows, newest
+     * first, from the secondary index on posted_by.
+     */
+    @Override
+    public int[] getFeedMessageIds(int account_id, Integer before_id, int limit) {
+        long start = System.nanoTime();
+        lock.readLock().lock();
+        try {
+            Set<Integer> authors = new HashSet<>(following.getOrDefault(account_id, Collections.emptySet()));
+            authors.add(account_id);
+            // The newest limit IDs of every author, merged from the newest down.
+            int[][] timelines = new int[authors.size()][];
+            // Each head is {next ID, timeline, index of that ID}.
+            PriorityQueue<int[]> heads = new PriorityQueue<>(authors.size() + 1, (a, b) -> Integer.compare(b[0], a[0]));
+            int t = 0;
+            for (int author_id : authors) {
+                timelines[t] = messages.ids(author_id, null, before_id, limit, true);
+                if (timelines[t].length > 0) {
+                    int last = timelines[t].length - 1;
+                    heads.add(new int[] { timelines[t][last], t, last });
+                }
+                t++;
+            }
+            int[] feed = new int[Math.min(limit, 64)];
+            int count = 0;
+            while (count < limit && !heads.isEmpty()) {
+                int[] head = heads.poll();
+                if (count == feed.length) {
+                    feed = Arrays.copyOf(feed, Math.min(limit, count * 2));
+                }
+                feed[count++] = head[0];
+                if (head[2] > 0) {
+                    head[2]--;
+                    head[0] = timelines[head[1]][head[2]];
+                    heads.add(head);
+                }
+            }
+            return Arrays.copyOf(feed, count);
+        } finally {
+            lock.readLock().unlock();
+            GET_FEED_MESSAGE_IDS_TIMER.recordSince(start);
+        }
+    }
+
+    // Compaction
+
+    private void compactIfWorthIt() {
+        try {
+            boolean worthIt;
+            lock.readLock().lock();
+            try {
+                worthIt = garbageBytes >= MIN_COMPACT_BYTES && garbageBytes >= compactRatio * segment.size();
+            } finally {
+                lock.readLock().unlock();
+            }
+            if (worthIt) {
+                compact();
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("Compaction of {} failed", directory, e);
+        }
+    }
+
+    /**
+     * Copy the live records into a new segment and switch to it, dropping
+     * every overwritten or deleted record. The new segment only replaces the
+     * old one once it is complete on disk.
+     */
+    public void compact() throws IOException {
+        long start = System.nanoTime();
+        lock.writeLock().lock();
+        try {
+            long next = generation + 1;
+            Path target = segmentPath(next);
+            Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+            Files.deleteIfExists(temporary);
+            LogSegment compacted = LogSegment.open(temporary, Math.max(initialBytes, segment.size()));
+            Map<Integer, Integer> newAccountOffsets = new HashMap<>();
+            MessageColumns newMessages = new MessageColumns();
+            try {
+                appendHeader(compacted);
+                for (Map.Entry<Integer, Integer> account : accountOffsets.entrySet()) {
+                    newAccountOffsets.put(account.getKey(), compacted.append(ACCOUNT,
+                            segment.payloadBytes(account.getValue())));
+                }
+                for (Map.Entry<Integer, Set<Integer>> followees : following.entrySet()) {
+                    for (int followee_id : followees.getValue()) {
+                        compacted.append(FOLLOW, ByteBuffer.allocate(8).putInt(followees.getKey())
+                                .putInt(followee_id).array());
+                    }
+                }
+                for (int message_id : messages.ids(null, null, null, Integer.MAX_VALUE, false)) {
+                    int row = messages.row(message_id);
+                    newMessages.put(message_id, messages.postedBy(row), messages.timePostedEpoch(row),
+                            compacted.append(MESSAGE, segment.payloadBytes(messages.offset(row))));
+                }
+                compacted.force();
+                Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException | RuntimeException e) {
+                compacted.close();
+                Files.deleteIfExists(temporary);
+                throw e;
+            }
+
+            LogSegment old = segment;
+            segment = compacted;
+            generation = next;
+            accountOffsets = newAccountOffsets;
+            messages = newMessages;
+            garbageBytes = 0;
+            compactions++;
+            old.close();
+            Files.delete(old.path());
+        } catch (IOException e) {
+            COMPACT_TIMER.error();
+            throw e;
+        } finally {
+            lock.writeLock().unlock();
+            COMPACT_TIMER.recordSince(start);
+        }
+    }
+
+    /**
+     * @return segment size, garbage and record counts.
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        lock.readLock().lock();
+        try {
+            result.put("backend", "log");
+            result.put("segment", segment.path().getFileName().toString());
+            result.put("segmentBytes", segment.size());
+            result.put("garbageBytes", garbageBytes);
+            result.put("messages", messages.size());
+            result.put("messageIndexBytes", messages.heapBytes());
+            result.put("accounts", accountsById.size());
+            result.put("compactions", compactions);
+        } finally {
+            lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    /**
+     * Stop compacting and write everything through to the disk.
+     */
+    @Override
+    public void close() throws IOException {
+        compactor.shutdownNow();
+        lock.writeLock().lock();
+        try {
+            segment.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
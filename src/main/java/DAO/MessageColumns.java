@@ -0,0 +1,273 @@
+package DAO;
+
+import java.util.Arrays;
+
+/**
+ * The message index of LogStore, as parallel primitive columns with no object
+ * per message.
+ *
+ * Rows are kept in message_id order in four columns: message_id, posted_by,
+ * time_posted_epoch and the offset of the message's record in the segment,
+ * which is where message_text stays. A deleted row keeps its place with an
+ * offset of -1 until the next compaction, so deletes do not shift the
+ * columns. An IntIntMap finds the row of a message_id, and every author has a
+ * sorted int array of its live message IDs, the same layout
+ * MessageSearchIndex uses for postings.
+ *
+ * New IDs are almost always higher than every ID so far and are appended.
+ * An ID lower than the last row is inserted in place, which shifts the rows
+ * after it and rebuilds their entries in the map.
+ *
+ * Not thread-safe; LogStore serializes access.
+ */
+final class MessageColumns {
+
+    static final int DELETED = -1;
+
+    private int[] ids = new int[1024];
+    private int[] postedBy = new int[1024];
+    private long[] times = new long[1024];
+    private int[] offsets = new int[1024];
+    private int rowCount;
+    private int live;
+
+    private final IntIntMap rows = new IntIntMap();
+
+    /**
+     * Slot of every author in authorIds and authorSizes.
+     */
+    private final IntIntMap authorSlots = new IntIntMap();
+    private int[][] authorIds = new int[64][];
+    private int[] authorSizes = new int[64];
+    private int authorCount;
+
+    /**
+     * Add a message or replace the record of an existing one.
+     *
+     * @return the offset of the record it replaces, or DELETED.
+     */
+    int put(int message_id, int posted_by, long time_posted_epoch, int offset) {
+        int row = rows.get(message_id);
+        if (row != IntIntMap.MISSING) {
+            int previous = offsets[row];
+            if (postedBy[row] != posted_by) {
+                removeFromAuthor(postedBy[row], message_id);
+                addToAuthor(posted_by, message_id);
+            }
+            postedBy[row] = posted_by;
+            times[row] = time_posted_epoch;
+            offsets[row] = offset;
+            return previous;
+        }
+
+        row = rowCount == 0 || ids[rowCount - 1] < message_id ? rowCount
+                : Arrays.binarySearch(ids, 0, rowCount, message_id);
+        if (row < 0) {
+            row = -row - 1;
+            insertRow(row);
+        } else if (row == rowCount) {
+            insertRow(row);
+        }
+        // Otherwise the ID has a deleted row, which comes back to life.
+        ids[row] = message_id;
+        postedBy[row] = posted_by;
+        times[row] = time_posted_epoch;
+        offsets[row] = offset;
+        rows.put(message_id, row);
+        addToAuthor(posted_by, message_id);
+        live++;
+        return DELETED;
+    }
+
+    private void insertRow(int row) {
+        if (rowCount == ids.length) {
+            int capacity = rowCount * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            postedBy = Arrays.copyOf(postedBy, capacity);
+            times = Arrays.copyOf(times, capacity);
+            offsets = Arrays.copyOf(offsets, capacity);
+        }
+        int moved = rowCount - row;
+        System.arraycopy(ids, row, ids, row + 1, moved);
+        System.arraycopy(postedBy, row, postedBy, row + 1, moved);
+        System.arraycopy(times, row, times, row + 1, moved);
+        System.arraycopy(offsets, row, offsets, row + 1, moved);
+        rowCount++;
+        for (int i = row + 1; i < rowCount; i++) {
+            if (offsets[i] != DELETED) {
+                rows.put(ids[i], i);
+            }
+        }
+    }
+
+    /**
+     * Mark a message deleted.
+     *
+     * @return the offset of its record, or DELETED if there is no such message.
+     */
+    int remove(int message_id) {
+        int row = rows.remove(message_id);
+        if (row == IntIntMap.MISSING) {
+            return DELETED;
+        }
+        int previous = offsets[row];
+        offsets[row] = DELETED;
+        removeFromAuthor(postedBy[row], message_id);
+        live--;
+        return previous;
+    }
+
+    private void addToAuthor(int posted_by, int message_id) {
+        int slot = authorSlots.get(posted_by);
+        if (slot == IntIntMap.MISSING) {
+            slot = authorCount++;
+            if (slot == authorIds.length) {
+                authorIds = Arrays.copyOf(authorIds, slot * 2);
+                authorSizes = Arrays.copyOf(authorSizes, slot * 2);
+            }
+            authorIds[slot] = new int[4];
+            authorSlots.put(posted_by, slot);
+        }
+        int[] authorRow = authorIds[slot];
+        int size = authorSizes[slot];
+        int index = size == 0 || authorRow[size - 1] < message_id ? size
+                : -Arrays.binarySearch(authorRow, 0, size, message_id) - 1;
+        if (size == authorRow.length) {
+            authorRow = authorIds[slot] = Arrays.copyOf(authorRow, size * 2);
+        }
+        System.arraycopy(authorRow, index, authorRow, index + 1, size - index);
+        authorRow[index] = message_id;
+        authorSizes[slot]++;
+    }
+
+    private void removeFromAuthor(int posted_by, int message_id) {
+        int slot = authorSlots.get(posted_by);
+        int[] authorRow = authorIds[slot];
+        int size = authorSizes[slot];
+        int index = Arrays.binarySearch(authorRow, 0, size, message_id);
+        System.arraycopy(authorRow, index + 1, authorRow, index, size - index - 1);
+        authorSizes[slot]--;
+    }
+
+    /**
+     * @return the row of a message, or IntIntMap.MISSING.
+     */
+    int row(int message_id) {
+        return rows.get(message_id);
+    }
+
+    int messageId(int row) {
+        return ids[row];
+    }
+
+    int postedBy(int row) {
+        return postedBy[row];
+    }
+
+    long timePostedEpoch(int row) {
+        return times[row];
+    }
+
+    int offset(int row) {
+        return offsets[row];
+    }
+
+    /**
+     * @return number of live messages.
+     */
+    int size() {
+        return live;
+    }
+
+    /**
+     * @return the highest live message_id, or 0 if there is none.
+     */
+    int maxMessageId() {
+        for (int row = rowCount - 1; row >= 0; row--) {
+            if (offsets[row] != DELETED) {
+                return ids[row];
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Select the message IDs strictly between after_id and before_id, by one
+     * author or all of them.
+     *
+     * @param posted_by  an account ID, or null for all messages.
+     * @param after_id   lower bound, or null.
+     * @param before_id  upper bound, or null.
+     * @param limit      maximum number of IDs to select.
+     * @param descending take the highest IDs in the range instead of the
+     *                   lowest.
+     * @return the selected IDs, in ascending order.
+     */
+    int[] ids(Integer posted_by, Integer after_id, Integer before_id, int limit, boolean descending) {
+        int[] source;
+        int size;
+        if (posted_by == null) {
+            source = ids;
+            size = rowCount;
+        } else {
+            int slot = authorSlots.get(posted_by);
+            if (slot == IntIntMap.MISSING) {
+                return new int[0];
+            }
+            source = authorIds[slot];
+            size = authorSizes[slot];
+        }
+        int from = after_id == null ? 0 : upperBound(source, size, after_id);
+        int to = before_id == null ? size : lowerBound(source, size, before_id);
+        if (posted_by != null) {
+            // Author arrays only hold live IDs.
+            int count = Math.max(0, Math.min(limit, to - from));
+            return descending ? Arrays.copyOfRange(source, to - count, to)
+                    : Arrays.copyOfRange(source, from, from + count);
+        }
+
+        int[] selected = new int[Math.max(0, Math.min(limit, Math.min(to - from, live)))];
+        int count = 0;
+        if (descending) {
+            for (int row = to - 1; row >= from && count < selected.length; row--) {
+                if (offsets[row] != DELETED) {
+                    selected[selected.length - 1 - count++] = ids[row];
+                }
+            }
+            return Arrays.copyOfRange(selected, selected.length - count, selected.length);
+        }
+        for (int row = from; row < to && count < selected.length; row++) {
+            if (offsets[row] != DELETED) {
+                selected[count++] = ids[row];
+            }
+        }
+        return count == selected.length ? selected : Arrays.copyOf(selected, count);
+    }
+
+    /**
+     * @return the first index whose ID is greater than id.
+     */
+    private static int upperBound(int[] sorted, int size, int id) {
+        int index = Arrays.binarySearch(sorted, 0, size, id);
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+
+    /**
+     * @return the first index whose ID is at least id.
+     */
+    private static int lowerBound(int[] sorted, int size, int id) {
+        int index = Arrays.binarySearch(sorted, 0, size, id);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    /**
+     * @return bytes held by the columns and indexes, as reported on /stats.
+     */
+    long heapBytes() {
+        long bytes = 20L * ids.length + rows.heapBytes() + authorSlots.heapBytes() + 12L * authorIds.length;
+        for (int slot = 0; slot < authorCount; slot++) {
+            bytes += 16 + 4L * authorIds[slot].length;
+        }
+        return bytes;
+    }
+}
@@ -3,11 +3,55 @@ package DAO;
 import java.util.List;
 import Model.Message;
 import Util.ConnectionUtil;
+import Util.LatencyTimer;
+import Util.Metrics;
 
+import java.io.IOException;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 
-public class MessageDAO {
+public class MessageDAO implements MessageStore {
+
+    /**
+     * Rows sent to the database per executeBatch() call by createMessages.
+     */
+    private static final int BATCH_SIZE = 1000;
+
+    /**
+     * Latency and error counts of every method, published on GET /metrics.
+     */
+    private static final LatencyTimer GET_ALL_MESSAGES_TIMER = Metrics.dao("MessageDAO.getAllMessages");
+    private static final LatencyTimer GET_ALL_MESSAGES_FROM_USER_TIMER = Metrics.dao("MessageDAO.getAllMessagesFromUser");
+    private static final LatencyTimer GET_MESSAGES_PAGE_TIMER = Metrics.dao("MessageDAO.getMessagesPage");
+    private static final LatencyTimer FOR_EACH_MESSAGE_TIMER = Metrics.dao("MessageDAO.forEachMessage");
+    private static final LatencyTimer GET_RECENT_MESSAGE_IDS_FROM_USER_TIMER = Metrics.dao("MessageDAO.getRecentMessageIdsFromUser");
+    private static final LatencyTimer GET_MESSAGES_GIVEN_MESSAGE_IDS_TIMER = Metrics.dao("MessageDAO.getMessagesGivenMessageIds");
+    private static final LatencyTimer GET_ONE_MESSAGE_GIVEN_MESSAGE_ID_TIMER = Metrics.dao("MessageDAO.getOneMessageGivenMessageId");
+    private static final LatencyTimer UPDATE_MESSAGE_GIVEN_MESSAGE_ID_TIMER = Metrics.dao("MessageDAO.updateMessageGivenMessageId");
+    private static final LatencyTimer CREATE_MESSAGE_TIMER = Metrics.dao("MessageDAO.createMessage");
+    private static final LatencyTimer CREATE_MESSAGES_TIMER = Metrics.dao("MessageDAO.createMessages");
+    private static final LatencyTimer ACCOUNT_EXISTS_TIMER = Metrics.dao("MessageDAO.accountExists");
+    private static final LatencyTimer GET_MAX_MESSAGE_ID_TIMER = Metrics.dao("MessageDAO.getMaxMessageId");
+    private static final LatencyTimer RESERVE_MESSAGE_IDS_TIMER = Metrics.dao("MessageDAO.reserveMessageIds");
+    private static final LatencyTimer DELETE_ONE_MESSAGE_GIVEN_MESSAGE_ID_TIMER = Metrics.dao("MessageDAO.deleteOneMessageGivenMessageId");
+
+    /**
+     * Per-author reads name the (posted_by, message_id) indexes of the V4
+     * migration and also order by posted_by: H2 only skips the sort when the
+     * ORDER BY starts with the index's first column, and would otherwise pick
+     * the foreign-key index on posted_by alone and sort every message of the
+     * author. Public so MessageQueryPlanTest can EXPLAIN the exact statements.
+     */
+    public static final String MESSAGES_FROM_USER_SQL = "SELECT * FROM message "
+            + "USE INDEX (idx_message_posted_by_id) WHERE posted_by = ? ORDER BY posted_by, message_id";
+    public static final String RECENT_MESSAGE_IDS_FROM_USER_SQL = "SELECT message_id FROM message "
+            + "USE INDEX (idx_message_posted_by_id_desc) WHERE posted_by = ? "
+            + "ORDER BY posted_by, message_id DESC LIMIT ?";
 
     /**
      * Retrieve all messages in the database.
@@ -15,20 +59,23 @@ public class MessageDAO {
      * @return all messages.
      */
     public List<Message> getAllMessages() {
-        Connection connection = ConnectionUtil.getConnection();
         List<Message> messages = new ArrayList<>();
+        String sql = "SELECT * FROM message ORDER BY message_id";
 
-        try {
-            String sql = "SELECT * FROM message";
-            PreparedStatement preparedStatement = connection.prepareStatement(sql);
-            ResultSet rs = preparedStatement.executeQuery();
+        long start = System.nanoTime();
+        try (Connection connection = ConnectionUtil.getConnection();
+                PreparedStatement preparedStatement = connection.prepareStatement(sql);
+                ResultSet rs = preparedStatement.executeQuery()) {
             while (rs.next()) {
                 Message message = new Message(rs.getInt("message_id"), rs.getInt("posted_by"),
                         rs.getString("message_text"), rs.getLong("time_posted_epoch"));
                 messages.add(message);
             }
         } catch (SQLException e) {
+            GET_ALL_MESSAGES_TIMER.error();
             System.out.println(e.getMessage());
+        } finally {
+            GET_ALL_MESSAGES_TIMER.recordSince(start);
         }
         return messages;
     }
@@ -40,22 +87,213 @@ public class MessageDAO {
      * @return all messages from the particular user.
      */
     public List<Message> getAllMessagesFromUser(int account_id) {
-        Connection connection = ConnectionUtil.getConnection();
         List<Message> messages = new ArrayList<>();
+        String sql = MESSAGES_FROM_USER_SQL;
 
-        try {
-            String sql = "SELECT * FROM message WHERE posted_by = ?";
-            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+        long start = System.nanoTime();
+        try (Connection connection = ConnectionUtil.getConnection();
+                PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setInt(1, account_id);
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                while (rs.next()) {
+                    Message message = new Message(rs.getInt("message_id"), rs.getInt("posted_by"),
+                            rs.getString("message_text"), rs.getLong("time_posted_epoch"));
+                    messages.add(message);
+                }
+            }
+        } catch (SQLException e) {
+            GET_ALL_MESSAGES_FROM_USER_TIMER.error();
+            System.out.println(e.getMessage());
+        } finally {
+            GET_ALL_MESSAGES_FROM_USER_TIMER.recordSince(start);
+        }
+        return messages;
+    }
+
+    /**
+     * Retrieve one page of messages ordered by message_id, using the message_id
+     * of the previous page as a cursor instead of an offset so every page costs
+     * the same no matter how deep it is.
+     * 
+     * When only before_id is given the page holds the limit messages right
+     * before it; otherwise it holds the first limit messages after after_id.
+     * Either way the page is returned in ascending message_id order.
+     * 
+     * @param posted_by an account ID to restrict the page to, or null for all
+     *                  messages.
+     * @param after_id  only return messages with a greater message_id, or null.
+     * @param before_id only return messages with a smaller message_id, or null.
+     * @param limit     maximum number of messages to return.
+     * @return the page of messages.
+     */
+    public List<Message> getMessagesPage(Integer posted_by, Integer after_id, Integer before_id, int limit) {
+        List<Message> messages = new ArrayList<>();
+        boolean descending = before_id != null && after_id == null;
+
+        String sql = messagesPageSql(posted_by != null, after_id != null, before_id != null);
+
+        long start = System.nanoTime();
+        try (Connection connection = ConnectionUtil.getConnection();
+                PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            int index = 1;
+            if (posted_by != null) {
+                preparedStatement.setInt(index++, posted_by);
+            }
+            if (after_id != null) {
+                preparedStatement.setInt(index++, after_id);
+            }
+            if (before_id != null) {
+                preparedStatement.setInt(index++, before_id);
+            }
+            preparedStatement.setInt(index, limit);
+
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                while (rs.next()) {
+                    Message message = new Message(rs.getInt("message_id"), rs.getInt("posted_by"),
+                            rs.getString("message_text"), rs.getLong("time_posted_epoch"));
+                    messages.add(message);
+                }
+            }
+        } catch (SQLException e) {
+            GET_MESSAGES_PAGE_TIMER.error();
+            System.out.println(e.getMessage());
+        } finally {
+            GET_MESSAGES_PAGE_TIMER.recordSince(start);
+        }
+        if (descending) {
+            Collections.reverse(messages);
+        }
+        return messages;
+    }
+
+    /**
+     * Build the statement of getMessagesPage(). Its parameters are posted_by,
+     * after_id and before_id, where present, then the limit.
+     *
+     * @param byAuthor  whether the page is restricted to one author.
+     * @param hasAfter  whether after_id is given.
+     * @param hasBefore whether before_id is given.
+     * @return the SQL.
+     */
+    public static String messagesPageSql(boolean byAuthor, boolean hasAfter, boolean hasBefore) {
+        boolean descending = hasBefore && !hasAfter;
+        StringBuilder sql = new StringBuilder("SELECT * FROM message");
+        if (byAuthor) {
+            sql.append(descending ? " USE INDEX (idx_message_posted_by_id_desc)"
+                    : " USE INDEX (idx_message_posted_by_id)");
+        }
+        sql.append(" WHERE 1 = 1");
+        if (byAuthor) {
+            sql.append(" AND posted_by = ?");
+        }
+        if (hasAfter) {
+            sql.append(" AND message_id > ?");
+        }
+        if (hasBefore) {
+            sql.append(" AND message_id < ?");
+        }
+        sql.append(byAuthor ? " ORDER BY posted_by, message_id" : " ORDER BY message_id");
+        return sql.append(descending ? " DESC" : "").append(" LIMIT ?").toString();
+    }
+
+    /**
+     * Visit every message, in message_id order, straight from the ResultSet
+     * without building a list, so exporting the whole table runs in constant
+     * memory.
+     * 
+     * @param posted_by an account ID to restrict the messages to, or null for all
+     *                  messages.
+     * @param handler   called once per message.
+     * @return false if the query failed part way through.
+     * @throws IOException if the handler fails, e.g. because the client went away.
+     */
+    public boolean forEachMessage(Integer posted_by, MessageHandler handler) throws IOException {
+        String sql = posted_by == null ? "SELECT * FROM message ORDER BY message_id" : MESSAGES_FROM_USER_SQL;
+
+        long start = System.nanoTime();
+        try (Connection connection = ConnectionUtil.getConnection();
+                PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            if (posted_by != null) {
+                preparedStatement.setInt(1, posted_by);
+            }
+            preparedStatement.setFetchSize(1000);
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                while (rs.next()) {
+                    handler.handle(new Message(rs.getInt("message_id"), rs.getInt("posted_by"),
+                            rs.getString("message_text"), rs.getLong("time_posted_epoch")));
+                }
+            }
+            return true;
+        } catch (SQLException e) {
+            FOR_EACH_MESSAGE_TIMER.error();
+            System.out.println(e.getMessage());
+        } finally {
+            FOR_EACH_MESSAGE_TIMER.recordSince(start);
+        }
+        return false;
+    }
 
+    /**
+     * Retrieve the IDs of the most recent messages posted by an account.
+     * 
+     * @param account_id a account ID.
+     * @param limit      maximum number of IDs to return.
+     * @return message IDs, newest first.
+     */
+    public int[] getRecentMessageIdsFromUser(int account_id, int limit) {
+        String sql = RECENT_MESSAGE_IDS_FROM_USER_SQL;
+        int[] ids = new int[Math.min(limit, 64)];
+        int count = 0;
+
+        long start = System.nanoTime();
+        try (Connection connection = ConnectionUtil.getConnection();
+                PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
             preparedStatement.setInt(1, account_id);
-            ResultSet rs = preparedStatement.executeQuery();
-            while (rs.next()) {
-                Message message = new Message(rs.getInt("message_id"), rs.getInt("posted_by"),
-                        rs.getString("message_text"), rs.getLong("time_posted_epoch"));
-                messages.add(message);
+            preparedStatement.setInt(2, limit);
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                while (rs.next()) {
+                    if (count == ids.length) {
+                        ids = Arrays.copyOf(ids, ids.length * 2);
+                    }
+                    ids[count++] = rs.getInt(1);
+                }
             }
         } catch (SQLException e) {
+            GET_RECENT_MESSAGE_IDS_FROM_USER_TIMER.error();
             System.out.println(e.getMessage());
+            return null;
+        } finally {
+            GET_RECENT_MESSAGE_IDS_FROM_USER_TIMER.recordSince(start);
+        }
+        return Arrays.copyOf(ids, count);
+    }
+
+    /**
+     * Retrieve several messages by ID in a single query.
+     * 
+     * @param message_ids message IDs.
+     * @return the messages that exist, in no particular order.
+     */
+    public List<Message> getMessagesGivenMessageIds(Collection<Integer> message_ids) {
+        List<Message> messages = new ArrayList<>(message_ids.size());
+        String sql = "SELECT * FROM message WHERE message_id = ANY(?)";
+
+        long start = System.nanoTime();
+        try (Connection connection = ConnectionUtil.getConnection();
+                PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setObject(1, message_ids.toArray(new Integer[0]));
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                while (rs.next()) {
+                    Message message = new Message(rs.getInt("message_id"), rs.getInt("posted_by"),
+                            rs.getString("message_text"), rs.getLong("time_posted_epoch"));
+                    messages.add(message);
+                }
+            }
+        } catch (SQLException e) {
+            GET_MESSAGES_GIVEN_MESSAGE_IDS_TIMER.error();
+            System.out.println(e.getMessage());
+        } finally {
+            GET_MESSAGES_GIVEN_MESSAGE_IDS_TIMER.recordSince(start);
         }
         return messages;
     }
@@ -67,51 +305,55 @@ public class MessageDAO {
      * @return the particular message with matching message_id.
      */
     public Message getOneMessageGivenMessageId(int message_id) {
-        Connection connection = ConnectionUtil.getConnection();
-
-        try {
-
-            String sql = "SELECT * FROM message WHERE message_id = ?";
-            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+        String sql = "SELECT * FROM message WHERE message_id = ?";
 
+        long start = System.nanoTime();
+        try (Connection connection = ConnectionUtil.getConnection();
+                PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
             preparedStatement.setInt(1, message_id);
-            ResultSet rs = preparedStatement.executeQuery();
-            while (rs.next()) {
-                Message message = new Message(rs.getInt("message_id"), rs.getInt("posted_by"),
-                        rs.getString("message_text"), rs.getLong("time_posted_epoch"));
-                return message;
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                if (rs.next()) {
+                    return new Message(rs.getInt("message_id"), rs.getInt("posted_by"),
+                            rs.getString("message_text"), rs.getLong("time_posted_epoch"));
+                }
             }
         } catch (SQLException e) {
+            GET_ONE_MESSAGE_GIVEN_MESSAGE_ID_TIMER.error();
             System.out.println(e.getMessage());
+        } finally {
+            GET_ONE_MESSAGE_GIVEN_MESSAGE_ID_TIMER.recordSince(start);
         }
         return null;
     }
 
     /**
-     * Update a message given the message_id with a new message text.
+     * Update a message given the message_id with a new message text. The
+     * update and the read of the updated row are one statement, using H2's
+     * FINAL TABLE delta, so this is one round trip and one transaction.
      * 
      * @param new_message_text a message text to replace the old message text.
      * @param message_id       a message ID.
-     * @return message with updated message text.
+     * @return message with updated message text, or null if it does not exist.
      */
     public Message updateMessageGivenMessageId(String new_message_text, int message_id) {
-        Connection connection = ConnectionUtil.getConnection();
-        if (getOneMessageGivenMessageId(message_id) != null) {
-
-            try {
-
-                String sql = "UPDATE message SET message_text = ? WHERE message_id = ?";
-                PreparedStatement preparedStatement = connection.prepareStatement(sql);
-
-                preparedStatement.setString(1, new_message_text);
-                preparedStatement.setInt(2, message_id);
-
-                preparedStatement.executeUpdate();
-                return getOneMessageGivenMessageId(message_id);
+        String sql = "SELECT * FROM FINAL TABLE (UPDATE message SET message_text = ? WHERE message_id = ?)";
 
-            } catch (SQLException e) {
-                System.out.println(e.getMessage());
+        long start = System.nanoTime();
+        try (Connection connection = ConnectionUtil.getConnection();
+                PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setString(1, new_message_text);
+            preparedStatement.setInt(2, message_id);
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                if (rs.next()) {
+                    return new Message(rs.getInt("message_id"), rs.getInt("posted_by"),
+                            rs.getString("message_text"), rs.getLong("time_posted_epoch"));
+                }
             }
+        } catch (SQLException e) {
+            UPDATE_MESSAGE_GIVEN_MESSAGE_ID_TIMER.error();
+            System.out.println(e.getMessage());
+        } finally {
+            UPDATE_MESSAGE_GIVEN_MESSAGE_ID_TIMER.recordSince(start);
         }
         return null;
     }
@@ -123,53 +365,248 @@ public class MessageDAO {
      * @return created message.
      */
     public Message createMessage(Message message) {
-        Connection connection = ConnectionUtil.getConnection();
-        try {
-
-            // Message text cannot be blank.
-            if (message.getMessage_text().isEmpty()) {
-                return null;
-            }
+        // Message text cannot be blank.
+        if (message.getMessage_text().isEmpty()) {
+            return null;
+        }
 
-            // Check if the message_text meets the length requirement.
-            if (message.getMessage_text().length() > 255) {
-                return null;
-            }
+        // Check if the message_text meets the length requirement.
+        if (message.getMessage_text().length() > 255) {
+            return null;
+        }
 
-            String sql = "INSERT INTO message(posted_by,message_text,time_posted_epoch) VALUES(?,?,?)";
-            PreparedStatement preparedStatement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+        String sql = "INSERT INTO message(posted_by,message_text,time_posted_epoch) VALUES(?,?,?)";
 
+        long start = System.nanoTime();
+        try (Connection connection = ConnectionUtil.getConnection();
+                PreparedStatement preparedStatement = connection.prepareStatement(sql,
+                        Statement.RETURN_GENERATED_KEYS)) {
             preparedStatement.setInt(1, message.getPosted_by());
             preparedStatement.setString(2, message.getMessage_text());
             preparedStatement.setLong(3, message.getTime_posted_epoch());
 
             preparedStatement.executeUpdate();
-            ResultSet pkeyResultSet = preparedStatement.getGeneratedKeys();
-            if (pkeyResultSet.next()) {
-                int generated_message_id = (int) pkeyResultSet.getLong(1);
-                return new Message(generated_message_id, message.getPosted_by(), message.getMessage_text(),
-                        message.getTime_posted_epoch());
+            try (ResultSet pkeyResultSet = preparedStatement.getGeneratedKeys()) {
+                if (pkeyResultSet.next()) {
+                    int generated_message_id = (int) pkeyResultSet.getLong(1);
+                    return new Message(generated_message_id, message.getPosted_by(), message.getMessage_text(),
+                            message.getTime_posted_epoch());
+                }
             }
         } catch (SQLException e) {
+            CREATE_MESSAGE_TIMER.error();
             System.out.println(e.getMessage());
+        } finally {
+            CREATE_MESSAGE_TIMER.recordSince(start);
         }
         return null;
     }
 
     /**
-     * Delete a message given the message ID.
+     * Create many messages in one transaction, sending the inserts to the
+     * database in JDBC batches.
+     * 
+     * Messages whose posted_by does not match an account are skipped instead
+     * of failing the whole transaction. The caller is expected to have
+     * validated message_text already. Messages that already carry a
+     * message_id are inserted with it; the rest get one from the database.
+     * 
+     * @param messages messages to create.
+     * @return a list aligned with messages holding each created message with its
+     *         generated message_id, or null where posted_by does not exist. The
+     *         whole list is null if the transaction failed.
      */
-    public void deleteOneMessageGivenMessageId(int message_id) {
-        Connection connection = ConnectionUtil.getConnection();
+    public List<Message> createMessages(List<Message> messages) {
+        List<Message> created = new ArrayList<>(Collections.nCopies(messages.size(), (Message) null));
+        String accountsSql = "SELECT account_id FROM account WHERE account_id = ANY(?)";
+        boolean explicitIds;
         try {
-            String sql = "DELETE FROM message WHERE message_id = ?";
-            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+            explicitIds = MessageStore.hasExplicitIds(messages);
+        } catch (IllegalArgumentException e) {
+            CREATE_MESSAGES_TIMER.error();
+            System.out.println(e.getMessage());
+            return null;
+        }
+        String insertSql = explicitIds
+                ? "INSERT INTO message(posted_by,message_text,time_posted_epoch,message_id) VALUES(?,?,?,?)"
+                : "INSERT INTO message(posted_by,message_text,time_posted_epoch) VALUES(?,?,?)";
 
-            preparedStatement.setInt(1, message_id);
-            preparedStatement.executeUpdate();
+        long start = System.nanoTime();
+        try (Connection connection = ConnectionUtil.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                Set<Integer> accounts = new HashSet<>();
+                try (PreparedStatement preparedStatement = connection.prepareStatement(accountsSql)) {
+                    preparedStatement.setObject(1, messages.stream().map(Message::getPosted_by).distinct()
+                            .toArray(Integer[]::new));
+                    try (ResultSet rs = preparedStatement.executeQuery()) {
+                        while (rs.next()) {
+                            accounts.add(rs.getInt(1));
+                        }
+                    }
+                }
 
+                try (PreparedStatement preparedStatement = connection.prepareStatement(insertSql,
+                        Statement.RETURN_GENERATED_KEYS)) {
+                    List<Integer> pending = new ArrayList<>(BATCH_SIZE);
+                    for (int i = 0; i < messages.size(); i++) {
+                        Message message = messages.get(i);
+                        if (!accounts.contains(message.getPosted_by())) {
+                            continue;
+                        }
+                        preparedStatement.setInt(1, message.getPosted_by());
+                        preparedStatement.setString(2, message.getMessage_text());
+                        preparedStatement.setLong(3, message.getTime_posted_epoch());
+                        if (explicitIds) {
+                            preparedStatement.setInt(4, message.getMessage_id());
+                        }
+                        preparedStatement.addBatch();
+                        pending.add(i);
+                        if (pending.size() == BATCH_SIZE) {
+                            executeBatch(preparedStatement, messages, pending, created);
+                        }
+                    }
+                    executeBatch(preparedStatement, messages, pending, created);
+                }
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
         } catch (SQLException e) {
+            CREATE_MESSAGES_TIMER.error();
             System.out.println(e.getMessage());
+            return null;
+        } finally {
+            CREATE_MESSAGES_TIMER.recordSince(start);
         }
+        return created;
+    }
+
+    private void executeBatch(PreparedStatement preparedStatement, List<Message> messages, List<Integer> pending,
+            List<Message> created) throws SQLException {
+        if (pending.isEmpty()) {
+            return;
+        }
+        preparedStatement.executeBatch();
+        try (ResultSet pkeyResultSet = preparedStatement.getGeneratedKeys()) {
+            for (int index : pending) {
+                if (!pkeyResultSet.next()) {
+                    throw new SQLException("Missing generated key for batch item " + index);
+                }
+                Message message = messages.get(index);
+                created.set(index, new Message((int) pkeyResultSet.getLong(1), message.getPosted_by(),
+                        message.getMessage_text(), message.getTime_posted_epoch()));
+            }
+        }
+        pending.clear();
+    }
+
+    /**
+     * Check whether an account exists, so a message can be validated before it
+     * is written.
+     * 
+     * @param account_id a account ID.
+     * @return true if the account exists.
+     */
+    public boolean accountExists(int account_id) {
+        String sql = "SELECT 1 FROM account WHERE account_id = ?";
+
+        long start = System.nanoTime();
+        try (Connection connection = ConnectionUtil.getConnection();
+                PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setInt(1, account_id);
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                return rs.next();
+            }
+        } catch (SQLException e) {
+            ACCOUNT_EXISTS_TIMER.error();
+            System.out.println(e.getMessage());
+        } finally {
+            ACCOUNT_EXISTS_TIMER.recordSince(start);
+        }
+        return false;
+    }
+
+    /**
+     * @return the highest message_id in use, or 0 if there are no messages.
+     */
+    public int getMaxMessageId() {
+        String sql = "SELECT COALESCE(MAX(message_id), 0) FROM message";
+
+        long start = System.nanoTime();
+        try (Connection connection = ConnectionUtil.getConnection();
+                PreparedStatement preparedStatement = connection.prepareStatement(sql);
+                ResultSet rs = preparedStatement.executeQuery()) {
+            rs.next();
+            return rs.getInt(1);
+        } catch (SQLException e) {
+            GET_MAX_MESSAGE_ID_TIMER.error();
+            System.out.println(e.getMessage());
+        } finally {
+            GET_MAX_MESSAGE_ID_TIMER.recordSince(start);
+        }
+        return 0;
+    }
+
+    /**
+     * Reserve IDs from message_id_seq, the sequence plain inserts take their
+     * message_id from, in one query.
+     */
+    public int[] reserveMessageIds(int count) {
+        String sql = "SELECT NEXT VALUE FOR message_id_seq FROM SYSTEM_RANGE(1, ?)";
+
+        long start = System.nanoTime();
+        try (Connection connection = ConnectionUtil.getConnection();
+                PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setInt(1, count);
+            int[] ids = new int[count];
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                for (int i = 0; i < count; i++) {
+                    if (!rs.next()) {
+                        throw new SQLException("Sequence returned " + i + " of " + count + " message IDs");
+                    }
+                    ids[i] = (int) rs.getLong(1);
+                }
+            }
+            Arrays.sort(ids);
+            return ids;
+        } catch (SQLException e) {
+            RESERVE_MESSAGE_IDS_TIMER.error();
+            System.out.println(e.getMessage());
+        } finally {
+            RESERVE_MESSAGE_IDS_TIMER.recordSince(start);
+        }
+        return null;
+    }
+
+    /**
+     * Delete a message given the message ID and return the deleted row. The
+     * delete and the read are one statement, using H2's OLD TABLE delta, so
+     * of several concurrent deletes of one message only one gets it back.
+     * 
+     * @param message_id a message ID.
+     * @return the deleted message, or null if it did not exist.
+     */
+    public Message deleteOneMessageGivenMessageId(int message_id) {
+        String sql = "SELECT * FROM OLD TABLE (DELETE FROM message WHERE message_id = ?)";
+
+        long start = System.nanoTime();
+        try (Connection connection = ConnectionUtil.getConnection();
+                PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setInt(1, message_id);
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                if (rs.next()) {
+                    return new Message(rs.getInt("message_id"), rs.getInt("posted_by"),
+                            rs.getString("message_text"), rs.getLong("time_posted_epoch"));
+                }
+            }
+        } catch (SQLException e) {
+            DELETE_ONE_MESSAGE_GIVEN_MESSAGE_ID_TIMER.error();
+            System.out.println(e.getMessage());
+        } finally {
+            DELETE_ONE_MESSAGE_GIVEN_MESSAGE_ID_TIMER.recordSince(start);
+        }
+        return null;
     }
 }
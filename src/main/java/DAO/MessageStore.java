@@ -0,0 +1,160 @@
+package DAO;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+
+import Model.Message;
+
+/**
+ * Where messages are kept. MessageDAO keeps them in the H2 database and
+ * LogStore in an embedded log-structured store; Stores picks one with the
+ * store.backend system property.
+ *
+ * Implementations report failures by returning null, false or an empty
+ * result, as the H2 DAOs always have.
+ */
+public interface MessageStore {
+
+    /**
+     * Callback used to visit messages one row at a time.
+     */
+    @FunctionalInterface
+    interface MessageHandler {
+        void handle(Message message) throws IOException;
+    }
+
+    /**
+     * @return all messages, in message_id order.
+     */
+    List<Message> getAllMessages();
+
+    /**
+     * @param account_id a account ID.
+     * @return all messages from the particular user, in message_id order.
+     */
+    List<Message> getAllMessagesFromUser(int account_id);
+
+    /**
+     * Retrieve one keyset page of messages. When only before_id is given the
+     * page holds the limit messages right before it; otherwise it holds the
+     * first limit messages after after_id.
+     *
+     * @param posted_by an account ID to restrict the page to, or null for all
+     *                  messages.
+     * @param after_id  only return messages with a greater message_id, or null.
+     * @param before_id only return messages with a smaller message_id, or null.
+     * @param limit     maximum number of messages to return.
+     * @return the page of messages in ascending message_id order.
+     */
+    List<Message> getMessagesPage(Integer posted_by, Integer after_id, Integer before_id, int limit);
+
+    /**
+     * Visit every message in message_id order without building a list.
+     *
+     * @param posted_by an account ID to restrict the messages to, or null for all
+     *                  messages.
+     * @param handler   called once per message.
+     * @return false if reading the messages failed part way through.
+     * @throws IOException if the handler fails.
+     */
+    boolean forEachMessage(Integer posted_by, MessageHandler handler) throws IOException;
+
+    /**
+     * @param account_id a account ID.
+     * @param limit      maximum number of IDs to return.
+     * @return the IDs of the account's most recent messages, newest first, or
+     *         null if they could not be read.
+     */
+    int[] getRecentMessageIdsFromUser(int account_id, int limit);
+
+    /**
+     * @param message_ids message IDs.
+     * @return the messages that exist, in no particular order.
+     */
+    List<Message> getMessagesGivenMessageIds(Collection<Integer> message_ids);
+
+    /**
+     * @param message_id a message ID.
+     * @return the message, or null if it does not exist.
+     */
+    Message getOneMessageGivenMessageId(int message_id);
+
+    /**
+     * @param new_message_text a message text to replace the old message text.
+     * @param message_id       a message ID.
+     * @return message with updated message text, or null if it does not exist.
+     */
+    Message updateMessageGivenMessageId(String new_message_text, int message_id);
+
+    /**
+     * @param message a message without a message_id.
+     * @return the created message with its new message_id, or null if the
+     *         text is blank or too long, or posted_by does not exist.
+     */
+    Message createMessage(Message message);
+
+    /**
+     * Create many messages at once. Messages whose posted_by does not match an
+     * account are skipped. Either every message already carries a message_id
+     * and is saved with it, or none does and each is given a new one; a list
+     * mixing the two is not saved.
+     *
+     * @param messages validated messages to create.
+     * @return a list aligned with messages holding each created message, or
+     *         null where posted_by does not exist. The whole list is null if
+     *         nothing could be saved.
+     */
+    List<Message> createMessages(List<Message> messages);
+
+    /**
+     * @param messages messages about to be created.
+     * @return true if every message carries its own message_id, false if none
+     *         does.
+     * @throws IllegalArgumentException if only some of them do.
+     */
+    static boolean hasExplicitIds(List<Message> messages) {
+        int explicit = 0;
+        for (Message message : messages) {
+            if (message.getMessage_id() > 0) {
+                explicit++;
+            }
+        }
+        if (explicit > 0 && explicit < messages.size()) {
+            throw new IllegalArgumentException(
+                    "Either every message or none must carry a message_id, but " + explicit + " of "
+                            + messages.size() + " do");
+        }
+        return explicit > 0;
+    }
+
+    /**
+     * @param account_id a account ID.
+     * @return true if the account exists.
+     */
+    boolean accountExists(int account_id);
+
+    /**
+     * @return the highest message_id in use, or 0 if there are no messages.
+     */
+    int getMaxMessageId();
+
+    /**
+     * Reserve message_ids for messages that will be created with explicit IDs
+     * later. No other message is ever given a reserved ID.
+     *
+     * @param count number of IDs to reserve.
+     * @return the reserved IDs in increasing order, or null if they could not
+     *         be reserved.
+     */
+    int[] reserveMessageIds(int count);
+
+    /**
+     * Delete a message. Of several concurrent deletes of one message only one
+     * gets it back.
+     *
+     * @param message_id a message ID.
+     * @return the deleted message, or null if it did not exist.
+     */
+    Message deleteOneMessageGivenMessageId(int message_id);
+}
@@ -0,0 +1,69 @@
+package DAO;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+
+/**
+ * Picks the stores the services work against with the store.backend system
+ * property: "h2", the default, for the DAOs over the H2 database, or "log" for
+ * one LogStore shared by the whole process.
+ *
+ * The LogStore keeps its segments in store.log.dir, maps store.log.initialMB
+ * for a new segment, forces every change to disk if store.log.fsync is true,
+ * and checks every store.log.compactIntervalSeconds whether
+ * store.log.compactRatio of its segment is garbage.
+ */
+public class Stores {
+
+    private static LogStore logStore;
+
+    /**
+     * @return true if store.backend selects the LogStore.
+     */
+    public static boolean isLogBackend() {
+        return "log".equals(System.getProperty("store.backend", "h2"));
+    }
+
+    public static MessageStore messageStore() {
+        return isLogBackend() ? logStore() : new MessageDAO();
+    }
+
+    public static AccountStore accountStore() {
+        return isLogBackend() ? logStore() : new AccountDAO();
+    }
+
+    public static FollowStore followStore() {
+        return isLogBackend() ? logStore() : new FollowDAO();
+    }
+
+    /**
+     * @return the process-wide LogStore, opened on first use.
+     * @throws UncheckedIOException if its directory cannot be opened.
+     */
+    public static synchronized LogStore logStore() {
+        if (logStore == null) {
+            try {
+                logStore = new LogStore(Paths.get(System.getProperty("store.log.dir", "./logstore")),
+                        Integer.getInteger("store.log.initialMB", 16) << 20,
+                        Boolean.getBoolean("store.log.fsync"),
+                        Long.getLong("store.log.compactIntervalSeconds", 60),
+                        Double.parseDouble(System.getProperty("store.log.compactRatio", "0.5")));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return logStore;
+    }
+
+    /**
+     * Bring the selected store back in line with the H2 database after the
+     * test database was recreated. The DAOs read H2 directly, so only the
+     * LogStore has anything to do.
+     */
+    public static void reset() throws IOException {
+        if (isLogBackend()) {
+            logStore().reset();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package Model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * This is a class that models the outcome of one item of a POST /messages/batch
+ * request. Exactly one of message and error is set.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class MessageBatchResult {
+    /**
+     * Position of the item in the request array.
+     */
+    public int index;
+    /**
+     * The created message, including its generated message_id, if the item was saved.
+     */
+    public Message message;
+    /**
+     * Why the item was rejected, if it was not saved.
+     */
+    public String error;
+
+    /**
+     * A default, no-args constructor, as well as correctly formatted getters and setters, are needed for
+     * Jackson Objectmapper to work.
+     */
+    public MessageBatchResult() {
+    }
+
+    /**
+     * @param index   position of the item in the request array.
+     * @param message the created message, or null if the item was rejected.
+     * @param error   why the item was rejected, or null if it was saved.
+     */
+    public MessageBatchResult(int index, Message message, String error) {
+        this.index = index;
+        this.message = message;
+        this.error = error;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
+    public Message getMessage() {
+        return message;
+    }
+
+    public void setMessage(Message message) {
+        this.message = message;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    @Override
+    public String toString() {
+        return "MessageBatchResult{" +
+                "index=" + index +
+                ", message=" + message +
+                ", error='" + error + '\'' +
+                '}';
+    }
+}
@@ -2,55 +2,142 @@ package Service;
 
 import java.util.List;
 
-import DAO.AccountDAO;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import DAO.AccountStore;
+import DAO.Stores;
 import Model.Account;
+import Util.PasswordHasher;
 
 public class AccountService {
-    private AccountDAO accountDAO;
+    private AccountStore accountStore;
+    private PasswordHasher passwordHasher;
+
+    /**
+     * Stored credentials by username, as Accounts whose password is the
+     * stored hash. Hot logins are verified without a database round trip.
+     * Accounts are never deleted and every password change goes through this
+     * service, so entries cannot go stale.
+     */
+    private Cache<String, Account> credentials;
+
+    private LoginRateLimiter loginRateLimiter;
 
     /**
-     * No-args contructor for a accountSevice instantiates a plain accountDAO.
+     * No-args contructor for a accountSevice uses the account store selected
+     * by the store.backend system property.
      */
     public AccountService() {
-        accountDAO = new AccountDAO();
+        this(Stores.accountStore());
     }
 
     /**
-     * Constructor for a accounService when a accountDAO is provided.
-     * 
-     * @param accountDAO a accountDAO.
+     * Constructor for a accounService when a accountStore is provided.
+     * The hashing cost is set by the auth.pbkdf2.iterations system property,
+     * the credential cache by cache.credentials.maxSize, and login rate limits
+     * by auth.login.usernameBurst, auth.login.usernamePerMinute,
+     * auth.login.ipBurst and auth.login.ipPerMinute.
+     *
+     * @param accountStore a accountStore.
      */
-    public AccountService(AccountDAO accountDAO) {
-        this.accountDAO = accountDAO;
+    public AccountService(AccountStore accountStore) {
+        this.accountStore = accountStore;
+        this.passwordHasher = new PasswordHasher(Integer.getInteger("auth.pbkdf2.iterations", 600000));
+        this.credentials = Caffeine.newBuilder()
+                .maximumSize(Long.getLong("cache.credentials.maxSize", 10000))
+                .build();
+        this.loginRateLimiter = new LoginRateLimiter(
+                Integer.getInteger("auth.login.usernameBurst", 5),
+                Integer.getInteger("auth.login.usernamePerMinute", 10),
+                Integer.getInteger("auth.login.ipBurst", 50),
+                Integer.getInteger("auth.login.ipPerMinute", 600),
+                100000);
     }
 
     /**
-     * Use the accountDAO to retrieve all authors.
+     * Use the accountStore to retrieve all authors.
      *
      * @return all Accounts.
      */
     public List<Account> getAllAccounts() {
-        return accountDAO.getAllAccounts();
+        return accountStore.getAllAccounts();
     }
 
     /**
-     * Use accountDAO to add a new account to the database.
+     * Add a new account with a hashed password. The username must not be
+     * blank or taken, and the password must be at least 4 characters long.
+     * A username that is already known to be taken is refused before the
+     * password is hashed, so repeating a registration does not cost a hash.
+     * The insert itself still has the final say, so two concurrent
+     * registrations of one username cannot both succeed.
      *
      * @param account an account object.
-     * @return Account if added successful.
+     * @return Account if added successful, with the password as given.
      */
     public Account addAccount(Account account) {
-        return accountDAO.insertAccount(account);
+        String username = account.getUsername();
+        String password = account.getPassword();
+        if (username == null || username.isEmpty() || password == null || password.length() < 4) {
+            return null;
+        }
+        if (credentials.getIfPresent(username) != null) {
+            return null;
+        }
+        Account existing = accountStore.getAccount(username);
+        if (existing != null) {
+            credentials.put(username, existing);
+            return null;
+        }
+
+        Account stored = accountStore.insertAccount(new Account(username, passwordHasher.hash(password)));
+        if (stored == null) {
+            return null;
+        }
+        credentials.put(username, stored);
+        return new Account(stored.getAccount_id(), username, password);
     }
 
     /**
-     * Use accountDAO to login to a account with provided username and password.
-     * 
-     * @param account a account.
-     * @return Account if login is successful.
+     * Login to an account with the provided username and password. Legacy
+     * plaintext passwords are upgraded to a hash on a successful login.
+     *
+     * @param account  a account.
+     * @param clientIp the address the request came from.
+     * @return Account if login is successful, with the password as given.
+     * @throws LoginRateLimiter.RateLimitedException if there were too many
+     *                                               attempts from the address,
+     *                                               or for the username from
+     *                                               it.
      */
-    public Account login(Account account) {
-        return accountDAO.loginAccount(account.getUsername(), account.getPassword());
+    public Account login(Account account, String clientIp) {
+        String username = account.getUsername();
+        String password = account.getPassword();
+        if (username == null || password == null) {
+            return null;
+        }
+        if (!loginRateLimiter.tryAcquire(username, clientIp)) {
+            throw new LoginRateLimiter.RateLimitedException();
+        }
+
+        Account stored = credentials.getIfPresent(username);
+        if (stored == null) {
+            stored = accountStore.getAccount(username);
+            if (stored != null) {
+                credentials.put(username, stored);
+            }
+        }
+        if (!passwordHasher.verify(password, stored == null ? null : stored.getPassword())) {
+            return null;
+        }
+
+        if (passwordHasher.needsRehash(stored.getPassword())) {
+            String hash = passwordHasher.hash(password);
+            if (accountStore.updatePassword(stored.getAccount_id(), hash)) {
+                credentials.put(username, new Account(stored.getAccount_id(), username, hash));
+            }
+        }
+        return new Account(stored.getAccount_id(), username, password);
     }
 
 }
@@ -0,0 +1,451 @@
+package Service;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+/**
+ * Builds home feeds: an account's own messages plus those of every account it
+ * follows, newest first.
+ *
+ * Each active account gets a home timeline, a ring buffer of its newest
+ * message IDs. New messages are fanned out on write into the cached timelines
+ * of the author and all its followers. Accounts with more than maxFollowers
+ * followers are not fanned out, since one message would touch too many
+ * timelines. Their recent messages are merged in when a follower reads the
+ * feed instead.
+ *
+ * Pages that fall inside a timeline are served from memory. Deeper pages go
+ * to the database. Timelines, follower lists and the set of large accounts
+ * followed are loaded outside the caches. As in TimelineCache, every change
+ * bumps a counter for the accounts it affects, and a load that raced with a
+ * change is used once but not cached.
+ *
+ * Cached entries expire after ttl. This bounds how long a feed can miss the
+ * new messages of an account whose follower count just crossed maxFollowers.
+ */
+public class FeedFanout {
+
+    /**
+     * Reads the follow graph and messages the feeds are built from.
+     */
+    public interface Source {
+        /**
+         * @return up to limit feed message IDs below before_id, newest first,
+         *         or null on failure.
+         */
+        int[] feedIds(int account_id, Integer before_id, int limit);
+
+        /**
+         * @return the account's follower count, or -1 if unknown.
+         */
+        int followerCount(int account_id);
+
+        /**
+         * @return every follower of the account, or null on failure.
+         */
+        int[] followers(int account_id);
+
+        /**
+         * @return the followed accounts with more than minFollowers
+         *         followers, or null on failure.
+         */
+        int[] largeFollowees(int account_id, int minFollowers);
+
+        /**
+         * @return up to limit of the author's message IDs below before_id,
+         *         newest first, or null on failure.
+         */
+        int[] recentIds(int author_id, Integer before_id, int limit);
+    }
+
+    /**
+     * A bounded ring of one account's newest feed message IDs, oldest first.
+     * Every fanned-out message with an ID above floor is held; older ones
+     * were dropped to make room and must be read from the database.
+     */
+    static final class HomeTimeline {
+        private final int[] ring;
+        private int head;
+        private int size;
+        private int floor;
+
+        /**
+         * @param newestFirst the newest feed message IDs, as loaded.
+         * @param capacity    the most IDs to hold.
+         */
+        HomeTimeline(int[] newestFirst, int capacity) {
+            this.ring = new int[capacity];
+            int count = Math.min(newestFirst.length, capacity);
+            for (int i = 0; i < count; i++) {
+                ring[i] = newestFirst[count - 1 - i];
+            }
+            this.size = count;
+            // A full load may have left older messages behind.
+            this.floor = newestFirst.length < capacity ? 0 : ring[0] - 1;
+        }
+
+        synchronized void add(int message_id) {
+            if (message_id <= floor) {
+                return;
+            }
+            // Messages are published nearly in ID order, so the slot is found
+            // within the last few.
+            int i = size;
+            while (i > 0 && at(i - 1) > message_id) {
+                i--;
+            }
+            if (i > 0 && at(i - 1) == message_id) {
+                return;
+            }
+            if (size == ring.length) {
+                if (i == 0) {
+                    // Older than everything held: dropped straight away.
+                    floor = message_id;
+                    return;
+                }
+                floor = ring[head];
+                head = (head + 1) % ring.length;
+                size--;
+                i--;
+            }
+            for (int j = size; j > i; j--) {
+                set(j, at(j - 1));
+            }
+            set(i, message_id);
+            size++;
+        }
+
+        synchronized void remove(int message_id) {
+            for (int i = size - 1; i >= 0; i--) {
+                if (at(i) == message_id) {
+                    for (int j = i; j < size - 1; j++) {
+                        set(j, at(j + 1));
+                    }
+                    size--;
+                    return;
+                }
+            }
+        }
+
+        /**
+         * @return up to limit IDs below before_id, newest first, or null if
+         *         the page reaches past what the ring holds.
+         */
+        synchronized int[] page(Integer before_id, int limit) {
+            int[] page = new int[Math.min(limit, size)];
+            int count = 0;
+            for (int i = size - 1; i >= 0 && count < page.length; i--) {
+                int message_id = at(i);
+                if (before_id == null || message_id < before_id) {
+                    page[count++] = message_id;
+                }
+            }
+            if (count < limit && floor > 0) {
+                return null;
+            }
+            return count == page.length ? page : Arrays.copyOf(page, count);
+        }
+
+        int capacity() {
+            return ring.length;
+        }
+
+        private int at(int i) {
+            return ring[(head + i) % ring.length];
+        }
+
+        private void set(int i, int message_id) {
+            ring[(head + i) % ring.length] = message_id;
+        }
+    }
+
+    /**
+     * The followers a message is fanned out to, or null followers if the
+     * author has too many.
+     */
+    static final class Audience {
+        final int[] followers;
+
+        Audience(int[] followers) {
+            this.followers = followers;
+        }
+    }
+
+    /**
+     * Number of change counters; a power of two.
+     */
+    private static final int STRIPES = 1024;
+
+    private static final int[] NONE = new int[0];
+
+    private final Source source;
+    private final int depth;
+    private final int maxFollowers;
+    private final Cache<Integer, HomeTimeline> timelines;
+    private final Cache<Integer, Audience> audiences;
+    private final Cache<Integer, int[]> largeFollowees;
+
+    /**
+     * Bumped by every change to the feed, audience or follows of an account
+     * in the stripe.
+     */
+    private final AtomicLongArray writes = new AtomicLongArray(STRIPES);
+
+    private final LongAdder deliveries = new LongAdder();
+    private final LongAdder memoryPages = new LongAdder();
+    private final LongAdder databasePages = new LongAdder();
+
+    /**
+     * @param source       reads the follow graph and messages.
+     * @param depth        how many message IDs each home timeline holds.
+     * @param maxIds       memory cap, as the total number of IDs held across
+     *                     all home timelines.
+     * @param maxFollowers authors with more followers are merged on read
+     *                     instead of fanned out on write.
+     * @param ttl          how long cached timelines and follow data live.
+     */
+    public FeedFanout(Source source, int depth, long maxIds, int maxFollowers, Duration ttl) {
+        this.source = source;
+        this.depth = depth;
+        this.maxFollowers = maxFollowers;
+        this.timelines = Caffeine.newBuilder()
+                .maximumWeight(maxIds)
+                .weigher((Integer account_id, HomeTimeline timeline) -> timeline.capacity())
+                .expireAfterWrite(ttl)
+                .build();
+        this.audiences = Caffeine.newBuilder()
+                .maximumWeight(Math.max(maxIds, maxFollowers))
+                .weigher((Integer account_id, Audience audience) -> audience.followers == null ? 1
+                        : audience.followers.length + 1)
+                .expireAfterWrite(ttl)
+                .build();
+        this.largeFollowees = Caffeine.newBuilder()
+                .maximumSize(Math.max(1, maxIds / Math.max(1, depth)))
+                .expireAfterWrite(ttl)
+                .build();
+    }
+
+    /**
+     * Return one page of an account's home feed.
+     *
+     * @param account_id an account ID.
+     * @param before_id  only return messages with a smaller message_id, or null.
+     * @param limit      maximum number of IDs to return.
+     * @return message IDs, newest first, or null if the feed could not be read.
+     */
+    public int[] getPage(int account_id, Integer before_id, int limit) {
+        HomeTimeline timeline = timeline(account_id);
+        int[] page = timeline == null ? null : timeline.page(before_id, limit);
+        if (page == null) {
+            databasePages.increment();
+            return source.feedIds(account_id, before_id, limit);
+        }
+        int[] large = largeFollowees(account_id);
+        if (large == null) {
+            databasePages.increment();
+            return source.feedIds(account_id, before_id, limit);
+        }
+        memoryPages.increment();
+        if (large.length == 0) {
+            return page;
+        }
+        int[][] lists = new int[large.length + 1][];
+        lists[0] = page;
+        for (int i = 0; i < large.length; i++) {
+            lists[i + 1] = source.recentIds(large[i], before_id, limit);
+            if (lists[i + 1] == null) {
+                return source.feedIds(account_id, before_id, limit);
+            }
+        }
+        return merge(lists, limit);
+    }
+
+    /**
+     * Fan a newly committed message out to the author's and its followers'
+     * cached timelines.
+     */
+    public void published(int author_id, int message_id) {
+        bump(author_id);
+        add(author_id, message_id);
+        Audience audience = audience(author_id);
+        if (audience == null) {
+            // Cannot tell whose feed this belongs in, so rebuild them all.
+            timelines.invalidateAll();
+            return;
+        }
+        if (audience.followers != null) {
+            for (int follower_id : audience.followers) {
+                bump(follower_id);
+                add(follower_id, message_id);
+            }
+        }
+    }
+
+    /**
+     * Drop a deleted message from the cached timelines it was fanned out to.
+     */
+    public void removed(int author_id, int message_id) {
+        bump(author_id);
+        remove(author_id, message_id);
+        Audience audience = audience(author_id);
+        if (audience == null) {
+            timelines.invalidateAll();
+            return;
+        }
+        if (audience.followers != null) {
+            for (int follower_id : audience.followers) {
+                bump(follower_id);
+                remove(follower_id, message_id);
+            }
+        }
+    }
+
+    /**
+     * Forget everything cached about a follow relationship after it was
+     * created or removed. The follower's timeline is rebuilt on its next read.
+     */
+    public void followsChanged(int follower_id, int followee_id) {
+        bump(follower_id);
+        bump(followee_id);
+        timelines.invalidate(follower_id);
+        largeFollowees.invalidate(follower_id);
+        audiences.invalidate(followee_id);
+    }
+
+    /**
+     * @return sizes of the caches and how pages were served.
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("timelines", timelines.estimatedSize());
+        result.put("audiences", audiences.estimatedSize());
+        result.put("deliveries", deliveries.sum());
+        result.put("memoryPages", memoryPages.sum());
+        result.put("databasePages", databasePages.sum());
+        return result;
+    }
+
+    private void add(int account_id, int message_id) {
+        HomeTimeline timeline = timelines.getIfPresent(account_id);
+        if (timeline != null) {
+            timeline.add(message_id);
+            deliveries.increment();
+        }
+    }
+
+    private void remove(int account_id, int message_id) {
+        HomeTimeline timeline = timelines.getIfPresent(account_id);
+        if (timeline != null) {
+            timeline.remove(message_id);
+        }
+    }
+
+    private HomeTimeline timeline(int account_id) {
+        HomeTimeline timeline = timelines.getIfPresent(account_id);
+        if (timeline != null) {
+            return timeline;
+        }
+        long before = writes.get(stripe(account_id));
+        int[] ids = source.feedIds(account_id, null, depth);
+        if (ids == null) {
+            return null;
+        }
+        timeline = new HomeTimeline(ids, depth);
+        if (writes.get(stripe(account_id)) == before) {
+            HomeTimeline raced = timelines.asMap().putIfAbsent(account_id, timeline);
+            if (raced != null) {
+                return raced;
+            }
+            if (writes.get(stripe(account_id)) != before) {
+                timelines.asMap().remove(account_id, timeline);
+            }
+        }
+        return timeline;
+    }
+
+    private Audience audience(int author_id) {
+        Audience audience = audiences.getIfPresent(author_id);
+        if (audience != null) {
+            return audience;
+        }
+        long before = writes.get(stripe(author_id));
+        int count = source.followerCount(author_id);
+        if (count < 0) {
+            return null;
+        }
+        if (count > maxFollowers) {
+            audience = new Audience(null);
+        } else {
+            int[] followers = count == 0 ? NONE : source.followers(author_id);
+            if (followers == null) {
+                return null;
+            }
+            audience = new Audience(followers);
+        }
+        if (writes.get(stripe(author_id)) == before) {
+            audiences.put(author_id, audience);
+            if (writes.get(stripe(author_id)) != before) {
+                audiences.invalidate(author_id);
+            }
+        }
+        return audience;
+    }
+
+    private int[] largeFollowees(int account_id) {
+        int[] large = largeFollowees.getIfPresent(account_id);
+        if (large != null) {
+            return large;
+        }
+        long before = writes.get(stripe(account_id));
+        large = source.largeFollowees(account_id, maxFollowers);
+        if (large != null && writes.get(stripe(account_id)) == before) {
+            largeFollowees.put(account_id, large);
+            if (writes.get(stripe(account_id)) != before) {
+                largeFollowees.invalidate(account_id);
+            }
+        }
+        return large;
+    }
+
+    /**
+     * Merge lists of IDs, each newest first, into one newest-first list
+     * without duplicates.
+     */
+    static int[] merge(int[][] lists, int limit) {
+        int[] merged = new int[limit];
+        int[] cursors = new int[lists.length];
+        int count = 0;
+        while (count < limit) {
+            int best = -1;
+            for (int i = 0; i < lists.length; i++) {
+                if (cursors[i] < lists[i].length
+                        && (best < 0 || lists[i][cursors[i]] > lists[best][cursors[best]])) {
+                    best = i;
+                }
+            }
+            if (best < 0) {
+                break;
+            }
+            int message_id = lists[best][cursors[best]++];
+            if (count == 0 || merged[count - 1] != message_id) {
+                merged[count++] = message_id;
+            }
+        }
+        return count == limit ? merged : Arrays.copyOf(merged, count);
+    }
+
+    private void bump(int account_id) {
+        writes.incrementAndGet(stripe(account_id));
+    }
+
+    private static int stripe(int account_id) {
+        return account_id & (STRIPES - 1);
+    }
+}
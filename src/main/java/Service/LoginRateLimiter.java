@@ -0,0 +1,102 @@
+package Service;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+/**
+ * Token-bucket rate limiting for login attempts, per client IP and per
+ * username from that IP. Every attempt takes one token from both buckets, and
+ * is refused if either is empty, before any database lookup or password
+ * hashing happens.
+ *
+ * There is no bucket for a username on its own: any one address could empty
+ * it and lock the account's owner out. Guessing one password from many
+ * addresses is instead bounded by every address's own buckets and by the
+ * cost of hashing each guess.
+ *
+ * Buckets refill continuously up to their burst size. Idle buckets are full
+ * anyway, so they are dropped after a while and the number of tracked keys is
+ * bounded.
+ */
+public class LoginRateLimiter {
+
+    /**
+     * The state of one bucket. Buckets are immutable and replaced atomically.
+     */
+    private static final class Bucket {
+        final double tokens;
+        final long refilledAt;
+        final boolean allowed;
+
+        Bucket(double tokens, long refilledAt, boolean allowed) {
+            this.tokens = tokens;
+            this.refilledAt = refilledAt;
+            this.allowed = allowed;
+        }
+    }
+
+    private final Cache<String, Bucket> buckets;
+    private final int usernameBurst;
+    private final double usernameTokensPerNano;
+    private final int ipBurst;
+    private final double ipTokensPerNano;
+
+    /**
+     * @param usernameBurst     attempts allowed at once for one username from
+     *                          one IP.
+     * @param usernamePerMinute sustained attempts per minute for one username
+     *                          from one IP.
+     * @param ipBurst           attempts allowed at once from one IP.
+     * @param ipPerMinute       sustained attempts per minute from one IP.
+     * @param maxKeys           maximum number of usernames and IPs tracked.
+     */
+    public LoginRateLimiter(int usernameBurst, int usernamePerMinute, int ipBurst, int ipPerMinute, long maxKeys) {
+        this.usernameBurst = usernameBurst;
+        this.usernameTokensPerNano = usernamePerMinute / (double) TimeUnit.MINUTES.toNanos(1);
+        this.ipBurst = ipBurst;
+        this.ipTokensPerNano = ipPerMinute / (double) TimeUnit.MINUTES.toNanos(1);
+        long slowestRefillMinutes = (long) Math.ceil(Math.max(
+                usernameBurst / (double) Math.max(1, usernamePerMinute),
+                ipBurst / (double) Math.max(1, ipPerMinute)));
+        this.buckets = Caffeine.newBuilder()
+                .maximumSize(maxKeys)
+                .expireAfterAccess(Duration.ofMinutes(Math.max(1, slowestRefillMinutes)))
+                .build();
+    }
+
+    /**
+     * Take a token for a login attempt.
+     *
+     * @param username the username being logged into.
+     * @param clientIp the address the attempt came from.
+     * @return true if the attempt may go ahead.
+     */
+    public boolean tryAcquire(String username, String clientIp) {
+        // The username bucket is the address's own, so a flood from one
+        // address only ever locks out that address.
+        return take("ip:" + clientIp, ipBurst, ipTokensPerNano)
+                && take("user:" + clientIp + "/" + username, usernameBurst, usernameTokensPerNano);
+    }
+
+    private boolean take(String key, int burst, double tokensPerNano) {
+        long now = System.nanoTime();
+        Bucket bucket = buckets.asMap().compute(key, (k, current) -> {
+            double tokens = current == null ? burst
+                    : Math.min(burst, current.tokens + (now - current.refilledAt) * tokensPerNano);
+            return tokens >= 1 ? new Bucket(tokens - 1, now, true) : new Bucket(tokens, now, false);
+        });
+        return bucket.allowed;
+    }
+
+    /**
+     * Thrown when a login attempt is refused by the rate limiter.
+     */
+    public static class RateLimitedException extends RuntimeException {
+        public RateLimitedException() {
+            super("Too many login attempts");
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+import Model.Message;
+import Util.JacksonJsonMapper;
+
+/**
+ * A bounded read-through cache of messages keyed by message_id.
+ *
+ * Eviction is size based (Caffeine's W-TinyLFU) with a time-to-live as a
+ * safety net. Absent messages are not cached, so a message created later is
+ * never hidden by an earlier miss.
+ *
+ * Writers must call invalidate() after their change is committed. A loaded
+ * message is only inserted if no invalidation of its stripe happened since
+ * the load started, checked atomically with the insert. A load that read the
+ * old row therefore either inserts before the invalidation (and is removed by
+ * it) or is not inserted at all, so a stale message is never served once the
+ * write has returned.
+ *
+ * Loads run outside the cache rather than inside Caffeine's compute, which
+ * holds a ConcurrentHashMap bin lock. A virtual thread blocking on JDBC (or
+ * on the connection pool) inside that lock would pin its carrier thread.
+ *
+ * Every cached message also keeps its JSON, serialized the first time it is
+ * written to a response, so a warm message is written by copying bytes
+ * instead of running Jackson. The bytes live and die with the message's
+ * entry, so an update or delete drops them too.
+ */
+public class MessageCache {
+    private final Cache<Integer, Entry> cache;
+    private final JacksonJsonMapper jsonMapper = new JacksonJsonMapper();
+    private final LongAdder jsonHits = new LongAdder();
+    private final LongAdder jsonMisses = new LongAdder();
+
+    private static final class Entry {
+        final Message message;
+
+        /**
+         * The UTF-8 JSON of message, or null until first written. Racing
+         * writers serialize the same bytes, so either may win.
+         */
+        volatile byte[] json;
+
+        Entry(Message message) {
+            this.message = message;
+        }
+    }
+
+    /**
+     * Number of invalidation counters; a power of two.
+     */
+    private static final int STRIPES = 1024;
+
+    /**
+     * Bumped by every invalidation of a message in the stripe, so loads, which
+     * run outside the cache, can tell whether a write raced with them.
+     */
+    private final AtomicLongArray invalidations = new AtomicLongArray(STRIPES);
+
+    /**
+     * Bumped by every invalidation, for writers that cannot know the stripe
+     * of a message before the store gives it its message_id.
+     */
+    private final AtomicLong allInvalidations = new AtomicLong();
+
+    /**
+     * @param maximumSize maximum number of cached messages.
+     * @param ttl         how long a message may stay cached after it was loaded.
+     */
+    public MessageCache(long maximumSize, Duration ttl) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Return the cached message, loading it on a miss.
+     *
+     * @param message_id a message ID.
+     * @param loader     loads the message from the database, returning null if
+     *                   it does not exist.
+     * @return the message, or null if it does not exist.
+     */
+    public Message get(int message_id, IntFunction<Message> loader) {
+        Entry entry = cache.getIfPresent(message_id);
+        if (entry != null) {
+            return entry.message;
+        }
+        long before = invalidations.get(stripe(message_id));
+        Message message = loader.apply(message_id);
+        if (message != null) {
+            putIfUnchanged(message, before);
+        }
+        return message;
+    }
+
+    /**
+     * Return several messages, loading every miss with a single call to the
+     * loader.
+     *
+     * @param message_ids message IDs.
+     * @param loader      loads the given messages from the database, leaving out
+     *                    the ones that do not exist.
+     * @return the messages that exist, in the order of message_ids.
+     */
+    public List<Message> getAll(int[] message_ids, Function<List<Integer>, List<Message>> loader) {
+        Map<Integer, Message> found = new HashMap<>();
+        List<Integer> missing = new ArrayList<>();
+        for (int message_id : message_ids) {
+            Entry entry = cache.getIfPresent(message_id);
+            if (entry != null) {
+                found.put(message_id, entry.message);
+            } else {
+                missing.add(message_id);
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            Map<Integer, Long> before = new HashMap<>();
+            for (int message_id : missing) {
+                before.put(message_id, invalidations.get(stripe(message_id)));
+            }
+            List<Message> loaded = loader.apply(missing);
+            for (Message message : loaded) {
+                found.put(message.getMessage_id(), message);
+                Long stamp = before.get(message.getMessage_id());
+                if (stamp != null) {
+                    putIfUnchanged(message, stamp);
+                }
+            }
+        }
+
+        List<Message> messages = new ArrayList<>(message_ids.length);
+        for (int message_id : message_ids) {
+            Message message = found.get(message_id);
+            if (message != null) {
+                messages.add(message);
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * @return a stamp to read before writing a message and to hand to put()
+     *         afterwards.
+     */
+    public long stamp() {
+        return allInvalidations.get();
+    }
+
+    /**
+     * Cache a message that was just written, e.g. a newly created one. If any
+     * message was invalidated since the stamp was read, the message may have
+     * been updated or deleted between the write and this put, so it is not
+     * cached and is left to the next read to load.
+     *
+     * @param message the message as written.
+     * @param stamp   what stamp() returned before the write.
+     */
+    public void put(Message message, long stamp) {
+        Entry entry = new Entry(message);
+        cache.asMap().compute(message.getMessage_id(),
+                (message_id, current) -> allInvalidations.get() == stamp ? entry : current);
+    }
+
+    /**
+     * Insert a loaded message unless its stripe was invalidated since the load
+     * started. The check runs inside compute(), which holds the entry's lock,
+     * so an invalidate() either bumps the counter first and the insert is
+     * skipped, or waits for the insert and then removes it.
+     */
+    private void putIfUnchanged(Message message, long before) {
+        int stripe = stripe(message.getMessage_id());
+        Entry entry = new Entry(message);
+        cache.asMap().compute(message.getMessage_id(),
+                (message_id, current) -> invalidations.get(stripe) == before ? entry : current);
+    }
+
+    /**
+     * Write a message as JSON, copying the cached bytes when the cache holds
+     * the same message and serializing it otherwise. Does not count as a
+     * cache hit or miss, nor load anything.
+     *
+     * @param message a message, e.g. one returned by get() or read from the
+     *                database.
+     * @param out     where to write.
+     * @throws IOException if writing fails.
+     */
+    public void writeJson(Message message, OutputStream out) throws IOException {
+        Entry entry = cache.policy().getIfPresentQuietly(message.getMessage_id());
+        // A message read before a concurrent update may no longer match the entry.
+        if (entry == null || (entry.message != message && !entry.message.equals(message))) {
+            jsonMisses.increment();
+            // Bytes rather than jsonMapper.write(), which flushes out after every message.
+            out.write(jsonMapper.writeBytes(message));
+            return;
+        }
+        byte[] json = entry.json;
+        if (json == null) {
+            jsonMisses.increment();
+            json = jsonMapper.writeBytes(entry.message);
+            entry.json = json;
+        } else {
+            jsonHits.increment();
+        }
+        out.write(json);
+    }
+
+    /**
+     * Drop a message after it was updated or deleted.
+     */
+    public void invalidate(int message_id) {
+        invalidations.incrementAndGet(stripe(message_id));
+        allInvalidations.incrementAndGet();
+        cache.invalidate(message_id);
+    }
+
+    private static int stripe(int message_id) {
+        return message_id & (STRIPES - 1);
+    }
+
+    /**
+     * @return the hit, miss and eviction counters together with the current size,
+     *         and how often writeJson() copied cached bytes.
+     */
+    public Map<String, Object> stats() {
+        CacheStats stats = cache.stats();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("size", cache.estimatedSize());
+        result.put("hits", stats.hitCount());
+        result.put("misses", stats.missCount());
+        result.put("hitRate", stats.hitRate());
+        result.put("evictions", stats.evictionCount());
+        result.put("jsonHits", jsonHits.sum());
+        result.put("jsonMisses", jsonMisses.sum());
+        return result;
+    }
+}
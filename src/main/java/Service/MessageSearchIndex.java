@@ -0,0 +1,330 @@
+package Service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import DAO.MessageStore;
+import Model.Message;
+
+/**
+ * In-memory inverted index over message_text for GET /messages/search.
+ *
+ * Text is split into lowercase runs of letters and digits. Every term maps to
+ * the ascending message IDs that contain it. A query matches messages holding
+ * any of its terms. Each matched term adds its inverse document frequency to
+ * a message's score, so rare terms and messages matching more of the query
+ * rank first, and ties go to the newest message.
+ *
+ * The index is built from the database on the first search. Writers call
+ * put() and remove() after their change is committed. Both are ignored until
+ * the index is built, because the build reads every committed message anyway.
+ * The build holds the write lock for its whole scan, so a change committed
+ * during the scan is applied right after it.
+ */
+public class MessageSearchIndex {
+
+    /**
+     * Terms are cut to this many characters.
+     */
+    static final int MAX_TERM_LENGTH = 64;
+
+    /**
+     * Reads every committed message into the index.
+     */
+    public interface Source {
+        /**
+         * @return false if reading the messages failed part way through.
+         */
+        boolean forEachMessage(MessageStore.MessageHandler handler) throws IOException;
+    }
+
+    /**
+     * Ascending message IDs containing one term.
+     */
+    static final class Postings {
+        int[] ids = new int[4];
+        int size;
+
+        void add(int message_id) {
+            if (size > 0 && ids[size - 1] >= message_id) {
+                int index = Arrays.binarySearch(ids, 0, size, message_id);
+                if (index >= 0) {
+                    return;
+                }
+                insert(-index - 1, message_id);
+            } else {
+                insert(size, message_id);
+            }
+        }
+
+        private void insert(int index, int message_id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            System.arraycopy(ids, index, ids, index + 1, size - index);
+            ids[index] = message_id;
+            size++;
+        }
+
+        void remove(int message_id) {
+            int index = Arrays.binarySearch(ids, 0, size, message_id);
+            if (index >= 0) {
+                System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+                size--;
+            }
+        }
+    }
+
+    /**
+     * A ranked search result.
+     */
+    private static final class Hit {
+        final int message_id;
+        final double score;
+
+        Hit(int message_id, double score) {
+            this.message_id = message_id;
+            this.score = score;
+        }
+    }
+
+    private final Source source;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Integer> termIds = new HashMap<>();
+    private final List<Postings> postings = new ArrayList<>();
+
+    /**
+     * The term IDs of every indexed message, to unindex it on update or delete.
+     */
+    private final Map<Integer, int[]> documents = new HashMap<>();
+    private volatile boolean built;
+
+    /**
+     * @param source reads every message when the index is first built.
+     */
+    public MessageSearchIndex(Source source) {
+        this.source = source;
+    }
+
+    /**
+     * Find the messages matching a query, best match first.
+     *
+     * @param query  free text.
+     * @param offset number of results to skip.
+     * @param limit  maximum number of results to return.
+     * @return message IDs in rank order, or null if the index could not be
+     *         built.
+     */
+    public int[] search(String query, int offset, int limit) {
+        Set<String> terms = new LinkedHashSet<>(tokenize(query));
+        if (!ensureBuilt()) {
+            return null;
+        }
+        lock.readLock().lock();
+        try {
+            List<Postings> matched = new ArrayList<>(terms.size());
+            double[] weights = new double[terms.size()];
+            double maxScore = 0;
+            for (String term : terms) {
+                Integer termId = termIds.get(term);
+                if (termId != null && postings.get(termId).size > 0) {
+                    Postings termPostings = postings.get(termId);
+                    double weight = Math.log(1 + documents.size() / (double) termPostings.size);
+                    weights[matched.size()] = weight;
+                    matched.add(termPostings);
+                    maxScore += weight;
+                }
+            }
+            return rank(matched, weights, maxScore, offset, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Merge the postings from the newest message down, keeping the best
+     * offset + limit hits. Every later message is older, so once all of
+     * those hits match every term the rest cannot rank higher.
+     */
+    private int[] rank(List<Postings> matched, double[] weights, double maxScore, int offset, int limit) {
+        int wanted = offset + limit;
+        if (matched.isEmpty() || limit <= 0) {
+            return new int[0];
+        }
+        PriorityQueue<Hit> best = new PriorityQueue<>(wanted,
+                (a, b) -> a.score != b.score ? Double.compare(a.score, b.score)
+                        : Integer.compare(a.message_id, b.message_id));
+        int[] cursors = new int[matched.size()];
+        for (int i = 0; i < cursors.length; i++) {
+            cursors[i] = matched.get(i).size - 1;
+        }
+
+        while (true) {
+            int message_id = -1;
+            for (int i = 0; i < cursors.length; i++) {
+                if (cursors[i] >= 0) {
+                    message_id = Math.max(message_id, matched.get(i).ids[cursors[i]]);
+                }
+            }
+            if (message_id < 0) {
+                break;
+            }
+            double score = 0;
+            for (int i = 0; i < cursors.length; i++) {
+                if (cursors[i] >= 0 && matched.get(i).ids[cursors[i]] == message_id) {
+                    score += weights[i];
+                    cursors[i]--;
+                }
+            }
+            if (best.size() < wanted) {
+                best.add(new Hit(message_id, score));
+            } else if (score > best.peek().score) {
+                best.poll();
+                best.add(new Hit(message_id, score));
+            }
+            if (best.size() == wanted && best.peek().score >= maxScore) {
+                break;
+            }
+        }
+
+        // The queue drains worst first.
+        int[] ordered = new int[best.size()];
+        for (int i = ordered.length - 1; i >= 0; i--) {
+            ordered[i] = best.poll().message_id;
+        }
+        return offset >= ordered.length ? new int[0] : Arrays.copyOfRange(ordered, offset, ordered.length);
+    }
+
+    /**
+     * Index a new message, or reindex an updated one.
+     *
+     * @param message a committed message.
+     */
+    public void put(Message message) {
+        List<String> terms = tokenize(message.getMessage_text());
+        lock.writeLock().lock();
+        try {
+            if (!built) {
+                return;
+            }
+            index(message.getMessage_id(), terms);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Drop a deleted message from the index.
+     *
+     * @param message_id a message ID.
+     */
+    public void remove(int message_id) {
+        lock.writeLock().lock();
+        try {
+            if (!built) {
+                return;
+            }
+            unindex(message_id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return number of indexed messages and distinct terms.
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        lock.readLock().lock();
+        try {
+            result.put("built", built);
+            result.put("messages", documents.size());
+            result.put("terms", termIds.size());
+        } finally {
+            lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    private boolean ensureBuilt() {
+        if (built) {
+            return true;
+        }
+        lock.writeLock().lock();
+        try {
+            if (!built) {
+                documents.clear();
+                termIds.clear();
+                postings.clear();
+                built = source.forEachMessage(message -> index(message.getMessage_id(),
+                        tokenize(message.getMessage_text())));
+            }
+            return built;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void index(int message_id, List<String> terms) {
+        unindex(message_id);
+        int[] ids = new int[terms.size()];
+        int count = 0;
+        for (String term : terms) {
+            Integer termId = termIds.get(term);
+            if (termId == null) {
+                termId = postings.size();
+                termIds.put(term, termId);
+                postings.add(new Postings());
+            }
+            Postings termPostings = postings.get(termId);
+            int before = termPostings.size;
+            termPostings.add(message_id);
+            if (termPostings.size != before) {
+                ids[count++] = termId;
+            }
+        }
+        documents.put(message_id, Arrays.copyOf(ids, count));
+    }
+
+    private void unindex(int message_id) {
+        int[] ids = documents.remove(message_id);
+        if (ids != null) {
+            for (int termId : ids) {
+                postings.get(termId).remove(message_id);
+            }
+        }
+    }
+
+    /**
+     * Split text into lowercase runs of letters and digits.
+     */
+    static List<String> tokenize(String text) {
+        List<String> terms = new ArrayList<>();
+        if (text == null) {
+            return terms;
+        }
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                terms.add(text.substring(start, Math.min(i, start + MAX_TERM_LENGTH)).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return terms;
+    }
+}
@@ -1,54 +1,303 @@
 package Service;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
-import DAO.MessageDAO;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import DAO.FollowStore;
+import DAO.LogStore;
+import DAO.MessageStore;
+import DAO.Stores;
 import Model.Message;
+import Model.MessageBatchResult;
 
 public class MessageService {
-    private MessageDAO messageDAO;
+    private MessageStore messageStore;
+    private FollowStore followStore;
+    private MessageCache messageCache;
+    private TimelineCache timelineCache;
+    private MessageSearchIndex searchIndex;
+    private FeedFanout feedFanout;
+    private MessageVersions versions = new MessageVersions();
+
+    /**
+     * Write-behind queue for new messages, or null when messages are written
+     * synchronously.
+     */
+    private MessageWriteBehind writeBehind;
+
+    /**
+     * With write-behind, whether createMessage waits for the group commit
+     * that saves the message before returning.
+     */
+    private boolean durable;
+
+    /**
+     * How long a durable createMessage waits for its group commit.
+     */
+    private long durableTimeoutMillis;
 
     /**
-     * No-args contructor for a messageSevice instantiates a plain messageDAO.
+     * Accounts known to exist, so write-behind can validate posted_by without
+     * a query per message. Accounts are never deleted, so this cannot go stale.
+     */
+    private Cache<Integer, Boolean> knownAccounts;
+
+    /**
+     * No-args contructor for a messageSevice uses the stores selected by the
+     * store.backend system property.
      */
     public MessageService() {
-        messageDAO = new MessageDAO();
+        this(Stores.messageStore(), Stores.followStore());
     }
 
     /**
-     * Constructor for a messageService when a messageDAO is provided.
+     * Constructor for a messageService when a messageStore is provided.
+     * The message cache is sized by the cache.message.maxSize and
+     * cache.message.ttlSeconds system properties, and the timeline cache by
+     * cache.timeline.depth (IDs per account) and cache.timeline.maxIds (IDs in
+     * total).
+     * 
+     * Setting ingest.writeBehind=true switches message creation to the
+     * write-behind queue, tuned with ingest.queueCapacity, ingest.maxBatch,
+     * ingest.durable and ingest.durableTimeoutMs.
+     * 
+     * Home feeds keep feed.timeline.depth IDs per account, feed.cache.maxIds
+     * in total, for feed.cache.ttlSeconds. Authors with more than
+     * feed.fanout.maxFollowers followers are merged on read instead of
+     * fanned out on write.
      * 
-     * @param messageDAO a messageDAO.
+     * @param messageStore a messageStore.
+     * @param followStore  a followStore.
      */
-    public MessageService(MessageDAO messageDAO) {
-        this.messageDAO = messageDAO;
+    public MessageService(MessageStore messageStore, FollowStore followStore) {
+        this.messageStore = messageStore;
+        this.followStore = followStore;
+        this.messageCache = new MessageCache(Long.getLong("cache.message.maxSize", 100000),
+                Duration.ofSeconds(Long.getLong("cache.message.ttlSeconds", 300)));
+        this.timelineCache = new TimelineCache(Integer.getInteger("cache.timeline.depth", 200),
+                Long.getLong("cache.timeline.maxIds", 1000000));
+        this.searchIndex = new MessageSearchIndex(handler -> messageStore.forEachMessage(null, handler));
+        this.feedFanout = new FeedFanout(new FeedSource(),
+                Integer.getInteger("feed.timeline.depth", 500),
+                Long.getLong("feed.cache.maxIds", 10000000),
+                Integer.getInteger("feed.fanout.maxFollowers", 10000),
+                Duration.ofSeconds(Long.getLong("feed.cache.ttlSeconds", 600)));
+        if (Boolean.getBoolean("ingest.writeBehind")) {
+            this.durable = Boolean.parseBoolean(System.getProperty("ingest.durable", "true"));
+            this.durableTimeoutMillis = Long.getLong("ingest.durableTimeoutMs", 10000);
+            this.knownAccounts = Caffeine.newBuilder().maximumSize(100000).build();
+            this.writeBehind = new MessageWriteBehind(messageStore,
+                    Integer.getInteger("ingest.queueCapacity", 10000),
+                    Integer.getInteger("ingest.maxBatch", 1000),
+                    message -> {
+                        timelineCache.added(message.getPosted_by(), message.getMessage_id());
+                        searchIndex.put(message);
+                        feedFanout.published(message.getPosted_by(), message.getMessage_id());
+                        versions.changed(message.getMessage_id(), message.getPosted_by());
+                    },
+                    message -> {
+                        messageCache.invalidate(message.getMessage_id());
+                        // It may have been read, with an ETag, while queued.
+                        versions.changed(message.getMessage_id(), message.getPosted_by());
+                    });
+        }
     }
 
     /**
-     * Use the messageDAO to retrieve all messages.
+     * Use the messageStore to retrieve all messages.
      *
      * @return all Messages in database.
      */
     public List<Message> getAllMessages() {
-        return messageDAO.getAllMessages();
+        return messageStore.getAllMessages();
     }
 
+    /**
+     * Retrieve all messages posted by an account. Accounts whose whole
+     * timeline fits in the timeline cache are served from memory; the rest go
+     * to the messageStore.
+     *
+     * @param account_id an account ID.
+     * @return all Messages posted by the account.
+     */
     public List<Message> getAllMessagesFromUser(int account_id) {
-        return messageDAO.getAllMessagesFromUser(account_id);
+        int[] ids = timelineCache.getAll(account_id,
+                limit -> messageStore.getRecentMessageIdsFromUser(account_id, limit));
+        if (ids != null) {
+            return messageCache.getAll(ids, messageStore::getMessagesGivenMessageIds);
+        }
+        return messageStore.getAllMessagesFromUser(account_id);
+    }
+
+    /**
+     * Use the messageStore to retrieve one keyset page of messages.
+     *
+     * @param account_id an account ID to restrict the page to, or null for all
+     *                   messages.
+     * @param after_id   only return messages with a greater message_id, or null.
+     * @param before_id  only return messages with a smaller message_id, or null.
+     * @param limit      maximum number of messages to return.
+     * @return the page of Messages in ascending message_id order.
+     */
+    public List<Message> getMessagesPage(Integer account_id, Integer after_id, Integer before_id, int limit) {
+        if (account_id != null) {
+            int[] ids = timelineCache.getPage(account_id, after_id, before_id, limit,
+                    recent -> messageStore.getRecentMessageIdsFromUser(account_id, recent));
+            if (ids != null) {
+                return messageCache.getAll(ids, messageStore::getMessagesGivenMessageIds);
+            }
+        }
+        return messageStore.getMessagesPage(account_id, after_id, before_id, limit);
     }
 
     /**
-     * Use messageDAO to create and add a message.
+     * Use the messageStore to visit every message without loading them all.
+     *
+     * @param account_id an account ID to restrict the messages to, or null for
+     *                   all messages.
+     * @param handler    called once per message in message_id order.
+     * @return false if reading the messages failed part way through.
+     * @throws IOException if the handler fails.
+     */
+    public boolean forEachMessage(Integer account_id, MessageStore.MessageHandler handler) throws IOException {
+        return messageStore.forEachMessage(account_id, handler);
+    }
+
+    /**
+     * Use messageStore to create and add a message.
+     * 
+     * With write-behind on, the message is validated, given its message_id
+     * and queued; it is returned once committed, or right away when
+     * ingest.durable is false.
      *
      * @param message an message object.
      * @return Message if created succesfully.
+     * @throws MessageWriteBehind.QueueFullException    if the write-behind queue
+     *                                                  is full.
+     * @throws MessageWriteBehind.CommitTimeoutException if the message was queued
+     *                                                  but not saved within
+     *                                                  ingest.durableTimeoutMs.
      */
     public Message createMessage(Message message) {
-        return messageDAO.createMessage(message);
+        if (writeBehind != null) {
+            return enqueueMessage(message);
+        }
+        long stamp = messageCache.stamp();
+        Message createdMessage = messageStore.createMessage(message);
+        if (createdMessage != null) {
+            messageCache.put(createdMessage, stamp);
+            timelineCache.added(createdMessage.getPosted_by(), createdMessage.getMessage_id());
+            searchIndex.put(createdMessage);
+            feedFanout.published(createdMessage.getPosted_by(), createdMessage.getMessage_id());
+            versions.changed(createdMessage.getMessage_id(), createdMessage.getPosted_by());
+        }
+        return createdMessage;
+    }
+
+    private Message enqueueMessage(Message message) {
+        if (message.getMessage_text() == null || message.getMessage_text().isEmpty()
+                || message.getMessage_text().length() > 255 || !accountExists(message.getPosted_by())) {
+            return null;
+        }
+        Message queued = new Message(writeBehind.nextMessageId(), message.getPosted_by(),
+                message.getMessage_text(), message.getTime_posted_epoch());
+        // The message_id was only just allocated, so no write can have raced with this put.
+        messageCache.put(queued, messageCache.stamp());
+        CompletableFuture<Message> committed;
+        try {
+            committed = writeBehind.enqueue(queued);
+        } catch (MessageWriteBehind.QueueFullException e) {
+            messageCache.invalidate(queued.getMessage_id());
+            throw e;
+        }
+        if (durable) {
+            try {
+                committed.get(durableTimeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (ExecutionException e) {
+                return null;
+            } catch (TimeoutException e) {
+                throw new MessageWriteBehind.CommitTimeoutException();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new MessageWriteBehind.CommitTimeoutException();
+            }
+        }
+        return queued;
+    }
+
+    private boolean accountExists(int account_id) {
+        return knownAccounts.get(account_id, id -> messageStore.accountExists(id) ? Boolean.TRUE : null) != null;
     }
 
     /**
-     * Use messageDAO to update the message text of an existing message.
+     * Use messageStore to create many messages in one transaction. Each message
+     * is validated with the same rules as createMessage, and invalid ones are
+     * reported individually instead of failing the whole batch.
+     *
+     * @param messages messages to create.
+     * @return one result per message, in request order, holding either the
+     *         created message or the reason it was rejected.
+     */
+    public List<MessageBatchResult> createMessages(List<Message> messages) {
+        List<MessageBatchResult> results = new ArrayList<>(messages.size());
+        List<Message> valid = new ArrayList<>(messages.size());
+        List<Integer> validIndexes = new ArrayList<>(messages.size());
+
+        for (int i = 0; i < messages.size(); i++) {
+            Message message = messages.get(i);
+            String error = null;
+            if (message == null || message.getMessage_text() == null || message.getMessage_text().isEmpty()) {
+                error = "message_text must not be blank";
+            } else if (message.getMessage_text().length() > 255) {
+                error = "message_text must not be longer than 255 characters";
+            } else {
+                valid.add(message);
+                validIndexes.add(i);
+            }
+            results.add(new MessageBatchResult(i, null, error));
+        }
+
+        if (!valid.isEmpty()) {
+            // A message_id sent by the client is ignored, as it is by createMessage. With write-behind on, IDs must
+            // come from the same allocator as queued messages.
+            for (int i = 0; i < valid.size(); i++) {
+                Message message = valid.get(i);
+                valid.set(i, new Message(writeBehind != null ? writeBehind.nextMessageId() : 0,
+                        message.getPosted_by(), message.getMessage_text(), message.getTime_posted_epoch()));
+            }
+            long stamp = messageCache.stamp();
+            List<Message> created = messageStore.createMessages(valid);
+            for (int i = 0; i < valid.size(); i++) {
+                MessageBatchResult result = results.get(validIndexes.get(i));
+                Message createdMessage = created == null ? null : created.get(i);
+                if (createdMessage == null) {
+                    result.setError(created == null ? "message could not be saved" : "posted_by does not exist");
+                } else {
+                    result.setMessage(createdMessage);
+                    messageCache.put(createdMessage, stamp);
+                    timelineCache.added(createdMessage.getPosted_by(), createdMessage.getMessage_id());
+                    searchIndex.put(createdMessage);
+                    feedFanout.published(createdMessage.getPosted_by(), createdMessage.getMessage_id());
+                    versions.changed(createdMessage.getMessage_id(), createdMessage.getPosted_by());
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Use messageStore to update the message text of an existing message.
      * 
      * @param message a message.
      * @return Message if update was successful.
@@ -57,35 +306,264 @@ public class MessageService {
         if (message.getMessage_text().length() > 255 || message.getMessage_text().isEmpty()) {
             return null;
         } else {
-            return messageDAO.updateMessageGivenMessageId(message.getMessage_text(), message.getMessage_id());
+            if (writeBehind != null) {
+                writeBehind.awaitWritten(message.getMessage_id());
+            }
+            Message updatedMessage = messageStore.updateMessageGivenMessageId(message.getMessage_text(),
+                    message.getMessage_id());
+            messageCache.invalidate(message.getMessage_id());
+            if (updatedMessage != null) {
+                searchIndex.put(updatedMessage);
+                versions.changed(updatedMessage.getMessage_id(), updatedMessage.getPosted_by());
+            }
+            return updatedMessage;
         }
     }
 
     /**
-     * Use messageDAO to get a message with given message_id.
+     * Get a message with given message_id from the message cache, falling
+     * back to the messageStore on a miss.
      * 
      * @param message_id a message ID.
      * @return Message if getting message was successful.
      */
     public Message getMessagegivenMessageId(int message_id) {
-
-        List<Message> messages = messageDAO.getAllMessages();
-        for (Message m : messages) {
-            if (m.getMessage_id() == message_id) {
-                return messageDAO.getOneMessageGivenMessageId(message_id);
+        if (writeBehind != null) {
+            Message queued = writeBehind.getPending(message_id);
+            if (queued != null) {
+                return queued;
             }
         }
-        return null;
+        return messageCache.get(message_id, messageStore::getOneMessageGivenMessageId);
+    }
+
+    /**
+     * Write a message as JSON, copying the bytes the message cache keeps for
+     * it when the cache holds the same message.
+     *
+     * @param message a message returned by this service.
+     * @param out     where to write, e.g. the response output stream.
+     * @throws IOException if writing fails.
+     */
+    public void writeMessageJson(Message message, OutputStream out) throws IOException {
+        messageCache.writeJson(message, out);
+    }
+
+    /**
+     * Versions change whenever a write through this service changes what the
+     * matching read returns, and are read without touching the messageStore.
+     * Read the version before the messages it describes.
+     *
+     * @param message_id a message ID.
+     * @return the version of the message.
+     */
+    public String getMessageVersion(int message_id) {
+        return versions.message(message_id);
     }
 
     /**
-     * Use messageDAO to delete a message with given message_id.
+     * @param account_id an account ID.
+     * @return the version of the messages posted by the account.
+     * @see #getMessageVersion(int)
+     */
+    public String getAccountMessagesVersion(int account_id) {
+        return versions.account(account_id);
+    }
+
+    /**
+     * @return the version of all messages.
+     * @see #getMessageVersion(int)
+     */
+    public String getAllMessagesVersion() {
+        return versions.all();
+    }
+
+    /**
+     * Use messageStore to delete a message with given message_id and drop it
+     * from the caches. The delete returns the deleted row in the same
+     * statement, so of several concurrent deletes only one gets the message.
      * 
      * @param message_id a message ID.
+     * @return the deleted Message, or null if it did not exist.
+     */
+    public Message deleteMessagegivenMessageId(int message_id) {
+        if (writeBehind != null) {
+            writeBehind.awaitWritten(message_id);
+        }
+        Message message = messageStore.deleteOneMessageGivenMessageId(message_id);
+        if (message != null) {
+            messageCache.invalidate(message_id);
+            timelineCache.removed(message.getPosted_by(), message_id);
+            searchIndex.remove(message_id);
+            feedFanout.removed(message.getPosted_by(), message_id);
+            versions.changed(message_id, message.getPosted_by());
+        }
+        return message;
+    }
+
+    /**
+     * Make one account follow another, so its messages show up in the
+     * follower's home feed.
+     *
+     * @param follower_id the account that follows.
+     * @param followee_id the account to follow.
+     * @return true if the account now follows the other, false if they are the
+     *         same account or either does not exist.
+     */
+    public boolean follow(int follower_id, int followee_id) {
+        if (follower_id == followee_id || !followStore.follow(follower_id, followee_id)) {
+            return false;
+        }
+        feedFanout.followsChanged(follower_id, followee_id);
+        return true;
+    }
+
+    /**
+     * Stop one account following another.
+     *
+     * @param follower_id the account that follows.
+     * @param followee_id the account to unfollow.
+     * @return true if the account was following the other.
+     */
+    public boolean unfollow(int follower_id, int followee_id) {
+        if (!followStore.unfollow(follower_id, followee_id)) {
+            return false;
+        }
+        feedFanout.followsChanged(follower_id, followee_id);
+        return true;
+    }
+
+    /**
+     * Retrieve one page of an account's home feed: its own messages and those
+     * of the accounts it follows, newest first.
+     *
+     * @param account_id an account ID.
+     * @param before_id  only return messages with a smaller message_id, or null.
+     * @param limit      maximum number of messages to return.
+     * @return the page of Messages, newest first, or null if the feed could not
+     *         be read.
+     */
+    public List<Message> getFeed(int account_id, Integer before_id, int limit) {
+        int[] ids = feedFanout.getPage(account_id, before_id, limit);
+        if (ids == null) {
+            return null;
+        }
+        return messageCache.getAll(ids, messageStore::getMessagesGivenMessageIds);
+    }
+
+    /**
+     * Reads home feeds from the followStore, and the recent messages of authors
+     * with many followers from the timeline cache where it can.
+     */
+    private class FeedSource implements FeedFanout.Source {
+        @Override
+        public int[] feedIds(int account_id, Integer before_id, int limit) {
+            return followStore.getFeedMessageIds(account_id, before_id, limit);
+        }
+
+        @Override
+        public int followerCount(int account_id) {
+            return followStore.getFollowerCount(account_id);
+        }
+
+        @Override
+        public int[] followers(int account_id) {
+            return followStore.getFollowers(account_id);
+        }
+
+        @Override
+        public int[] largeFollowees(int account_id, int minFollowers) {
+            return followStore.getFolloweesWithFollowersOver(account_id, minFollowers);
+        }
+
+        @Override
+        public int[] recentIds(int author_id, Integer before_id, int limit) {
+            int[] ascending = timelineCache.getPage(author_id, null, before_id, limit,
+                    recent -> messageStore.getRecentMessageIdsFromUser(author_id, recent));
+            if (ascending == null) {
+                List<Message> page = messageStore.getMessagesPage(author_id, null, before_id, limit);
+                ascending = new int[page.size()];
+                for (int i = 0; i < ascending.length; i++) {
+                    ascending[i] = page.get(i).getMessage_id();
+                }
+            }
+            int[] newestFirst = new int[ascending.length];
+            for (int i = 0; i < ascending.length; i++) {
+                newestFirst[i] = ascending[ascending.length - 1 - i];
+            }
+            return newestFirst;
+        }
+    }
+
+    /**
+     * Search message texts with the in-memory search index, which is built
+     * from the messageStore on the first search.
+     *
+     * @param query  free text; messages matching more and rarer words rank
+     *               first, then newer messages.
+     * @param offset number of results to skip.
+     * @param limit  maximum number of results to return.
+     * @return the matching Messages in rank order, or null if the index could
+     *         not be built.
+     */
+    public List<Message> searchMessages(String query, int offset, int limit) {
+        int[] ids = searchIndex.search(query, offset, limit);
+        if (ids == null) {
+            return null;
+        }
+        return messageCache.getAll(ids, messageStore::getMessagesGivenMessageIds);
+    }
+
+    /**
+     * @return hit, miss and eviction counters of the message cache.
+     */
+    public Map<String, Object> getCacheStats() {
+        return messageCache.stats();
+    }
+
+    /**
+     * @return hit, miss and eviction counters of the timeline cache.
+     */
+    public Map<String, Object> getTimelineCacheStats() {
+        return timelineCache.stats();
+    }
+
+    /**
+     * @return cache sizes and page counts of the home feeds.
+     */
+    public Map<String, Object> getFeedStats() {
+        return feedFanout.stats();
+    }
+
+    /**
+     * @return size of the search index.
+     */
+    public Map<String, Object> getSearchIndexStats() {
+        return searchIndex.stats();
+    }
+
+    /**
+     * @return segment size and garbage of the log-structured store, or null
+     *         when messages are kept in H2.
+     */
+    public Map<String, Object> getStoreStats() {
+        return messageStore instanceof LogStore ? ((LogStore) messageStore).stats() : null;
+    }
+
+    /**
+     * @return queue depth and flush latency of the write-behind queue, or null
+     *         when write-behind is off.
+     */
+    public Map<String, Object> getIngestStats() {
+        return writeBehind == null ? null : writeBehind.stats();
+    }
+
+    /**
+     * Write out every queued message. Called when the server shuts down.
      */
-    public void deleteMessagegivenMessageId(int message_id) {
-        if (getMessagegivenMessageId(message_id) != null) {
-            messageDAO.deleteOneMessageGivenMessageId(message_id);
+    public void close() {
+        if (writeBehind != null) {
+            writeBehind.close();
         }
     }
 }
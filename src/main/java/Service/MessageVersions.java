@@ -0,0 +1,73 @@
+package Service;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Change counters for messages, from which the controller builds ETags
+ * without reading any message.
+ *
+ * One counter covers all messages, and striped counters cover each account's
+ * messages and each single message. Accounts or messages that share a stripe
+ * see each other's changes, which only costs a client a full response it did
+ * not need. Writers must call changed() after their change is committed and
+ * the caches are invalidated, so a version is never paired with older
+ * content.
+ *
+ * A delete changes the message's version like any other change, so a
+ * version handed out with a message never matches again once the message is
+ * gone, and a client still holding a matching one holds a message that
+ * exists.
+ *
+ * Counters live in memory, so every version starts with a token of this
+ * instance; versions handed out before a restart never match again.
+ */
+public class MessageVersions {
+
+    /**
+     * Number of counters per kind; a power of two.
+     */
+    private static final int STRIPES = 4096;
+
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+    private final AtomicLong all = new AtomicLong();
+    private final AtomicLongArray accounts = new AtomicLongArray(STRIPES);
+    private final AtomicLongArray messages = new AtomicLongArray(STRIPES);
+
+    /**
+     * Record that a message was created, updated or deleted.
+     *
+     * @param message_id the message's ID.
+     * @param posted_by  the account that posted it.
+     */
+    public void changed(int message_id, int posted_by) {
+        messages.incrementAndGet(stripe(message_id));
+        accounts.incrementAndGet(stripe(posted_by));
+        all.incrementAndGet();
+    }
+
+    /**
+     * @return the version of one message.
+     */
+    public String message(int message_id) {
+        return epoch + "-m" + message_id + "-" + messages.get(stripe(message_id));
+    }
+
+    /**
+     * @return the version of the messages posted by one account.
+     */
+    public String account(int account_id) {
+        return epoch + "-a" + account_id + "-" + accounts.get(stripe(account_id));
+    }
+
+    /**
+     * @return the version of all messages.
+     */
+    public String all() {
+        return epoch + "-" + all.get();
+    }
+
+    private static int stripe(int id) {
+        return id & (STRIPES - 1);
+    }
+}
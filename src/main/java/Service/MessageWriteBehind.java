@@ -0,0 +1,293 @@
+package Service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import DAO.MessageStore;
+import Model.Message;
+
+/**
+ * Write-behind ingestion for new messages.
+ *
+ * Messages are given their message_id up front and put on a bounded queue. A single writer thread drains the queue and
+ * saves everything it finds in one transaction, so many messages share one
+ * commit. When the queue is full, enqueue() fails right away instead of
+ * blocking, which the controller reports as 429 Too Many Requests.
+ *
+ * IDs are reserved from the store in blocks of ID_BLOCK, e.g. from the
+ * database sequence that plain inserts also take their message_id from, so
+ * pre-allocated IDs never collide with IDs the store hands out itself. IDs
+ * left in a block when the process stops are never used.
+ */
+public class MessageWriteBehind {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MessageWriteBehind.class);
+
+    /**
+     * Number of message_ids reserved from the store at a time.
+     */
+    private static final int ID_BLOCK = 100;
+
+    /**
+     * A queued message and the future completed when it has been committed.
+     */
+    private static final class Pending {
+        final Message message;
+        final CompletableFuture<Message> committed = new CompletableFuture<>();
+
+        Pending(Message message) {
+            this.message = message;
+        }
+    }
+
+    private final MessageStore messageStore;
+    private final BlockingQueue<Pending> queue;
+    private final Map<Integer, Pending> pending = new ConcurrentHashMap<>();
+    private final int maxBatch;
+    private final Consumer<Message> onCommitted;
+    private final Consumer<Message> onFailed;
+    private final ReentrantLock idLock = new ReentrantLock();
+    private int[] ids = new int[0];
+    private int nextId;
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong flushedMessages = new AtomicLong();
+    private final AtomicLong failedMessages = new AtomicLong();
+    private final AtomicLong rejectedMessages = new AtomicLong();
+    private final AtomicLong totalFlushNanos = new AtomicLong();
+    private final AtomicLong maxFlushNanos = new AtomicLong();
+
+    /**
+     * Start the writer thread.
+     *
+     * @param messageStore where messages are saved.
+     * @param capacity     maximum number of queued messages.
+     * @param maxBatch     maximum number of messages saved per transaction.
+     * @param onCommitted  called on the writer thread for every saved message.
+     * @param onFailed     called on the writer thread for every message that
+     *                     could not be saved.
+     */
+    public MessageWriteBehind(MessageStore messageStore, int capacity, int maxBatch, Consumer<Message> onCommitted,
+            Consumer<Message> onFailed) {
+        this.messageStore = messageStore;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.maxBatch = maxBatch;
+        this.onCommitted = onCommitted;
+        this.onFailed = onFailed;
+        this.writer = new Thread(this::run, "message-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * @return a fresh message_id that no other insert will use.
+     * @throws IllegalStateException if the store could not reserve more IDs.
+     */
+    public int nextMessageId() {
+        idLock.lock();
+        try {
+            if (nextId == ids.length) {
+                int[] reserved = messageStore.reserveMessageIds(ID_BLOCK);
+                if (reserved == null) {
+                    throw new IllegalStateException("Could not reserve message IDs");
+                }
+                ids = reserved;
+                nextId = 0;
+            }
+            return ids[nextId++];
+        } finally {
+            idLock.unlock();
+        }
+    }
+
+    /**
+     * Queue a message that already carries its message_id.
+     *
+     * @param message a validated message.
+     * @return a future completed with the message once it is committed.
+     * @throws QueueFullException if the queue is full or the writer is stopping.
+     */
+    public CompletableFuture<Message> enqueue(Message message) {
+        Pending item = new Pending(message);
+        pending.put(message.getMessage_id(), item);
+        if (!running || !queue.offer(item)) {
+            pending.remove(message.getMessage_id());
+            rejectedMessages.incrementAndGet();
+            throw new QueueFullException();
+        }
+        return item.committed;
+    }
+
+    /**
+     * @return the queued message with this ID if it has not been committed yet,
+     *         otherwise null.
+     */
+    public Message getPending(int message_id) {
+        Pending item = pending.get(message_id);
+        return item == null ? null : item.message;
+    }
+
+    /**
+     * Block until a queued message has been written, so it can be safely
+     * updated or deleted. Returns immediately if it is not queued.
+     */
+    public void awaitWritten(int message_id) {
+        Pending item = pending.get(message_id);
+        if (item != null) {
+            item.committed.handle((message, error) -> null).join();
+        }
+    }
+
+    /**
+     * Stop accepting messages and write everything still queued.
+     */
+    public void close() {
+        running = false;
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (writer.isAlive()) {
+            LOGGER.warn("Message writer did not drain within 30s; " + queue.size() + " messages not written");
+            return;
+        }
+        // Pick up anything that was queued while the writer was exiting.
+        List<Pending> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        if (!rest.isEmpty()) {
+            flush(rest);
+        }
+    }
+
+    /**
+     * @return queue depth, flush counts and flush latency.
+     */
+    public Map<String, Object> stats() {
+        long count = flushes.get();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("queueDepth", queue.size());
+        result.put("queueCapacity", queue.size() + queue.remainingCapacity());
+        result.put("flushes", count);
+        result.put("flushedMessages", flushedMessages.get());
+        result.put("failedMessages", failedMessages.get());
+        result.put("rejectedMessages", rejectedMessages.get());
+        result.put("avgFlushMillis", count == 0 ? 0.0 : totalFlushNanos.get() / 1e6 / count);
+        result.put("maxFlushMillis", maxFlushNanos.get() / 1e6);
+        return result;
+    }
+
+    private void run() {
+        List<Pending> batch = new ArrayList<>(maxBatch);
+        while (running || !queue.isEmpty()) {
+            try {
+                Pending first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, maxBatch - 1);
+                flush(batch);
+            } catch (InterruptedException e) {
+                // Only close() stops the writer, after the queue is drained.
+            } catch (RuntimeException e) {
+                LOGGER.error("Message writer failed", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Save a batch and complete every item's future. Whatever happens, no
+     * future is left incomplete, since durable callers are waiting on them.
+     */
+    private void flush(List<Pending> batch) {
+        try {
+            List<Message> messages = new ArrayList<>(batch.size());
+            for (Pending item : batch) {
+                messages.add(item.message);
+            }
+
+            long start = System.nanoTime();
+            List<Message> created = messageStore.createMessages(messages);
+            long elapsed = System.nanoTime() - start;
+            flushes.incrementAndGet();
+            totalFlushNanos.addAndGet(elapsed);
+            maxFlushNanos.accumulateAndGet(elapsed, Math::max);
+
+            for (int i = 0; i < batch.size(); i++) {
+                Pending item = batch.get(i);
+                Message message = created == null ? null : created.get(i);
+                if (message != null) {
+                    flushedMessages.incrementAndGet();
+                    notify(onCommitted, message);
+                    pending.remove(message.getMessage_id());
+                    item.committed.complete(message);
+                } else {
+                    fail(item);
+                }
+            }
+        } finally {
+            for (Pending item : batch) {
+                if (!item.committed.isDone()) {
+                    fail(item);
+                }
+            }
+        }
+    }
+
+    private void fail(Pending item) {
+        failedMessages.incrementAndGet();
+        LOGGER.error("Dropped queued message " + item.message);
+        notify(onFailed, item.message);
+        pending.remove(item.message.getMessage_id());
+        item.committed.completeExceptionally(new IllegalStateException("Message could not be saved"));
+    }
+
+    /**
+     * Run a callback, so one that throws cannot leave the message's future
+     * incomplete or misreport whether it was saved.
+     */
+    private static void notify(Consumer<Message> callback, Message message) {
+        try {
+            callback.accept(message);
+        } catch (RuntimeException e) {
+            LOGGER.error("Callback failed for message " + message.getMessage_id(), e);
+        }
+    }
+
+    /**
+     * Thrown when a durable caller gave up waiting for its message to be
+     * committed. The message stays queued and may still be saved.
+     */
+    public static class CommitTimeoutException extends RuntimeException {
+        public CommitTimeoutException() {
+            super("Timed out waiting for the message to be saved");
+        }
+    }
+
+    /**
+     * Thrown when a message cannot be queued because the queue is full.
+     */
+    public static class QueueFullException extends RuntimeException {
+        public QueueFullException() {
+            super("Message queue is full");
+        }
+    }
+}
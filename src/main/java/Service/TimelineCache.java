@@ -0,0 +1,223 @@
+package Service;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntFunction;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+/**
+ * Caches, per account, the IDs of its most recent messages so profile views
+ * can be served without querying the message table.
+ *
+ * Each timeline holds at most depth IDs in ascending order, plus a flag
+ * telling whether that is every message the account has posted. Pages that
+ * fall inside the cached window are cut from memory; deeper pages return null
+ * so the caller can go to the database.
+ *
+ * The cache is bounded by the total number of IDs held, and cold accounts are
+ * evicted first. Writers keep cached timelines up to date with added() and
+ * removed() after their change is committed. Loads run outside the cache, so
+ * a virtual thread waiting on JDBC never pins its carrier inside Caffeine's
+ * compute. Instead every write bumps a counter for the account, and a load
+ * that raced with a write throws its result away rather than cache it.
+ */
+public class TimelineCache {
+
+    /**
+     * The cached window of one account's timeline.
+     */
+    static final class Timeline {
+        /**
+         * Message IDs in ascending order.
+         */
+        final int[] ids;
+        /**
+         * True if ids holds every message the account has posted.
+         */
+        final boolean complete;
+
+        Timeline(int[] ids, boolean complete) {
+            this.ids = ids;
+            this.complete = complete;
+        }
+    }
+
+    /**
+     * Number of write counters; a power of two.
+     */
+    private static final int STRIPES = 1024;
+
+    private final Cache<Integer, Timeline> cache;
+    private final int depth;
+
+    /**
+     * Bumped by every write to an account in the stripe.
+     */
+    private final AtomicLongArray writes = new AtomicLongArray(STRIPES);
+
+    /**
+     * @param depth  how many recent message IDs to keep per account.
+     * @param maxIds memory cap, as the total number of IDs across all accounts.
+     */
+    public TimelineCache(int depth, long maxIds) {
+        this.depth = depth;
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxIds)
+                .weigher((Integer account_id, Timeline timeline) -> timeline.ids.length + 1)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Return the IDs of every message posted by an account, if they all fit in
+     * the cached window.
+     *
+     * @param account_id an account ID.
+     * @param loader     returns up to the given number of the account's most
+     *                   recent message IDs, newest first, or null on failure.
+     * @return message IDs in ascending order, or null if the account has more
+     *         messages than the cache holds.
+     */
+    public int[] getAll(int account_id, IntFunction<int[]> loader) {
+        Timeline timeline = get(account_id, loader);
+        return timeline != null && timeline.complete ? timeline.ids : null;
+    }
+
+    /**
+     * Cut one keyset page out of an account's cached timeline, with the same
+     * semantics as MessageDAO.getMessagesPage.
+     *
+     * @return message IDs in ascending order, or null if the page reaches
+     *         past the cached window.
+     */
+    public int[] getPage(int account_id, Integer after_id, Integer before_id, int limit,
+            IntFunction<int[]> loader) {
+        Timeline timeline = get(account_id, loader);
+        if (timeline == null) {
+            return null;
+        }
+        int[] ids = timeline.ids;
+        int end = before_id == null ? ids.length : firstAtLeast(ids, before_id);
+
+        if (after_id != null) {
+            // Every ID greater than after_id must be inside the window.
+            if (!timeline.complete && (ids.length == 0 || after_id < ids[0])) {
+                return null;
+            }
+            int start = firstGreaterThan(ids, after_id);
+            return Arrays.copyOfRange(ids, start, Math.max(start, Math.min(end, start + limit)));
+        }
+        if (before_id != null) {
+            if (end >= limit) {
+                return Arrays.copyOfRange(ids, end - limit, end);
+            }
+            return timeline.complete ? Arrays.copyOfRange(ids, 0, end) : null;
+        }
+        // The oldest messages are only known when the whole timeline is cached.
+        return timeline.complete ? Arrays.copyOfRange(ids, 0, Math.min(limit, ids.length)) : null;
+    }
+
+    /**
+     * Record a newly created message in its author's cached timeline.
+     */
+    public void added(int account_id, int message_id) {
+        writes.incrementAndGet(stripe(account_id));
+        cache.asMap().computeIfPresent(account_id, (id, timeline) -> {
+            int[] ids = timeline.ids;
+            int index = Arrays.binarySearch(ids, message_id);
+            if (index >= 0) {
+                return timeline;
+            }
+            int insertAt = -index - 1;
+            int[] updated = new int[ids.length + 1];
+            System.arraycopy(ids, 0, updated, 0, insertAt);
+            updated[insertAt] = message_id;
+            System.arraycopy(ids, insertAt, updated, insertAt + 1, ids.length - insertAt);
+            if (updated.length > depth) {
+                return new Timeline(Arrays.copyOfRange(updated, updated.length - depth, updated.length), false);
+            }
+            return new Timeline(updated, timeline.complete);
+        });
+    }
+
+    /**
+     * Remove a deleted message from its author's cached timeline.
+     */
+    public void removed(int account_id, int message_id) {
+        writes.incrementAndGet(stripe(account_id));
+        cache.asMap().computeIfPresent(account_id, (id, timeline) -> {
+            int[] ids = timeline.ids;
+            int index = Arrays.binarySearch(ids, message_id);
+            if (index < 0) {
+                return timeline;
+            }
+            int[] updated = new int[ids.length - 1];
+            System.arraycopy(ids, 0, updated, 0, index);
+            System.arraycopy(ids, index + 1, updated, index, ids.length - index - 1);
+            return new Timeline(updated, timeline.complete);
+        });
+    }
+
+    /**
+     * @return hit, miss and eviction counters together with the current size.
+     */
+    public Map<String, Object> stats() {
+        CacheStats stats = cache.stats();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("accounts", cache.estimatedSize());
+        result.put("hits", stats.hitCount());
+        result.put("misses", stats.missCount());
+        result.put("hitRate", stats.hitRate());
+        result.put("evictions", stats.evictionCount());
+        return result;
+    }
+
+    private Timeline get(int account_id, IntFunction<int[]> loader) {
+        Timeline timeline = cache.getIfPresent(account_id);
+        if (timeline != null) {
+            return timeline;
+        }
+        long before = writes.get(stripe(account_id));
+        // Load one extra ID to learn whether the window is the whole timeline.
+        int[] newestFirst = loader.apply(depth + 1);
+        if (newestFirst == null) {
+            return null;
+        }
+        int size = Math.min(newestFirst.length, depth);
+        int[] ids = new int[size];
+        for (int i = 0; i < size; i++) {
+            ids[i] = newestFirst[size - 1 - i];
+        }
+        timeline = new Timeline(ids, newestFirst.length <= depth);
+
+        Timeline cached = cache.asMap().putIfAbsent(account_id, timeline);
+        if (cached != null) {
+            return cached;
+        }
+        // A write bumps the counter before it updates the cache, so either it
+        // saw the timeline put above or the counter has moved.
+        if (writes.get(stripe(account_id)) != before) {
+            cache.asMap().remove(account_id, timeline);
+        }
+        return timeline;
+    }
+
+    private static int stripe(int account_id) {
+        return account_id & (STRIPES - 1);
+    }
+
+    private static int firstAtLeast(int[] ids, int value) {
+        int index = Arrays.binarySearch(ids, value);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    private static int firstGreaterThan(int[] ids, int value) {
+        int index = Arrays.binarySearch(ids, value);
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+}
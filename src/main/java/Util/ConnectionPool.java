@@ -0,0 +1,645 @@
+package Util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded pool of JDBC connections sitting in front of a plain DataSource.
+ *
+ * Callers borrow a connection with getConnection() and give it back by calling
+ * close() on it, so DAO methods should always use try-with-resources. The pool
+ * never holds more than maxSize physical connections. When all of them are
+ * borrowed, callers wait up to acquireTimeoutMs for one to come back before an
+ * SQLTransientConnectionException is thrown.
+ *
+ * A background housekeeper closes connections that have sat idle for longer
+ * than idleTimeoutMs (keeping at least minIdle open) and logs a warning, with
+ * the stack trace of the borrower, for every connection held longer than
+ * leakDetectionThresholdMs. Capturing that stack trace costs an allocation and
+ * a stack walk per borrow, so leak detection is meant for diagnosing a leak
+ * rather than for running all the time.
+ *
+ * Each physical connection keeps up to statementCacheSize prepared statements,
+ * keyed by their SQL text, so the DAOs' handful of statements are parsed and
+ * planned once per connection instead of once per call. Closing a cached
+ * statement puts it back in the cache instead of closing it.
+ *
+ * The pool only uses java.util.concurrent primitives and no synchronized
+ * blocks, so borrowing never pins a virtual thread to its carrier.
+ */
+public class ConnectionPool implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConnectionPool.class);
+
+    /**
+     * How often the housekeeper looks for idle connections and leaks.
+     */
+    private static final long HOUSEKEEPING_PERIOD_MS = 1000;
+
+    /**
+     * Seconds to wait for Connection.isValid() when validating on borrow.
+     */
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+    private final DataSource dataSource;
+    private final int maxSize;
+    private final int minIdle;
+    private final long acquireTimeoutMs;
+    private final long idleTimeoutMs;
+    private final long leakDetectionThresholdMs;
+    private final int statementCacheSize;
+
+    /**
+     * Idle connections, most recently returned first. Borrowing from the head
+     * keeps a few hot connections in use and lets the rest age out.
+     */
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private final Set<PooledConnection> borrowed = ConcurrentHashMap.newKeySet();
+    private final Semaphore permits;
+    private final AtomicInteger totalConnections = new AtomicInteger();
+    private final LongAdder borrows = new LongAdder();
+    private final LongAdder statements = new LongAdder();
+    private final LongAdder statementCacheHits = new LongAdder();
+    private final LongAdder statementCacheMisses = new LongAdder();
+    private final LongAdder statementCacheEvictions = new LongAdder();
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean closed;
+
+    /**
+     * Create a pool without a statement cache.
+     *
+     * @see #ConnectionPool(DataSource, int, int, long, long, long, int)
+     */
+    public ConnectionPool(DataSource dataSource, int maxSize, int minIdle, long acquireTimeoutMs,
+            long idleTimeoutMs, long leakDetectionThresholdMs) {
+        this(dataSource, maxSize, minIdle, acquireTimeoutMs, idleTimeoutMs, leakDetectionThresholdMs, 0);
+    }
+
+    /**
+     * @param dataSource               the unpooled source of physical connections.
+     * @param maxSize                  maximum number of physical connections.
+     * @param minIdle                  idle connections kept open by the housekeeper.
+     * @param acquireTimeoutMs         how long getConnection() waits when the pool is exhausted.
+     * @param idleTimeoutMs            how long a connection may sit idle before it is closed.
+     * @param leakDetectionThresholdMs how long a connection may be borrowed before a leak
+     *                                 warning is logged, or 0 to disable leak detection.
+     * @param statementCacheSize       prepared statements cached per connection, or 0 to
+     *                                 disable the statement cache.
+     */
+    public ConnectionPool(DataSource dataSource, int maxSize, int minIdle, long acquireTimeoutMs,
+            long idleTimeoutMs, long leakDetectionThresholdMs, int statementCacheSize) {
+        if (maxSize < 1 || minIdle < 0 || minIdle > maxSize) {
+            throw new IllegalArgumentException("Invalid pool size: maxSize=" + maxSize + ", minIdle=" + minIdle);
+        }
+        if (statementCacheSize < 0) {
+            throw new IllegalArgumentException("Invalid statement cache size: " + statementCacheSize);
+        }
+        this.statementCacheSize = statementCacheSize;
+        this.dataSource = dataSource;
+        this.maxSize = maxSize;
+        this.minIdle = minIdle;
+        this.acquireTimeoutMs = acquireTimeoutMs;
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.leakDetectionThresholdMs = leakDetectionThresholdMs;
+        this.permits = new Semaphore(maxSize, true);
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "connection-pool-housekeeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        housekeeper.scheduleWithFixedDelay(this::houseKeep, HOUSEKEEPING_PERIOD_MS, HOUSEKEEPING_PERIOD_MS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrow a connection from the pool, opening a new physical connection if
+     * none are idle and the pool is below maxSize.
+     *
+     * @return a connection that returns itself to the pool when closed.
+     * @throws SQLException if no connection became available within the acquire
+     *                      timeout or a new connection could not be opened.
+     */
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+        try {
+            if (!permits.tryAcquire(acquireTimeoutMs, TimeUnit.MILLISECONDS)) {
+                throw new SQLTransientConnectionException("Timed out after " + acquireTimeoutMs
+                        + "ms waiting for a connection (" + describe() + ")");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLTransientConnectionException("Interrupted while waiting for a connection", e);
+        }
+
+        try {
+            PooledConnection pooled = takeIdle();
+            if (pooled == null) {
+                pooled = new PooledConnection(dataSource.getConnection());
+                totalConnections.incrementAndGet();
+            }
+            pooled.borrowedAt = System.currentTimeMillis();
+            pooled.borrowSite = leakDetectionThresholdMs > 0 ? new Throwable("Connection borrowed here") : null;
+            pooled.leakReported = false;
+            borrowed.add(pooled);
+            borrows.increment();
+            return pooled.lease();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * @return number of connections currently borrowed.
+     */
+    public int getActiveCount() {
+        return borrowed.size();
+    }
+
+    /**
+     * @return number of open connections waiting in the pool.
+     */
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * @return number of physical connections currently open.
+     */
+    public int getTotalCount() {
+        return totalConnections.get();
+    }
+
+    /**
+     * @return approximate number of callers blocked waiting for a connection.
+     */
+    public int getWaitingCount() {
+        return permits.getQueueLength();
+    }
+
+    /**
+     * @return number of times a connection has been borrowed.
+     */
+    public long getBorrowCount() {
+        return borrows.sum();
+    }
+
+    /**
+     * @return number of statements created on borrowed connections. DAO
+     *         methods execute each statement they prepare once, so this counts
+     *         database round trips.
+     */
+    public long getStatementCount() {
+        return statements.sum();
+    }
+
+    /**
+     * @return hits, misses and evictions of the per-connection statement caches.
+     */
+    public Map<String, Object> statementCacheStats() {
+        long hits = statementCacheHits.sum();
+        long misses = statementCacheMisses.sum();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("maxSizePerConnection", statementCacheSize);
+        result.put("hits", hits);
+        result.put("misses", misses);
+        result.put("hitRate", hits + misses == 0 ? 1.0 : hits / (double) (hits + misses));
+        result.put("evictions", statementCacheEvictions.sum());
+        return result;
+    }
+
+    /**
+     * @return the maximum number of physical connections.
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Close every idle connection and stop the housekeeper. Borrowed
+     * connections are closed as they are returned.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        housekeeper.shutdownNow();
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            discard(pooled);
+        }
+    }
+
+    /**
+     * Take the most recently used idle connection that still passes validation.
+     */
+    private PooledConnection takeIdle() {
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            try {
+                if (pooled.raw.isValid(VALIDATION_TIMEOUT_SECONDS)) {
+                    return pooled;
+                }
+            } catch (SQLException e) {
+                LOGGER.debug("Connection failed validation", e);
+            }
+            discard(pooled);
+        }
+        return null;
+    }
+
+    /**
+     * Called when a borrower closes its lease. The connection is reset to
+     * auto-commit and put back at the head of the idle queue.
+     */
+    private void release(PooledConnection pooled) {
+        borrowed.remove(pooled);
+        try {
+            if (closed || pooled.raw.isClosed()) {
+                discard(pooled);
+                return;
+            }
+            if (!pooled.raw.getAutoCommit()) {
+                pooled.raw.rollback();
+                pooled.raw.setAutoCommit(true);
+            }
+            pooled.reclaimStatements();
+            pooled.lastReturnedAt = System.currentTimeMillis();
+            pooled.borrowSite = null;
+            idle.offerFirst(pooled);
+        } catch (SQLException e) {
+            LOGGER.warn("Discarding connection that could not be reset", e);
+            discard(pooled);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void discard(PooledConnection pooled) {
+        totalConnections.decrementAndGet();
+        try {
+            pooled.raw.close();
+        } catch (SQLException e) {
+            LOGGER.debug("Error closing connection", e);
+        }
+    }
+
+    private void houseKeep() {
+        long now = System.currentTimeMillis();
+
+        // Idle eviction walks from the tail, where the least recently used
+        // connections sit.
+        while (idle.size() > minIdle) {
+            PooledConnection oldest = idle.peekLast();
+            if (oldest == null || now - oldest.lastReturnedAt < idleTimeoutMs) {
+                break;
+            }
+            if (idle.removeLastOccurrence(oldest)) {
+                discard(oldest);
+            }
+        }
+
+        if (leakDetectionThresholdMs > 0) {
+            for (PooledConnection pooled : borrowed) {
+                Throwable site = pooled.borrowSite;
+                if (!pooled.leakReported && site != null && now - pooled.borrowedAt > leakDetectionThresholdMs) {
+                    pooled.leakReported = true;
+                    LOGGER.warn("Connection has been borrowed for " + (now - pooled.borrowedAt)
+                            + "ms and may have leaked (" + describe() + ")", site);
+                }
+            }
+        }
+    }
+
+    private String describe() {
+        return "active=" + getActiveCount() + ", idle=" + getIdleCount() + ", waiting=" + getWaitingCount()
+                + ", max=" + maxSize;
+    }
+
+    /**
+     * A physical connection together with the bookkeeping the pool needs.
+     */
+    private final class PooledConnection {
+        final Connection raw;
+        volatile long borrowedAt;
+        volatile long lastReturnedAt = System.currentTimeMillis();
+        volatile Throwable borrowSite;
+        volatile boolean leakReported;
+
+        /**
+         * Cached statements in access order, so the eldest is the least
+         * recently used. Only the current borrower touches it.
+         */
+        final LinkedHashMap<StatementKey, CachedStatement> statementCache = new LinkedHashMap<>(16, 0.75f, true);
+
+        PooledConnection(Connection raw) {
+            this.raw = raw;
+        }
+
+        /**
+         * Return a cached statement for the SQL, preparing and caching it on a
+         * miss. If the cached one is already open in this borrow, e.g. in a
+         * nested call, an uncached statement is prepared instead.
+         */
+        PreparedStatement prepareCached(Connection lease, Lease owner, String sql, int autoGeneratedKeys)
+                throws SQLException {
+            StatementKey key = new StatementKey(sql, autoGeneratedKeys);
+            CachedStatement cached = statementCache.get(key);
+            if (cached != null && cached.inUse) {
+                statementCacheMisses.increment();
+                return raw.prepareStatement(sql, autoGeneratedKeys);
+            }
+            if (cached != null) {
+                statementCacheHits.increment();
+            } else {
+                statementCacheMisses.increment();
+                PreparedStatement prepared = raw.prepareStatement(sql, autoGeneratedKeys);
+                try {
+                    cached = new CachedStatement(prepared);
+                } catch (SQLException e) {
+                    prepared.close();
+                    throw e;
+                }
+                statementCache.put(key, cached);
+                evictStatements();
+            }
+            cached.inUse = true;
+            return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                    new Class<?>[] { PreparedStatement.class }, new StatementHandle(cached, lease, owner));
+        }
+
+        /**
+         * Close least recently used statements that are not open until the
+         * cache is back within its size.
+         */
+        private void evictStatements() {
+            Iterator<CachedStatement> eldest = statementCache.values().iterator();
+            while (statementCache.size() > statementCacheSize && eldest.hasNext()) {
+                CachedStatement cached = eldest.next();
+                if (!cached.inUse) {
+                    eldest.remove();
+                    statementCacheEvictions.increment();
+                    try {
+                        cached.raw.close();
+                    } catch (SQLException e) {
+                        LOGGER.debug("Error closing statement", e);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Called when the connection is returned. Statements the borrower did
+         * not close are reset so the next borrower can use them; their old
+         * handles stop working along with the lease.
+         */
+        void reclaimStatements() {
+            Iterator<CachedStatement> iterator = statementCache.values().iterator();
+            while (iterator.hasNext()) {
+                CachedStatement cached = iterator.next();
+                if (cached.inUse) {
+                    try {
+                        cached.reset();
+                    } catch (SQLException e) {
+                        iterator.remove();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Wrap the physical connection in a proxy that is only good for one
+         * borrow. Closing it returns the connection to the pool, and any later
+         * use of the same proxy fails instead of touching someone else's lease.
+         */
+        Connection lease() {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[] { Connection.class }, new Lease(this));
+        }
+    }
+
+    private final class Lease implements InvocationHandler {
+        private final PooledConnection pooled;
+        private final AtomicInteger state = new AtomicInteger();
+
+        Lease(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (state.compareAndSet(0, 1)) {
+                        release(pooled);
+                    }
+                    return null;
+                case "isClosed":
+                    return state.get() != 0 || pooled.raw.isClosed();
+                case "unwrap":
+                    if (((Class<?>) args[0]).isInstance(proxy)) {
+                        return proxy;
+                    }
+                    break;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "PooledConnection[" + pooled.raw + "]";
+                case "prepareStatement":
+                    if (state.get() == 0 && statementCacheSize > 0 && isCacheable(args)) {
+                        statements.increment();
+                        int autoGeneratedKeys = args.length == 2 ? (Integer) args[1] : Statement.NO_GENERATED_KEYS;
+                        return pooled.prepareCached((Connection) proxy, this, (String) args[0], autoGeneratedKeys);
+                    }
+                    statements.increment();
+                    break;
+                case "createStatement":
+                case "prepareCall":
+                    statements.increment();
+                    break;
+                default:
+                    break;
+            }
+            if (state.get() != 0) {
+                throw new SQLException("Connection has already been returned to the pool");
+            }
+            try {
+                return method.invoke(pooled.raw, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    /**
+     * Only prepareStatement(sql) and prepareStatement(sql, autoGeneratedKeys)
+     * are cached, which covers every DAO.
+     */
+    private static boolean isCacheable(Object[] args) {
+        return args.length == 1 || (args.length == 2 && args[1] instanceof Integer);
+    }
+
+    /**
+     * What a cached statement is looked up by. Unlike a concatenated string,
+     * building one does not copy the SQL, and its hash reuses the one String
+     * caches.
+     */
+    private static final class StatementKey {
+        final String sql;
+        final int autoGeneratedKeys;
+
+        StatementKey(String sql, int autoGeneratedKeys) {
+            this.sql = sql;
+            this.autoGeneratedKeys = autoGeneratedKeys;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof StatementKey)) {
+                return false;
+            }
+            StatementKey key = (StatementKey) other;
+            return autoGeneratedKeys == key.autoGeneratedKeys && sql.equals(key.sql);
+        }
+
+        @Override
+        public int hashCode() {
+            return sql.hashCode() * 31 + autoGeneratedKeys;
+        }
+    }
+
+    /**
+     * A prepared statement kept open on its connection between borrows,
+     * together with the settings it was prepared with, so that one borrower's
+     * fetch size, row limit, timeout or fetch direction does not carry over
+     * to the next.
+     */
+    private static final class CachedStatement {
+        final PreparedStatement raw;
+        private final int fetchSize;
+        private final long maxRows;
+        private final int queryTimeout;
+        private final int fetchDirection;
+        private final int maxFieldSize;
+        boolean inUse;
+
+        /**
+         * Set when a borrower changes one of the settings above.
+         */
+        boolean settingsChanged;
+
+        CachedStatement(PreparedStatement raw) throws SQLException {
+            this.raw = raw;
+            this.fetchSize = raw.getFetchSize();
+            this.maxRows = raw.getLargeMaxRows();
+            this.queryTimeout = raw.getQueryTimeout();
+            this.fetchDirection = raw.getFetchDirection();
+            this.maxFieldSize = raw.getMaxFieldSize();
+        }
+
+        /**
+         * Make the statement ready for its next user.
+         */
+        void reset() throws SQLException {
+            inUse = false;
+            raw.clearParameters();
+            raw.clearBatch();
+            if (settingsChanged) {
+                settingsChanged = false;
+                // The row limit first: H2 refuses a fetch size above it.
+                raw.setLargeMaxRows(maxRows);
+                raw.setFetchSize(fetchSize);
+                raw.setQueryTimeout(queryTimeout);
+                raw.setFetchDirection(fetchDirection);
+                raw.setMaxFieldSize(maxFieldSize);
+            }
+        }
+    }
+
+    /**
+     * What a borrower gets for a cached statement. Closing it resets the
+     * statement and puts it back in the cache. Like the lease, it stops
+     * working once closed or once the connection has been returned.
+     */
+    private final class StatementHandle implements InvocationHandler {
+        private final CachedStatement cached;
+        private final Connection lease;
+        private final Lease owner;
+        private boolean closed;
+
+        StatementHandle(CachedStatement cached, Connection lease, Lease owner) {
+            this.cached = cached;
+            this.lease = lease;
+            this.owner = owner;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!closed) {
+                        closed = true;
+                        if (owner.state.get() == 0) {
+                            cached.reset();
+                        }
+                    }
+                    return null;
+                case "isClosed":
+                    return closed || owner.state.get() != 0 || cached.raw.isClosed();
+                case "getConnection":
+                    return lease;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "CachedStatement[" + cached.raw + "]";
+                case "setFetchSize":
+                case "setMaxRows":
+                case "setLargeMaxRows":
+                case "setQueryTimeout":
+                case "setFetchDirection":
+                case "setMaxFieldSize":
+                    cached.settingsChanged = true;
+                    break;
+                default:
+                    break;
+            }
+            if (closed || owner.state.get() != 0) {
+                throw new SQLException("Statement has already been closed");
+            }
+            try {
+                return method.invoke(cached.raw, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
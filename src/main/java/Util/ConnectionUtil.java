@@ -1,6 +1,6 @@
 package Util;
 
-import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.FileReader;
 import java.sql.Connection;
 import java.sql.SQLException;
@@ -8,20 +8,26 @@ import java.sql.SQLException;
 import org.h2.jdbcx.JdbcDataSource;
 import org.h2.tools.RunScript;
 
+import DAO.Stores;
+
 /**
  * The ConnectionUtil class will be utilized to create an active connection to
  * our database. This class utilizes the singleton design pattern. We will be
  * utilizing an in-memory called h2database for the sql demos.
  *
- * DO NOT CHANGE ANYTHING IN THIS CLASS
+ * Connections are handed out by a bounded ConnectionPool, so every caller must
+ * close the connection it borrows (ideally with try-with-resources) to return
+ * it to the pool. Pool settings can be tuned with the db.pool.* system
+ * properties.
  */
 public class ConnectionUtil {
 
 	/**
 	 * url will represent our connection string. Since this is an in-memory db, we
-	 * will represent a file location to store the data
+	 * will represent a file location to store the data. It can be overridden with
+	 * the db.url system property, e.g. to point benchmarks at a separate database.
 	 */
-	private static String url = "jdbc:h2:./h2/db;";
+	private static String url = System.getProperty("db.url", "jdbc:h2:./h2/db;");
 	/**
 	 * Default username for connecting to h2
 	 */
@@ -32,42 +38,66 @@ public class ConnectionUtil {
 	private static String password = "sa";
 
 	/**
-	 * DataSource for pooling. Pooling enables the creation of multiple connections when connections are closed.
+	 * Unpooled DataSource the pool opens its physical connections from.
+	 */
+	private static JdbcDataSource dataSource = new JdbcDataSource();
+
+	/**
+	 * Bounded pool every DAO borrows its connections from.
 	 */
-	private static JdbcDataSource pool = new JdbcDataSource();
+	private static ConnectionPool pool;
 
 	/**
-	 * static initialization block to establish credentials for DataSoure Pool
+	 * static initialization block to establish credentials for DataSoure Pool.
+	 * Leak detection records a stack trace on every borrow, so it is off unless
+	 * db.pool.leakDetectionThresholdMs is set while hunting a leak.
 	 */
 	static {
-		pool.setURL(url);
-		pool.setUser(username);
-		pool.setPassword(password);
+		dataSource.setURL(url);
+		dataSource.setUser(username);
+		dataSource.setPassword(password);
+		pool = new ConnectionPool(dataSource,
+				Integer.getInteger("db.pool.maxSize", 10),
+				Integer.getInteger("db.pool.minIdle", 2),
+				Long.getLong("db.pool.acquireTimeoutMs", 5000),
+				Long.getLong("db.pool.idleTimeoutMs", 600000),
+				Long.getLong("db.pool.leakDetectionThresholdMs", 0),
+				Integer.getInteger("db.pool.statementCacheSize", 64));
 	}
 
 	/**
-	 * @return an active connection to the database
+	 * @return an active connection to the database, which must be closed to
+	 *         return it to the pool.
+	 * @throws SQLException if the pool is exhausted for longer than the acquire
+	 *                      timeout or a new connection cannot be opened.
 	 */
-	public static Connection getConnection() {
-		try {
-			return pool.getConnection();
-		} catch (SQLException e) {
-			e.printStackTrace();
-		}
+	public static Connection getConnection() throws SQLException {
+		return pool.getConnection();
+	}
 
-		return null;
+	/**
+	 * @return the pool behind getConnection(), for monitoring.
+	 */
+	public static ConnectionPool getPool() {
+		return pool;
 	}
 
 	/**
 	 * For the purpose of testing, we will need to drop and recreate our database
 	 * tables to keep it consistent across all tests. The method will read the sql
-	 * file in resources. This will be performed before every test.
+	 * file in resources. This will be performed before every test. With
+	 * store.backend=log the LogStore then starts over from the new tables.
 	 */
 	public static void resetTestDatabase() {
+		try (Connection connection = getConnection();
+				FileReader sqlReader = new FileReader("src/main/resources/SocialMedia.sql")) {
+			RunScript.execute(connection, sqlReader);
+		} catch (SQLException | IOException e) {
+			e.printStackTrace();
+		}
 		try {
-			FileReader sqlReader = new FileReader("src/main/resources/SocialMedia.sql");
-			RunScript.execute(getConnection(), sqlReader);
-		} catch (SQLException | FileNotFoundException e) {
+			Stores.reset();
+		} catch (IOException e) {
 			e.printStackTrace();
 		}
 	}
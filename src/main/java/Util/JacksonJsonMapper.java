@@ -0,0 +1,138 @@
+package Util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Type;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import Model.Account;
+import Model.Message;
+import io.javalin.json.JsonMapper;
+
+/**
+ * The single JSON layer of the application. It is registered as Javalin's
+ * JsonMapper and is also used directly by the controller.
+ *
+ * Building an ObjectMapper is expensive, and so is looking up the serializer
+ * for a type on every call. This class keeps one pre-configured ObjectMapper
+ * for the whole JVM and caches an ObjectReader and ObjectWriter per type, so
+ * a request only pays for the actual reading and writing. Responses can be
+ * written straight to an OutputStream instead of going through a String.
+ */
+public class JacksonJsonMapper implements JsonMapper {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    private static final ConcurrentHashMap<Type, ObjectReader> READERS = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<Class<?>, ObjectWriter> WRITERS = new ConcurrentHashMap<>();
+
+    static {
+        // Warm the caches for the types every request uses.
+        reader(Account.class);
+        reader(Message.class);
+        writer(Account.class);
+        writer(Message.class);
+    }
+
+    /**
+     * Read a JSON document into an object.
+     *
+     * @param in   the JSON input, e.g. ctx.bodyInputStream().
+     * @param type the type to read.
+     * @return the deserialized object.
+     * @throws IOException if the input is not valid JSON for the type.
+     */
+    public <T> T read(InputStream in, Class<T> type) throws IOException {
+        return reader(type).readValue(in);
+    }
+
+    /**
+     * Write an object as JSON straight to an output stream. The stream is
+     * flushed but not closed.
+     *
+     * @param out   where to write, e.g. ctx.outputStream().
+     * @param value the object to write.
+     * @throws IOException if writing fails.
+     */
+    public void write(OutputStream out, Object value) throws IOException {
+        writer(value.getClass()).writeValue(out, value);
+    }
+
+    /**
+     * Serialize an object to UTF-8 JSON bytes.
+     *
+     * @param value the object to write.
+     * @return the JSON bytes.
+     * @throws IOException if serialization fails.
+     */
+    public byte[] writeBytes(Object value) throws IOException {
+        return writer(value.getClass()).writeValueAsBytes(value);
+    }
+
+    /**
+     * Create a generator for streaming JSON token by token.
+     *
+     * @param out where to write.
+     * @return a generator that does not close out when it is closed.
+     * @throws IOException if the generator cannot be created.
+     */
+    public JsonGenerator createGenerator(OutputStream out) throws IOException {
+        return MAPPER.getFactory().createGenerator(out);
+    }
+
+    @Override
+    public String toJsonString(Object obj, Type type) {
+        if (obj instanceof String) {
+            return (String) obj;
+        }
+        try {
+            return writer(obj.getClass()).writeValueAsString(obj);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public InputStream toJsonStream(Object obj, Type type) {
+        try {
+            return new ByteArrayInputStream(writeBytes(obj));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public <T> T fromJsonString(String json, Type targetType) {
+        try {
+            return reader(targetType).readValue(json);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public <T> T fromJsonStream(InputStream json, Type targetType) {
+        try {
+            return reader(targetType).readValue(json);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static ObjectReader reader(Type type) {
+        return READERS.computeIfAbsent(type, t -> MAPPER.readerFor(MAPPER.constructType(t)));
+    }
+
+    private static ObjectWriter writer(Class<?> type) {
+        return WRITERS.computeIfAbsent(type, MAPPER::writerFor);
+    }
+}
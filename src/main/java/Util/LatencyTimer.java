@@ -0,0 +1,95 @@
+package Util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Counts and times one kind of operation, such as a route or a DAO method,
+ * into an HDR histogram.
+ *
+ * record() is wait-free and does not allocate, so it can sit on every request
+ * path. Readers swap the recorder's active histogram out and fold it into a
+ * cumulative one, so quantiles cover everything recorded since startup.
+ */
+public class LatencyTimer {
+
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    private final Recorder recorder = new Recorder(SIGNIFICANT_DIGITS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    private final ReentrantLock snapshotLock = new ReentrantLock();
+    private final Histogram cumulative = new Histogram(SIGNIFICANT_DIGITS);
+    private Histogram interval;
+
+    /**
+     * Record one operation that took the given time.
+     */
+    public void record(long nanos) {
+        recorder.recordValue(Math.max(0, nanos));
+        count.increment();
+        totalNanos.add(nanos);
+    }
+
+    /**
+     * Record one operation that started at the given System.nanoTime().
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Count a failed operation. It should still be timed with record().
+     */
+    public void error() {
+        errors.increment();
+    }
+
+    /**
+     * @return number of operations recorded.
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return total time of all recorded operations, in seconds.
+     */
+    public double getTotalSeconds() {
+        return totalNanos.sum() / (double) TimeUnit.SECONDS.toNanos(1);
+    }
+
+    /**
+     * @return number of failed operations.
+     */
+    public long getErrorCount() {
+        return errors.sum();
+    }
+
+    /**
+     * @param quantiles quantiles between 0 and 1, e.g. 0.99.
+     * @return the latency at each quantile, in seconds, or 0 if nothing has
+     *         been recorded yet.
+     */
+    public double[] getQuantileSeconds(double... quantiles) {
+        double[] result = new double[quantiles.length];
+        snapshotLock.lock();
+        try {
+            interval = recorder.getIntervalHistogram(interval);
+            cumulative.add(interval);
+            for (int i = 0; i < quantiles.length; i++) {
+                result[i] = cumulative.getValueAtPercentile(quantiles[i] * 100)
+                        / (double) TimeUnit.SECONDS.toNanos(1);
+            }
+        } finally {
+            snapshotLock.unlock();
+        }
+        return result;
+    }
+}
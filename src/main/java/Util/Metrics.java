@@ -0,0 +1,147 @@
+package Util;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Process-wide registry of the application's metrics, rendered in the
+ * Prometheus text exposition format by GET /metrics.
+ *
+ * Routes and DAO methods get a LatencyTimer each, looked up once when the
+ * route is registered or the DAO class is loaded. Connection pool and JVM
+ * figures are read when the metrics are scraped.
+ */
+public class Metrics {
+
+    /**
+     * Content type of the Prometheus text format.
+     */
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final double[] QUANTILES = { 0.5, 0.99, 0.999 };
+
+    private static final Map<String, LatencyTimer> ROUTES = new ConcurrentSkipListMap<>();
+    private static final Map<String, LatencyTimer> DAO_METHODS = new ConcurrentSkipListMap<>();
+
+    /**
+     * @param route the method and path template, e.g. "GET /messages/{message_id}".
+     * @return the timer for requests to the route.
+     */
+    public static LatencyTimer route(String route) {
+        return ROUTES.computeIfAbsent(route, r -> new LatencyTimer());
+    }
+
+    /**
+     * @param method the DAO class and method, e.g. "MessageDAO.getAllMessages".
+     * @return the timer for calls to the method.
+     */
+    public static LatencyTimer dao(String method) {
+        return DAO_METHODS.computeIfAbsent(method, m -> new LatencyTimer());
+    }
+
+    /**
+     * @return every metric in the Prometheus text format.
+     */
+    public static String scrape() {
+        StringBuilder out = new StringBuilder(8192);
+        writeTimers(out, "http_server_requests", "HTTP requests by route", "route", ROUTES);
+        writeTimers(out, "dao_queries", "DAO calls by method", "method", DAO_METHODS);
+        writePool(out, ConnectionUtil.getPool());
+        writeJvm(out);
+        return out.toString();
+    }
+
+    private static void writeTimers(StringBuilder out, String name, String help, String label,
+            Map<String, LatencyTimer> timers) {
+        header(out, name + "_seconds", "summary", help + ", latency in seconds.");
+        for (Map.Entry<String, LatencyTimer> entry : timers.entrySet()) {
+            String labels = label + "=\"" + escape(entry.getKey()) + "\"";
+            LatencyTimer timer = entry.getValue();
+            double[] values = timer.getQuantileSeconds(QUANTILES);
+            for (int i = 0; i < QUANTILES.length; i++) {
+                sample(out, name + "_seconds", labels + ",quantile=\"" + QUANTILES[i] + "\"", values[i]);
+            }
+            sample(out, name + "_seconds_count", labels, timer.getCount());
+            sample(out, name + "_seconds_sum", labels, timer.getTotalSeconds());
+        }
+        header(out, name + "_errors_total", "counter", help + " that failed.");
+        for (Map.Entry<String, LatencyTimer> entry : timers.entrySet()) {
+            sample(out, name + "_errors_total", label + "=\"" + escape(entry.getKey()) + "\"",
+                    entry.getValue().getErrorCount());
+        }
+    }
+
+    private static void writePool(StringBuilder out, ConnectionPool pool) {
+        header(out, "db_pool_connections", "gauge", "Database connections by state.");
+        sample(out, "db_pool_connections", "state=\"active\"", pool.getActiveCount());
+        sample(out, "db_pool_connections", "state=\"idle\"", pool.getIdleCount());
+        sample(out, "db_pool_connections", "state=\"total\"", pool.getTotalCount());
+        sample(out, "db_pool_connections", "state=\"max\"", pool.getMaxSize());
+        header(out, "db_pool_waiting_threads", "gauge", "Threads waiting for a database connection.");
+        sample(out, "db_pool_waiting_threads", null, pool.getWaitingCount());
+        header(out, "db_pool_borrows_total", "counter", "Database connections borrowed.");
+        sample(out, "db_pool_borrows_total", null, pool.getBorrowCount());
+        header(out, "db_pool_statements_total", "counter", "Statements created on borrowed connections.");
+        sample(out, "db_pool_statements_total", null, pool.getStatementCount());
+
+        Map<String, Object> cache = pool.statementCacheStats();
+        header(out, "db_pool_statement_cache_total", "counter", "Prepared statement cache lookups by result.");
+        sample(out, "db_pool_statement_cache_total", "result=\"hit\"", ((Number) cache.get("hits")).doubleValue());
+        sample(out, "db_pool_statement_cache_total", "result=\"miss\"", ((Number) cache.get("misses")).doubleValue());
+        header(out, "db_pool_statement_cache_evictions_total", "counter", "Prepared statements evicted.");
+        sample(out, "db_pool_statement_cache_evictions_total", null, ((Number) cache.get("evictions")).doubleValue());
+    }
+
+    private static void writeJvm(StringBuilder out) {
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        MemoryUsage nonHeap = ManagementFactory.getMemoryMXBean().getNonHeapMemoryUsage();
+        header(out, "jvm_memory_used_bytes", "gauge", "Used JVM memory by area.");
+        sample(out, "jvm_memory_used_bytes", "area=\"heap\"", heap.getUsed());
+        sample(out, "jvm_memory_used_bytes", "area=\"nonheap\"", nonHeap.getUsed());
+        header(out, "jvm_memory_committed_bytes", "gauge", "Committed JVM memory by area.");
+        sample(out, "jvm_memory_committed_bytes", "area=\"heap\"", heap.getCommitted());
+        sample(out, "jvm_memory_committed_bytes", "area=\"nonheap\"", nonHeap.getCommitted());
+        header(out, "jvm_memory_max_bytes", "gauge", "Maximum JVM memory by area, or -1 if unbounded.");
+        sample(out, "jvm_memory_max_bytes", "area=\"heap\"", heap.getMax());
+        sample(out, "jvm_memory_max_bytes", "area=\"nonheap\"", nonHeap.getMax());
+
+        header(out, "jvm_gc_collections_total", "counter", "Garbage collections by collector.");
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            sample(out, "jvm_gc_collections_total", "gc=\"" + escape(gc.getName()) + "\"", gc.getCollectionCount());
+        }
+        header(out, "jvm_gc_collection_seconds_total", "counter", "Time spent in garbage collection by collector.");
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            sample(out, "jvm_gc_collection_seconds_total", "gc=\"" + escape(gc.getName()) + "\"",
+                    gc.getCollectionTime() / 1000.0);
+        }
+
+        header(out, "jvm_threads_live", "gauge", "Live JVM threads.");
+        sample(out, "jvm_threads_live", null, ManagementFactory.getThreadMXBean().getThreadCount());
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, double value) {
+        out.append(name);
+        if (labels != null) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ');
+        if (value == Math.rint(value) && !Double.isInfinite(value)) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+        out.append('\n');
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,113 @@
+package Util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.security.spec.KeySpec;
+import java.util.Base64;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * Salted, tunable-cost password hashing with PBKDF2-HMAC-SHA256.
+ *
+ * Hashes are stored as pbkdf2$iterations$salt$hash, with salt and hash in
+ * Base64, so the cost can be raised later without breaking existing rows:
+ * verify() reads the iteration count from the stored value, and
+ * needsRehash() tells the caller when a row should be upgraded.
+ *
+ * Rows written before passwords were hashed hold the plaintext password.
+ * They are still accepted, compared in constant time, and always need a
+ * rehash.
+ */
+public class PasswordHasher {
+
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final String PREFIX = "pbkdf2$";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /**
+     * Salt hashed against when the account does not exist, so a failed login
+     * takes the same time either way.
+     */
+    private static final byte[] DUMMY_SALT = new byte[SALT_BYTES];
+
+    private final int iterations;
+
+    /**
+     * @param iterations PBKDF2 iteration count for new hashes.
+     */
+    public PasswordHasher(int iterations) {
+        if (iterations < 1) {
+            throw new IllegalArgumentException("iterations must be positive: " + iterations);
+        }
+        this.iterations = iterations;
+    }
+
+    /**
+     * Hash a password with a fresh random salt.
+     *
+     * @param password the plaintext password.
+     * @return the encoded hash to store.
+     */
+    public String hash(String password) {
+        byte[] salt = new byte[SALT_BYTES];
+        RANDOM.nextBytes(salt);
+        Base64.Encoder encoder = Base64.getEncoder().withoutPadding();
+        return PREFIX + iterations + "$" + encoder.encodeToString(salt) + "$"
+                + encoder.encodeToString(pbkdf2(password, salt, iterations));
+    }
+
+    /**
+     * Check a password against a stored value.
+     *
+     * @param password the plaintext password given by the user.
+     * @param stored   the stored hash, a legacy plaintext password, or null if
+     *                 the account does not exist.
+     * @return true if the password matches.
+     */
+    public boolean verify(String password, String stored) {
+        if (stored == null) {
+            pbkdf2(password, DUMMY_SALT, iterations);
+            return false;
+        }
+        if (!stored.startsWith(PREFIX)) {
+            return MessageDigest.isEqual(password.getBytes(StandardCharsets.UTF_8),
+                    stored.getBytes(StandardCharsets.UTF_8));
+        }
+        String[] parts = stored.split("\\$");
+        if (parts.length != 4) {
+            return false;
+        }
+        try {
+            Base64.Decoder decoder = Base64.getDecoder();
+            byte[] expected = decoder.decode(parts[3]);
+            byte[] actual = pbkdf2(password, decoder.decode(parts[2]), Integer.parseInt(parts[1]));
+            return MessageDigest.isEqual(expected, actual);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param stored a stored value that just passed verify().
+     * @return true if it is plaintext or was hashed with a different cost.
+     */
+    public boolean needsRehash(String stored) {
+        return !stored.startsWith(PREFIX + iterations + "$");
+    }
+
+    private static byte[] pbkdf2(String password, byte[] salt, int iterations) {
+        KeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available", e);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package Util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.zip.GZIPOutputStream;
+
+import io.javalin.compression.CompressionStrategy;
+import io.javalin.compression.Gzip;
+
+/**
+ * How response bodies are compressed, shared by Javalin's own compression of
+ * streamed responses and by bodies the controller compresses ahead of time.
+ *
+ * Only gzip is offered. Javalin's brotli needs a native library per platform,
+ * and gzip at a low level gets most of the savings on JSON for little CPU.
+ */
+public class ResponseCompression {
+    private final boolean enabled;
+    private final int level;
+    private final int minBytes;
+
+    /**
+     * @param enabled  whether to compress at all.
+     * @param level    gzip level from 1 (fastest) to 9 (smallest).
+     * @param minBytes smallest body worth compressing.
+     */
+    public ResponseCompression(boolean enabled, int level, int minBytes) {
+        if (level < 1 || level > 9) {
+            throw new IllegalArgumentException("gzip level must be between 1 and 9, was " + level);
+        }
+        this.enabled = enabled;
+        this.level = level;
+        this.minBytes = minBytes;
+    }
+
+    /**
+     * Read the settings from system properties: http.compression is gzip (the
+     * default) or none, http.compression.level defaults to 6, and
+     * http.compression.minBytes to 1500. Below about one packet the gzip
+     * header and the CPU cost outweigh the bytes saved.
+     */
+    public static ResponseCompression fromSystemProperties() {
+        return new ResponseCompression(!"none".equals(System.getProperty("http.compression", "gzip")),
+                Integer.getInteger("http.compression.level", 6),
+                Integer.getInteger("http.compression.minBytes", 1500));
+    }
+
+    /**
+     * @return the strategy to give Javalin, which compresses a response
+     *         whose first write is at least minBytes.
+     */
+    public CompressionStrategy strategy() {
+        if (!enabled) {
+            return CompressionStrategy.NONE;
+        }
+        CompressionStrategy strategy = new CompressionStrategy(null, new Gzip(level));
+        strategy.setMinSizeForCompression(minBytes);
+        return strategy;
+    }
+
+    /**
+     * @param length         size of the body.
+     * @param acceptEncoding the request's Accept-Encoding header, or null.
+     * @return whether a body of this size should be sent gzipped to the
+     *         client.
+     */
+    public boolean shouldCompress(int length, String acceptEncoding) {
+        return enabled && length >= minBytes && acceptsGzip(acceptEncoding);
+    }
+
+    /**
+     * Read an Accept-Encoding header as a list of codings with optional
+     * q-values, e.g. "gzip;q=0, br". A coding with q=0 is refused, and gzip
+     * or x-gzip listed by name takes precedence over "*".
+     *
+     * @param acceptEncoding the request's Accept-Encoding header, or null.
+     * @return whether the client accepts a gzipped body.
+     */
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        double gzip = -1;
+        double any = -1;
+        for (String element : acceptEncoding.split(",")) {
+            String[] parts = element.split(";");
+            String coding = parts[0].trim();
+            double q = 1;
+            for (int i = 1; i < parts.length; i++) {
+                String parameter = parts[i].trim();
+                if (parameter.length() > 2 && parameter.regionMatches(true, 0, "q=", 0, 2)) {
+                    try {
+                        q = Double.parseDouble(parameter.substring(2));
+                    } catch (NumberFormatException e) {
+                        // A q-value that cannot be read does not accept anything.
+                        q = 0;
+                    }
+                }
+            }
+            if (coding.equalsIgnoreCase("gzip") || coding.equalsIgnoreCase("x-gzip")) {
+                gzip = Math.max(gzip, q);
+            } else if (coding.equals("*")) {
+                any = Math.max(any, q);
+            }
+        }
+        return (gzip >= 0 ? gzip : any) > 0;
+    }
+
+    /**
+     * @return the body gzipped at the configured level.
+     */
+    public byte[] gzip(byte[] body) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out, 8192) {
+            {
+                def.setLevel(level);
+            }
+        }) {
+            gzip.write(body);
+        } catch (IOException e) {
+            // A ByteArrayOutputStream does not throw.
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+}
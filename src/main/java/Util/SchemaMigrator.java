@@ -0,0 +1,109 @@
+package Util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.h2.tools.RunScript;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Applies the versioned schema migrations in src/main/resources/db/migration
+ * at startup. Each migration runs once and is recorded in the schema_version
+ * table, so restarting the application only applies the ones that are new.
+ *
+ * This is separate from ConnectionUtil.resetTestDatabase(): the reset script
+ * drops schema_version together with the tables, so the next migrate()
+ * rebuilds everything the migrations add on top of the baseline schema.
+ */
+public class SchemaMigrator {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SchemaMigrator.class);
+
+    /**
+     * Migrations in the order they must be applied. The version is the number
+     * after the leading V. Add new migrations to the end; never edit one that
+     * has been released.
+     */
+    private static final String[] MIGRATIONS = {
+            "V1__baseline_schema.sql",
+            "V2__message_indexes.sql",
+            "V3__follows.sql",
+            "V4__message_author_index.sql",
+            "V5__message_id_sequence.sql",
+    };
+
+    /**
+     * Apply every migration that has not been recorded in schema_version yet.
+     *
+     * @throws IllegalStateException if a migration fails, since the application
+     *                               cannot run against a half-migrated schema.
+     */
+    public static void migrate() {
+        try (Connection connection = ConnectionUtil.getConnection()) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("CREATE TABLE IF NOT EXISTS schema_version ("
+                        + "version int primary key, "
+                        + "script varchar(255), "
+                        + "installed_on timestamp default current_timestamp)");
+            }
+
+            int current = currentVersion(connection);
+            for (String script : MIGRATIONS) {
+                int version = versionOf(script);
+                if (version > current) {
+                    apply(connection, version, script);
+                }
+            }
+        } catch (SQLException | IOException e) {
+            throw new IllegalStateException("Schema migration failed", e);
+        }
+    }
+
+    /**
+     * @return the highest version recorded in schema_version, or 0.
+     */
+    public static int currentVersion(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+                ResultSet rs = statement.executeQuery("SELECT COALESCE(MAX(version), 0) FROM schema_version")) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    private static void apply(Connection connection, int version, String script) throws SQLException, IOException {
+        LOGGER.info("Applying schema migration " + script);
+        InputStream in = SchemaMigrator.class.getResourceAsStream("/db/migration/" + script);
+        if (in == null) {
+            throw new IOException("Missing migration script " + script);
+        }
+        connection.setAutoCommit(false);
+        try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            RunScript.execute(connection, reader);
+            try (PreparedStatement ps = connection
+                    .prepareStatement("INSERT INTO schema_version(version, script) VALUES(?, ?)")) {
+                ps.setInt(1, version);
+                ps.setString(2, script);
+                ps.executeUpdate();
+            }
+            connection.commit();
+        } catch (SQLException | IOException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    private static int versionOf(String script) {
+        return Integer.parseInt(script.substring(1, script.indexOf("__")));
+    }
+}
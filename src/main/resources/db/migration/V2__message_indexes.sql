@@ -0,0 +1,4 @@
+-- Access paths for per-author timelines and time-ordered feeds, so neither has
+-- to scan the whole message table.
+create index if not exists idx_message_posted_by_time on message (posted_by, time_posted_epoch desc);
+create index if not exists idx_message_time_id on message (time_posted_epoch, message_id);
@@ -0,0 +1,12 @@
+-- Follow graph for home feeds. follower_count is kept in step with the rows
+-- in follows, so the feed can tell accounts with many followers apart
+-- without counting them.
+alter table account add column if not exists follower_count int default 0 not null;
+create table if not exists follows (
+    follower_id int not null,
+    followee_id int not null,
+    primary key (follower_id, followee_id),
+    foreign key (follower_id) references account(account_id),
+    foreign key (followee_id) references account(account_id)
+);
+create index if not exists idx_follows_followee on follows (followee_id, follower_id);
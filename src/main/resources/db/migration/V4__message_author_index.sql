@@ -0,0 +1,8 @@
+-- Per-author reads filter on posted_by and order and page by message_id, so
+-- one index on both serves them without a sort. Nothing orders by
+-- time_posted_epoch, so the V2 indexes only slowed down inserts.
+drop index if exists idx_message_posted_by_time;
+drop index if exists idx_message_time_id;
+create index if not exists idx_message_posted_by_id on message (posted_by, message_id);
+-- H2 cannot read an index backwards, so newest-first reads get their own.
+create index if not exists idx_message_posted_by_id_desc on message (posted_by, message_id desc);
@@ -0,0 +1,8 @@
+-- message_id comes from a named sequence instead of the column's identity, so
+-- write-behind can reserve IDs with NEXT VALUE FOR before it inserts them.
+-- IDs reserved that way never get ahead of the IDs handed to plain inserts,
+-- which the identity could not promise without restarting it by DDL.
+create sequence if not exists message_id_seq;
+alter sequence message_id_seq restart with (select coalesce(max(message_id), 0) + 1 from message);
+alter table message alter column message_id drop identity;
+alter table message alter column message_id set default next value for message_id_seq;
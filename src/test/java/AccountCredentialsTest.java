@@ -0,0 +1,143 @@
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import Controller.SocialMediaController;
+import DAO.AccountStore;
+import DAO.Stores;
+import Model.Account;
+import Service.AccountService;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class AccountCredentialsTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database and restart the Javalin app with a
+     * cheap hash and a login limit of 3 attempts per username.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        System.setProperty("auth.pbkdf2.iterations", "1000");
+        System.setProperty("auth.login.usernameBurst", "3");
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+        System.clearProperty("auth.pbkdf2.iterations");
+        System.clearProperty("auth.login.usernameBurst");
+    }
+
+    private HttpResponse<String> post(String path, String username, String password)
+            throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"username\": \"" + username
+                        + "\", \"password\": \"" + password + "\" }"))
+                .header("Content-Type", "application/json")
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private String storedPassword(String username) throws SQLException {
+        try (Connection connection = ConnectionUtil.getConnection();
+                PreparedStatement ps = connection.prepareStatement("SELECT password FROM account WHERE username = ?")) {
+            ps.setString(1, username);
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                return rs.getString(1);
+            }
+        }
+    }
+
+    /**
+     * A registered password is stored as a salted hash and still logs in.
+     */
+    @Test
+    public void registeredPasswordIsHashed() throws IOException, InterruptedException, SQLException {
+        Assume.assumeFalse("Reads the password from the H2 account table", Stores.isLogBackend());
+        Assert.assertEquals(200, post("/register", "user", "password").statusCode());
+        String stored = storedPassword("user");
+        Assert.assertTrue(stored.startsWith("pbkdf2$1000$"));
+        Assert.assertFalse(stored.contains("password"));
+
+        Assert.assertEquals(200, post("/login", "user", "password").statusCode());
+        Assert.assertEquals(401, post("/login", "user", "wrong").statusCode());
+    }
+
+    /**
+     * A legacy plaintext password is replaced with a hash on the first
+     * successful login, and the login keeps working afterwards.
+     */
+    @Test
+    public void legacyPasswordIsUpgradedOnLogin() throws IOException, InterruptedException, SQLException {
+        Assume.assumeFalse("Reads the password from the H2 account table", Stores.isLogBackend());
+        Assert.assertEquals("password", storedPassword("testuser1"));
+        Assert.assertEquals(200, post("/login", "testuser1", "password").statusCode());
+        Assert.assertTrue(storedPassword("testuser1").startsWith("pbkdf2$1000$"));
+        Assert.assertEquals(200, post("/login", "testuser1", "password").statusCode());
+    }
+
+    /**
+     * Once a username has used up its attempts, further logins get 429, even
+     * with the right password, while other usernames are unaffected.
+     */
+    @Test
+    public void repeatedLoginsAreRateLimited() throws IOException, InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(401, post("/login", "testuser1", "wrong").statusCode());
+        }
+        Assert.assertEquals(429, post("/login", "testuser1", "password").statusCode());
+        Assert.assertEquals(401, post("/login", "testuser404", "password").statusCode());
+    }
+
+    /**
+     * Registering a username that is already taken is refused by a lookup, before the password is hashed or an
+     * insert is tried.
+     */
+    @Test
+    public void takenUsernameIsRefusedBeforeHashing() {
+        AtomicInteger inserts = new AtomicInteger();
+        AccountStore accountStore = (AccountStore) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { AccountStore.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getAccount":
+                            return new Account(1, (String) args[0], "pbkdf2$1000$taken");
+                        case "insertAccount":
+                            inserts.incrementAndGet();
+                            return null;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+        AccountService accountService = new AccountService(accountStore);
+        Assert.assertNull(accountService.addAccount(new Account("testuser1", "password")));
+        Assert.assertNull(accountService.addAccount(new Account("testuser1", "password")));
+        Assert.assertEquals(0, inserts.get());
+    }
+}
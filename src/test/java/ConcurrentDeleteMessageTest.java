@@ -0,0 +1,96 @@
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class ConcurrentDeleteMessageTest {
+    static final int THREADS = 32;
+
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+    ExecutorService executor;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        executor = Executors.newFixedThreadPool(THREADS);
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        app.stop();
+    }
+
+    /**
+     * Many concurrent DELETE localhost:8080/messages/1: every request gets a
+     * 200, exactly one of them with the deleted message in its body, and the
+     * message is gone afterwards.
+     */
+    @Test
+    public void concurrentDeletesReturnMessageOnce() throws Exception {
+        HttpRequest deleteRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1"))
+                .DELETE()
+                .build();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<HttpResponse<String>>> futures = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            Callable<HttpResponse<String>> delete = () -> {
+                start.await();
+                return webClient.send(deleteRequest, HttpResponse.BodyHandlers.ofString());
+            };
+            futures.add(executor.submit(delete));
+        }
+        start.countDown();
+
+        List<String> bodies = new ArrayList<>();
+        for (Future<HttpResponse<String>> future : futures) {
+            HttpResponse<String> response = future.get();
+            Assert.assertEquals(200, response.statusCode());
+            if (!response.body().isEmpty()) {
+                bodies.add(response.body());
+            }
+        }
+        Assert.assertEquals(1, bodies.size());
+        Message expectedResult = new Message(1, 1, "test message 1", 1669947792);
+        Assert.assertEquals(expectedResult, objectMapper.readValue(bodies.get(0), Message.class));
+
+        HttpRequest getRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1"))
+                .build();
+        Assert.assertEquals("", webClient.send(getRequest, HttpResponse.BodyHandlers.ofString()).body());
+    }
+}
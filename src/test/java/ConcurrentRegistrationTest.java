@@ -0,0 +1,134 @@
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import Controller.SocialMediaController;
+import DAO.Stores;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class ConcurrentRegistrationTest {
+    static final int THREADS = 32;
+
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    Javalin app;
+    ExecutorService executor;
+
+    /**
+     * Before every test, reset the database and restart the Javalin app with a cheap hash.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        System.setProperty("auth.pbkdf2.iterations", "1000");
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        executor = Executors.newFixedThreadPool(THREADS);
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        app.stop();
+        System.clearProperty("auth.pbkdf2.iterations");
+    }
+
+    /**
+     * Register the given usernames all at once, released together by a latch.
+     *
+     * @return the response status of each registration, in order.
+     */
+    private List<Integer> registerConcurrently(List<String> usernames) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Integer>> futures = new ArrayList<>();
+        for (String username : usernames) {
+            Callable<Integer> register = () -> {
+                HttpRequest request = HttpRequest.newBuilder()
+                        .uri(URI.create("http://localhost:8080/register"))
+                        .POST(HttpRequest.BodyPublishers.ofString("{\"username\": \"" + username
+                                + "\", \"password\": \"password\" }"))
+                        .header("Content-Type", "application/json")
+                        .build();
+                start.await();
+                return webClient.send(request, HttpResponse.BodyHandlers.ofString()).statusCode();
+            };
+            futures.add(executor.submit(register));
+        }
+        start.countDown();
+        List<Integer> statuses = new ArrayList<>();
+        for (Future<Integer> future : futures) {
+            statuses.add(future.get());
+        }
+        return statuses;
+    }
+
+    private int countAccounts(String username) throws SQLException {
+        try (Connection connection = ConnectionUtil.getConnection();
+                PreparedStatement ps = connection.prepareStatement("SELECT COUNT(*) FROM account WHERE username = ?")) {
+            ps.setString(1, username);
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                return rs.getInt(1);
+            }
+        }
+    }
+
+    /**
+     * Many concurrent registrations of one username: exactly one wins, the
+     * rest get 400, and only one row is written.
+     */
+    @Test
+    public void sameUsernameRegistersOnce() throws Exception {
+        Assume.assumeFalse("Counts rows in the H2 account table", Stores.isLogBackend());
+        List<String> usernames = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            usernames.add("contended");
+        }
+        List<Integer> statuses = registerConcurrently(usernames);
+
+        Assert.assertEquals(1, statuses.stream().filter(status -> status == 200).count());
+        Assert.assertEquals(THREADS - 1, statuses.stream().filter(status -> status == 400).count());
+        Assert.assertEquals(1, countAccounts("contended"));
+    }
+
+    /**
+     * Many concurrent registrations of different usernames all succeed.
+     */
+    @Test
+    public void differentUsernamesAllRegister() throws Exception {
+        Assume.assumeFalse("Counts rows in the H2 account table", Stores.isLogBackend());
+        List<String> usernames = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            usernames.add("user" + i);
+        }
+        List<Integer> statuses = registerConcurrently(usernames);
+
+        for (int i = 0; i < THREADS; i++) {
+            Assert.assertEquals(usernames.get(i), 200, (int) statuses.get(i));
+            Assert.assertEquals(1, countAccounts(usernames.get(i)));
+        }
+    }
+}
@@ -0,0 +1,155 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class ConditionalRequestTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient for interacting
+     * locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    private HttpResponse<String> send(HttpRequest.Builder builder) throws IOException, InterruptedException {
+        return webClient.send(builder.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpRequest.Builder request(String path) {
+        return HttpRequest.newBuilder().uri(URI.create("http://localhost:8080" + path));
+    }
+
+    private HttpResponse<String> get(String path, String etag) throws IOException, InterruptedException {
+        return send(request(path).header("If-None-Match", etag));
+    }
+
+    private String etag(String path) throws IOException, InterruptedException {
+        HttpResponse<String> response = send(request(path));
+        Assert.assertEquals(200, response.statusCode());
+        return response.headers().firstValue("ETag").orElseThrow();
+    }
+
+    private void postMessage(int posted_by) throws IOException, InterruptedException {
+        HttpResponse<String> response = send(request("/messages")
+                .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\":" + posted_by
+                        + ", \"message_text\": \"new message\", \"time_posted_epoch\": 1669947792}"))
+                .header("Content-Type", "application/json"));
+        Assert.assertEquals(200, response.statusCode());
+    }
+
+    /**
+     * A single message has a strong ETag that answers 304 until the message is updated.
+     */
+    @Test
+    public void messageETagChangesOnUpdate() throws IOException, InterruptedException {
+        String etag = etag("/messages/1");
+        Assert.assertFalse(etag.startsWith("W/"));
+
+        HttpResponse<String> response = get("/messages/1", etag);
+        Assert.assertEquals(304, response.statusCode());
+        Assert.assertTrue(response.body().isEmpty());
+        postMessage(1);
+        Assert.assertEquals(304, get("/messages/1", etag).statusCode());
+
+        send(request("/messages/1")
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\": \"updated message\"}"))
+                .header("Content-Type", "application/json"));
+        response = get("/messages/1", etag);
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertTrue(response.body().contains("updated message"));
+        Assert.assertNotEquals(etag, response.headers().firstValue("ETag").orElseThrow());
+    }
+
+    /**
+     * Lists have weak ETags; a new message changes the ETag of all messages and of its author's messages, but not
+     * of other accounts' messages.
+     */
+    @Test
+    public void listETagsFollowWrites() throws IOException, InterruptedException {
+        send(request("/register").POST(HttpRequest.BodyPublishers.ofString(
+                "{\"username\": \"user2\", \"password\": \"password\"}")));
+        String all = etag("/messages");
+        String account1 = etag("/accounts/1/messages");
+        String account2 = etag("/accounts/2/messages");
+        Assert.assertTrue(all.startsWith("W/"));
+
+        Assert.assertEquals(304, get("/messages", all).statusCode());
+        Assert.assertEquals(304, get("/messages?limit=1", "\"other\", " + all).statusCode());
+
+        postMessage(2);
+        Assert.assertEquals(200, get("/messages", all).statusCode());
+        Assert.assertEquals(304, get("/accounts/1/messages", account1).statusCode());
+        Assert.assertEquals(200, get("/accounts/2/messages", account2).statusCode());
+
+        send(request("/messages/1").DELETE());
+        Assert.assertEquals(200, get("/accounts/1/messages", account1).statusCode());
+    }
+
+    /**
+     * A message that does not exist, or no longer does, never gets an ETag or a 304.
+     */
+    @Test
+    public void missingMessageIsNeverNotModified() throws IOException, InterruptedException {
+        HttpResponse<String> response = get("/messages/100", "*");
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertTrue(response.body().isEmpty());
+        Assert.assertFalse(response.headers().firstValue("ETag").isPresent());
+
+        String etag = etag("/messages/1");
+        send(request("/messages/1").DELETE());
+        response = get("/messages/1", etag);
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertTrue(response.body().isEmpty());
+    }
+
+    /**
+     * A request holding the current ETag of a message is answered without reading the message, even from the cache.
+     */
+    @Test
+    public void notModifiedMessageIsNotRead() throws IOException, InterruptedException {
+        String etag = etag("/messages/1");
+        String before = cacheLookups();
+        for (int i = 0; i < 3; i++) {
+            HttpResponse<String> response = get("/messages/1", etag);
+            Assert.assertEquals(304, response.statusCode());
+            Assert.assertEquals(etag, response.headers().firstValue("ETag").orElseThrow());
+        }
+        Assert.assertEquals(before, cacheLookups());
+    }
+
+    private String cacheLookups() throws IOException, InterruptedException {
+        Map<?, ?> messageCache = (Map<?, ?>) new ObjectMapper().readValue(send(request("/stats")).body(), Map.class)
+                .get("messageCache");
+        return messageCache.get("hits") + "/" + messageCache.get("misses");
+    }
+}
@@ -0,0 +1,179 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Util.ConnectionPool;
+
+public class ConnectionPoolTest {
+    ConnectionPool pool;
+    JdbcDataSource dataSource;
+
+    /**
+     * Before every test, create a small pool over a private in-memory database.
+     */
+    @Before
+    public void setUp() {
+        dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:pooltest;DB_CLOSE_DELAY=-1");
+        dataSource.setUser("sa");
+        dataSource.setPassword("sa");
+        pool = new ConnectionPool(dataSource, 2, 0, 200, 60000, 0);
+    }
+
+    @After
+    public void tearDown() {
+        pool.close();
+    }
+
+    /**
+     * Closing a borrowed connection returns it to the pool instead of closing it.
+     */
+    @Test
+    public void closedConnectionIsReused() throws SQLException {
+        Connection first = pool.getConnection();
+        first.close();
+        Assert.assertTrue(first.isClosed());
+        Assert.assertEquals(1, pool.getIdleCount());
+
+        try (Connection second = pool.getConnection()) {
+            Assert.assertFalse(second.isClosed());
+            Assert.assertEquals(1, pool.getTotalCount());
+            Assert.assertEquals(1, pool.getActiveCount());
+        }
+    }
+
+    /**
+     * Borrowing beyond maxSize times out once the acquire timeout elapses.
+     */
+    @Test
+    public void exhaustedPoolTimesOut() throws SQLException {
+        try (Connection a = pool.getConnection(); Connection b = pool.getConnection()) {
+            Assert.assertEquals(2, pool.getActiveCount());
+            Assert.assertThrows(SQLTransientConnectionException.class, () -> pool.getConnection());
+        }
+        Assert.assertEquals(0, pool.getActiveCount());
+        Assert.assertEquals(2, pool.getIdleCount());
+    }
+
+    /**
+     * A returned lease can no longer be used, even after its physical connection
+     * has been handed to someone else.
+     */
+    @Test
+    public void staleLeaseIsRejected() throws SQLException {
+        Connection stale = pool.getConnection();
+        stale.close();
+        try (Connection current = pool.getConnection()) {
+            Assert.assertThrows(SQLException.class, () -> stale.createStatement());
+            Assert.assertTrue(current.createStatement().execute("SELECT 1"));
+        }
+    }
+
+    /**
+     * Borrows and statements created through leases are counted.
+     */
+    @Test
+    public void borrowsAndStatementsAreCounted() throws SQLException {
+        try (Connection connection = pool.getConnection()) {
+            connection.prepareStatement("SELECT 1").close();
+            connection.createStatement().close();
+        }
+        try (Connection connection = pool.getConnection()) {
+            connection.getAutoCommit();
+        }
+        Assert.assertEquals(2, pool.getBorrowCount());
+        Assert.assertEquals(2, pool.getStatementCount());
+    }
+
+    /**
+     * A statement closed by one borrower is served from the cache to the next,
+     * with its parameters cleared, while a nested prepare of the same SQL gets
+     * its own statement.
+     */
+    @Test
+    public void preparedStatementsAreCached() throws SQLException {
+        try (ConnectionPool cachingPool = new ConnectionPool(dataSource, 1, 0, 200, 60000, 0, 8)) {
+            String sql = "SELECT CAST(? AS INT)";
+            try (Connection connection = cachingPool.getConnection();
+                    PreparedStatement ps = connection.prepareStatement(sql)) {
+                ps.setInt(1, 1);
+                try (PreparedStatement nested = connection.prepareStatement(sql)) {
+                    nested.setInt(1, 2);
+                    try (ResultSet rs = nested.executeQuery()) {
+                        rs.next();
+                        Assert.assertEquals(2, rs.getInt(1));
+                    }
+                }
+            }
+            try (Connection connection = cachingPool.getConnection();
+                    PreparedStatement ps = connection.prepareStatement(sql)) {
+                Assert.assertThrows(SQLException.class, () -> ps.executeQuery());
+                ps.setInt(1, 3);
+                try (ResultSet rs = ps.executeQuery()) {
+                    rs.next();
+                    Assert.assertEquals(3, rs.getInt(1));
+                }
+            }
+            Assert.assertEquals(1L, cachingPool.statementCacheStats().get("hits"));
+            Assert.assertEquals(2L, cachingPool.statementCacheStats().get("misses"));
+        }
+    }
+
+    /**
+     * A cached statement handle cannot be used after its connection went back
+     * to the pool.
+     */
+    @Test
+    public void staleStatementIsRejected() throws SQLException {
+        try (ConnectionPool cachingPool = new ConnectionPool(dataSource, 1, 0, 200, 60000, 0, 8)) {
+            PreparedStatement stale;
+            try (Connection connection = cachingPool.getConnection()) {
+                stale = connection.prepareStatement("SELECT 1");
+            }
+            try (Connection connection = cachingPool.getConnection();
+                    PreparedStatement current = connection.prepareStatement("SELECT 1")) {
+                Assert.assertTrue(stale.isClosed());
+                Assert.assertThrows(SQLException.class, () -> stale.executeQuery());
+                Assert.assertTrue(current.executeQuery().next());
+            }
+        }
+    }
+
+    /**
+     * Settings a borrower changes on a cached statement, like its row limit,
+     * are put back before the next borrower gets it.
+     */
+    @Test
+    public void statementSettingsDoNotCarryOver() throws SQLException {
+        try (ConnectionPool cachingPool = new ConnectionPool(dataSource, 1, 0, 200, 60000, 0, 8)) {
+            String sql = "SELECT X FROM SYSTEM_RANGE(1, 3)";
+            try (Connection connection = cachingPool.getConnection();
+                    PreparedStatement ps = connection.prepareStatement(sql)) {
+                ps.setMaxRows(1);
+                ps.setFetchSize(1);
+                ps.setQueryTimeout(5);
+            }
+            try (Connection connection = cachingPool.getConnection();
+                    PreparedStatement ps = connection.prepareStatement(sql)) {
+                Assert.assertEquals(0, ps.getMaxRows());
+                Assert.assertEquals(0, ps.getQueryTimeout());
+                int rows = 0;
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        rows++;
+                    }
+                }
+                Assert.assertEquals(3, rows);
+            }
+            Assert.assertEquals(1L, cachingPool.statementCacheStats().get("hits"));
+        }
+    }
+}
@@ -0,0 +1,88 @@
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Service.FeedFanout;
+
+public class FeedFanoutTest {
+    FeedFanout feedFanout;
+    AtomicInteger feedLoads;
+    int[] feed;
+
+    /**
+     * Before every test, create an engine whose timelines hold 3 IDs, over a feed source in which account 1 follows
+     * account 2 and nobody else follows anyone.
+     */
+    @Before
+    public void setUp() {
+        feedLoads = new AtomicInteger();
+        feed = new int[] { 1, 2, 3, 4, 5 };
+        feedFanout = new FeedFanout(new FeedFanout.Source() {
+            @Override
+            public int[] feedIds(int account_id, Integer before_id, int limit) {
+                feedLoads.incrementAndGet();
+                return newestFirst(account_id == 1 ? feed : new int[0], before_id, limit);
+            }
+
+            @Override
+            public int followerCount(int account_id) {
+                return account_id == 2 ? 1 : 0;
+            }
+
+            @Override
+            public int[] followers(int account_id) {
+                return account_id == 2 ? new int[] { 1 } : new int[0];
+            }
+
+            @Override
+            public int[] largeFollowees(int account_id, int minFollowers) {
+                return new int[0];
+            }
+
+            @Override
+            public int[] recentIds(int author_id, Integer before_id, int limit) {
+                return new int[0];
+            }
+        }, 3, 1000, 10, Duration.ofMinutes(10));
+    }
+
+    private static int[] newestFirst(int[] ascending, Integer before_id, int limit) {
+        return Arrays.stream(ascending).boxed().sorted((a, b) -> b - a)
+                .filter(id -> before_id == null || id < before_id).limit(limit).mapToInt(Integer::intValue)
+                .toArray();
+    }
+
+    @Test
+    public void recentPagesAreServedFromTheTimeline() {
+        Assert.assertArrayEquals(new int[] { 5, 4 }, feedFanout.getPage(1, null, 2));
+        Assert.assertArrayEquals(new int[] { 3 }, feedFanout.getPage(1, 4, 1));
+        Assert.assertEquals(1, feedLoads.get());
+    }
+
+    @Test
+    public void deepPagesSpillToDatabase() {
+        feedFanout.getPage(1, null, 2);
+        Assert.assertArrayEquals(new int[] { 2, 1 }, feedFanout.getPage(1, 3, 2));
+        Assert.assertEquals(2, feedLoads.get());
+    }
+
+    @Test
+    public void publishedMessagesAreFannedOutToFollowers() {
+        feedFanout.getPage(1, null, 3);
+        feed = new int[] { 1, 2, 3, 4, 5, 7, 6 };
+        feedFanout.published(2, 7);
+        feedFanout.published(2, 6);
+        Assert.assertArrayEquals(new int[] { 7, 6, 5 }, feedFanout.getPage(1, null, 3));
+
+        // 3 was pushed out of the timeline to make room, so it comes from the database.
+        Assert.assertArrayEquals(new int[] { 5, 4, 3 }, feedFanout.getPage(1, 6, 3));
+        Assert.assertEquals(2, feedLoads.get());
+
+        feedFanout.removed(2, 6);
+        Assert.assertArrayEquals(new int[] { 7, 5 }, feedFanout.getPage(1, null, 2));
+    }
+}
@@ -0,0 +1,144 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class HomeFeedTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database and create a new webClient and ObjectMapper for interacting locally on
+     * the web. Each test starts the app itself, since some change how the feed is built.
+     */
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty("feed.fanout.maxFollowers");
+        app.stop();
+    }
+
+    /**
+     * Start the app and register accounts 2 and 3, which each post one message after testuser1's message 1.
+     */
+    private void startWithAccounts() throws IOException, InterruptedException {
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        app.start(8080);
+        Thread.sleep(1000);
+        for (int i = 2; i <= 3; i++) {
+            send(HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:8080/register"))
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"username\": \"user" + i + "\", "
+                            + "\"password\": \"password\"}"))
+                    .header("Content-Type", "application/json"));
+            postMessage(i, "message from " + i);
+        }
+    }
+
+    private HttpResponse<String> send(HttpRequest.Builder request) throws IOException, InterruptedException {
+        return webClient.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private void postMessage(int posted_by, String text) throws IOException, InterruptedException {
+        send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\":" + posted_by + ", "
+                        + "\"message_text\": \"" + text + "\", \"time_posted_epoch\": 1669947792}"))
+                .header("Content-Type", "application/json"));
+    }
+
+    private int follow(int account_id, int followee_id) throws IOException, InterruptedException {
+        return send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/accounts/" + account_id + "/following/" + followee_id))
+                .PUT(HttpRequest.BodyPublishers.noBody())).statusCode();
+    }
+
+    private int unfollow(int account_id, int followee_id) throws IOException, InterruptedException {
+        return send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/accounts/" + account_id + "/following/" + followee_id))
+                .DELETE()).statusCode();
+    }
+
+    private List<Integer> feedIds(String path) throws IOException, InterruptedException {
+        HttpResponse<String> response = send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path)));
+        Assert.assertEquals(200, response.statusCode());
+        List<Integer> ids = new ArrayList<>();
+        for (Message message : objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){})) {
+            ids.add(message.getMessage_id());
+        }
+        return ids;
+    }
+
+    /**
+     * Account 3 follows account 1: its feed holds its own and account 1's messages, newest first, including ones
+     * posted after the feed was first read, and loses account 1's messages again after unfollowing.
+     */
+    @Test
+    public void feedFollowsFollowedAccounts() throws IOException, InterruptedException {
+        startWithAccounts();
+        Assert.assertEquals(List.of(3), feedIds("/accounts/3/feed"));
+
+        Assert.assertEquals(200, follow(3, 1));
+        Assert.assertEquals(200, follow(3, 1));
+        Assert.assertEquals(List.of(3, 1), feedIds("/accounts/3/feed"));
+
+        postMessage(1, "new message from 1");
+        postMessage(2, "new message from 2");
+        Assert.assertEquals(List.of(4, 3, 1), feedIds("/accounts/3/feed"));
+        Assert.assertEquals(List.of(3), feedIds("/accounts/3/feed?limit=1&before_id=4"));
+
+        Assert.assertEquals(200, unfollow(3, 1));
+        Assert.assertEquals(List.of(3), feedIds("/accounts/3/feed"));
+    }
+
+    /**
+     * With feed.fanout.maxFollowers=0 every followed account is merged into the feed on read instead.
+     */
+    @Test
+    public void feedMergesLargeAccountsOnRead() throws IOException, InterruptedException {
+        System.setProperty("feed.fanout.maxFollowers", "0");
+        startWithAccounts();
+        Assert.assertEquals(200, follow(3, 1));
+        Assert.assertEquals(200, follow(3, 2));
+        Assert.assertEquals(List.of(3, 2, 1), feedIds("/accounts/3/feed"));
+
+        postMessage(1, "new message from 1");
+        Assert.assertEquals(List.of(4, 3, 2, 1), feedIds("/accounts/3/feed"));
+    }
+
+    /**
+     * Following an account that does not exist, or yourself, gets a 400.
+     */
+    @Test
+    public void followInvalidAccount() throws IOException, InterruptedException {
+        startWithAccounts();
+        Assert.assertEquals(400, follow(3, 99));
+        Assert.assertEquals(400, follow(3, 3));
+    }
+}
@@ -0,0 +1,233 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import DAO.LogStore;
+import Model.Account;
+import Model.Message;
+import Util.ConnectionUtil;
+
+public class LogStoreTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    Path directory;
+    LogStore logStore;
+
+    /**
+     * Before every test, reset the database and open a store in an empty directory, which imports testuser1 and
+     * message 1 from it.
+     */
+    @Before
+    public void setUp() throws IOException {
+        ConnectionUtil.resetTestDatabase();
+        directory = folder.getRoot().toPath();
+        logStore = open();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        logStore.close();
+    }
+
+    private LogStore open() throws IOException {
+        return new LogStore(directory, 1 << 20, false, 3600, 0.5);
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Every change survives closing and reopening the store, and IDs are not reused after the newest message is
+     * deleted.
+     */
+    @Test
+    public void reopenReplaysLog() throws IOException {
+        Account account = logStore.insertAccount(new Account("user2", "password"));
+        Assert.assertEquals(2, account.getAccount_id());
+        Assert.assertNull(logStore.insertAccount(new Account("user2", "other")));
+        Assert.assertTrue(logStore.updatePassword(2, "changed"));
+        Assert.assertTrue(logStore.follow(2, 1));
+        Message created = logStore.createMessage(new Message(2, "from user2", 1669947793L));
+        Assert.assertEquals(2, created.getMessage_id());
+        logStore.updateMessageGivenMessageId("updated", 1);
+        Message newest = logStore.createMessage(new Message(1, "to be deleted", 1669947794L));
+        Assert.assertNotNull(logStore.deleteOneMessageGivenMessageId(newest.getMessage_id()));
+        Assert.assertNull(logStore.createMessage(new Message(3, "no such account", 1669947795L)));
+
+        logStore.close();
+        logStore = open();
+
+        Assert.assertEquals("changed", logStore.getAccount("user2").getPassword());
+        Assert.assertArrayEquals(new int[] { 2 }, logStore.getFollowers(1));
+        Assert.assertEquals(List.of(new Message(1, 1, "updated", 1669947792L),
+                new Message(2, 2, "from user2", 1669947793L)), logStore.getAllMessages());
+        Assert.assertArrayEquals(new int[] { 2, 1 }, logStore.getFeedMessageIds(2, null, 10));
+        Assert.assertEquals(4, logStore.createMessage(new Message(1, "after reopen", 1669947796L)).getMessage_id());
+    }
+
+    /**
+     * Compaction drops overwritten and deleted records into a smaller segment that replaces the old one.
+     */
+    @Test
+    public void compactionDropsGarbage() throws IOException {
+        for (int i = 0; i < 100; i++) {
+            Message message = logStore.createMessage(new Message(1, "message " + i, 1669947792L));
+            logStore.updateMessageGivenMessageId("updated " + i, message.getMessage_id());
+            if (i % 2 == 0) {
+                logStore.deleteOneMessageGivenMessageId(message.getMessage_id());
+            }
+        }
+        List<Message> before = logStore.getAllMessages();
+        int bytesBefore = (int) logStore.stats().get("segmentBytes");
+
+        logStore.compact();
+
+        Assert.assertEquals(0L, logStore.stats().get("garbageBytes"));
+        Assert.assertTrue((int) logStore.stats().get("segmentBytes") < bytesBefore / 2);
+        Assert.assertEquals(before, logStore.getAllMessages());
+        Assert.assertEquals(1, segments().size());
+
+        logStore.close();
+        logStore = open();
+        Assert.assertEquals(before, logStore.getAllMessages());
+        Assert.assertEquals(102, logStore.createMessage(new Message(1, "after compaction", 1669947792L))
+                .getMessage_id());
+    }
+
+    /**
+     * Messages created with explicit IDs below the newest one, or with the ID of a deleted message, take their place
+     * in message_id order, before and after compaction.
+     */
+    @Test
+    public void explicitIdsKeepOrder() throws IOException {
+        logStore.insertAccount(new Account("user2", "password"));
+        Assert.assertNotNull(logStore.createMessages(List.of(new Message(5, 1, "five", 1669947792L),
+                new Message(2, 2, "two", 1669947792L))));
+        Assert.assertNotNull(logStore.deleteOneMessageGivenMessageId(1));
+        Assert.assertNotNull(logStore.createMessages(List.of(new Message(3, 1, "three", 1669947792L),
+                new Message(1, 2, "one again", 1669947792L))));
+        Assert.assertNull(logStore.createMessages(List.of(new Message(3, 1, "duplicate", 1669947792L))));
+        Assert.assertNull(logStore.createMessages(List.of(new Message(4, 1, "four", 1669947792L),
+                new Message(1, "no id", 1669947792L))));
+
+        List<Integer> expected = List.of(1, 2, 3, 5);
+        Assert.assertEquals(expected, ids(logStore.getAllMessages()));
+        Assert.assertEquals(List.of(3, 5), ids(logStore.getAllMessagesFromUser(1)));
+        Assert.assertEquals(List.of(2, 3), ids(logStore.getMessagesPage(null, 1, 5, 10)));
+        Assert.assertArrayEquals(new int[] { 5, 3 }, logStore.getRecentMessageIdsFromUser(1, 10));
+        Assert.assertEquals(5, logStore.getMaxMessageId());
+
+        logStore.compact();
+        Assert.assertEquals(expected, ids(logStore.getAllMessages()));
+        Assert.assertEquals("one again", logStore.getOneMessageGivenMessageId(1).getMessage_text());
+        logStore.close();
+        logStore = open();
+        Assert.assertEquals(expected, ids(logStore.getAllMessages()));
+        Assert.assertEquals(List.of(1, 2), ids(logStore.getAllMessagesFromUser(2)));
+    }
+
+    private static List<Integer> ids(List<Message> messages) {
+        return messages.stream().map(Message::getMessage_id).collect(Collectors.toList());
+    }
+
+    /**
+     * A record cut off by a crash is dropped on reopen, and later appends go where it was.
+     */
+    @Test
+    public void tornRecordIsDropped() throws IOException {
+        logStore.createMessage(new Message(1, "kept", 1669947792L));
+        int end = (int) logStore.stats().get("segmentBytes");
+        logStore.close();
+        try (RandomAccessFile file = new RandomAccessFile(segments().get(0).toFile(), "rw")) {
+            file.seek(end);
+            // A length and a checksum that does not match the zeros after it.
+            file.writeInt(24);
+            file.writeInt(12345);
+        }
+
+        logStore = open();
+        Assert.assertEquals(2, logStore.getAllMessages().size());
+        logStore.createMessage(new Message(1, "appended", 1669947792L));
+        logStore.close();
+        logStore = open();
+        Assert.assertEquals("appended", logStore.getOneMessageGivenMessageId(3).getMessage_text());
+    }
+
+    /**
+     * reset() throws the store's contents away and loads the database again, so a change made to the H2 tables
+     * directly shows up in the store afterwards.
+     */
+    @Test
+    public void resetReloadsDatabase() throws IOException, SQLException {
+        logStore.createMessage(new Message(1, "only in the store", 1669947792L));
+        try (Connection connection = ConnectionUtil.getConnection();
+                PreparedStatement ps = connection.prepareStatement("delete from message where message_id = ?")) {
+            ps.setInt(1, 1);
+            ps.executeUpdate();
+        }
+        Assert.assertEquals(2, logStore.getAllMessages().size());
+
+        logStore.reset();
+        Assert.assertTrue(logStore.getAllMessages().isEmpty());
+        Assert.assertEquals("testuser1", logStore.getAccount("testuser1").getUsername());
+    }
+
+    /**
+     * IDs reserved for write-behind are never handed out by createMessage(), and messages saved with them keep them.
+     */
+    @Test
+    public void reservedIdsAreNotReused() throws IOException {
+        int[] reserved = logStore.reserveMessageIds(3);
+        Assert.assertArrayEquals(new int[] { 2, 3, 4 }, reserved);
+        Assert.assertEquals(5, logStore.createMessage(new Message(1, "plain", 1669947792L)).getMessage_id());
+        Assert.assertNotNull(logStore.createMessages(List.of(new Message(3, 1, "reserved", 1669947792L))));
+        Assert.assertEquals(List.of(1, 3, 5), ids(logStore.getAllMessages()));
+    }
+
+    /**
+     * Of many concurrent inserts of one username exactly one gets an account.
+     */
+    @Test
+    public void concurrentInsertsOfOneUsernameCreateOneAccount() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Account>> inserts = new ArrayList<>();
+            for (int i = 0; i < 32; i++) {
+                inserts.add(executor.submit(() -> logStore.insertAccount(new Account("contended", "password"))));
+            }
+            int created = 0;
+            for (Future<Account> insert : inserts) {
+                if (insert.get() != null) {
+                    created++;
+                }
+            }
+            Assert.assertEquals(1, created);
+        } finally {
+            executor.shutdown();
+        }
+        Assert.assertEquals(1, logStore.getAllAccounts().stream()
+                .filter(account -> account.getUsername().equals("contended")).count());
+    }
+}
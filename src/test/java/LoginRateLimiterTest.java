@@ -0,0 +1,34 @@
+import org.junit.Assert;
+import org.junit.Test;
+
+import Service.LoginRateLimiter;
+
+public class LoginRateLimiterTest {
+
+    /**
+     * An address that uses up its attempts on a username is refused, while the same username can still be logged
+     * into from another address.
+     */
+    @Test
+    public void oneAddressCannotLockOutAUsername() {
+        LoginRateLimiter limiter = new LoginRateLimiter(5, 10, 50, 600, 1000);
+        for (int i = 0; i < 5; i++) {
+            Assert.assertTrue(limiter.tryAcquire("victim", "10.0.0.1"));
+        }
+        Assert.assertFalse(limiter.tryAcquire("victim", "10.0.0.1"));
+        Assert.assertTrue(limiter.tryAcquire("victim", "10.0.0.2"));
+    }
+
+    /**
+     * An address runs out of attempts across usernames at its own burst.
+     */
+    @Test
+    public void addressIsLimitedAcrossUsernames() {
+        LoginRateLimiter limiter = new LoginRateLimiter(5, 10, 50, 600, 1000);
+        for (int i = 0; i < 50; i++) {
+            Assert.assertTrue(limiter.tryAcquire("user" + i, "10.0.0.1"));
+        }
+        Assert.assertFalse(limiter.tryAcquire("other", "10.0.0.1"));
+        Assert.assertTrue(limiter.tryAcquire("other", "10.0.0.2"));
+    }
+}
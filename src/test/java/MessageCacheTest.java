@@ -0,0 +1,203 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Service.MessageCache;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class MessageCacheTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    private HttpResponse<String> send(HttpRequest.Builder builder) throws IOException, InterruptedException {
+        return webClient.send(builder.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpRequest.Builder request(String path) {
+        return HttpRequest.newBuilder().uri(URI.create("http://localhost:8080" + path));
+    }
+
+    /**
+     * Reading a message twice is served from the cache the second time, and the
+     * counters show up on GET localhost:8080/stats.
+     */
+    @Test
+    public void repeatedReadIsCacheHit() throws IOException, InterruptedException {
+        send(request("/messages/1"));
+        send(request("/messages/1"));
+
+        HttpResponse<String> response = send(request("/stats"));
+        Assert.assertEquals(200, response.statusCode());
+        Map<?, ?> stats = (Map<?, ?>) objectMapper.readValue(response.body(), Map.class).get("messageCache");
+        Assert.assertEquals(1, ((Number) stats.get("hits")).intValue());
+        Assert.assertEquals(1, ((Number) stats.get("misses")).intValue());
+    }
+
+    /**
+     * A cached message that is updated is never served stale.
+     */
+    @Test
+    public void updateInvalidatesCachedMessage() throws IOException, InterruptedException {
+        send(request("/messages/1"));
+        send(request("/messages/1")
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\": \"updated message\"}"))
+                .header("Content-Type", "application/json"));
+
+        HttpResponse<String> response = send(request("/messages/1"));
+        Message expectedResult = new Message(1, 1, "updated message", 1669947792);
+        Assert.assertEquals(expectedResult, objectMapper.readValue(response.body(), Message.class));
+    }
+
+    /**
+     * A cached message that is deleted is no longer returned.
+     */
+    @Test
+    public void deleteInvalidatesCachedMessage() throws IOException, InterruptedException {
+        send(request("/messages/1"));
+        send(request("/messages/1").DELETE());
+
+        HttpResponse<String> response = send(request("/messages/1"));
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertTrue(response.body().isEmpty());
+    }
+
+    /**
+     * The JSON of a cached message is serialized once and copied into later responses, including lists, with the
+     * same bytes Jackson writes, and an update replaces it.
+     */
+    @Test
+    public void cachedJsonIsReused() throws IOException, InterruptedException {
+        String json = "{\"message_id\":1,\"posted_by\":1,\"message_text\":\"test message 1\","
+                + "\"time_posted_epoch\":1669947792}";
+        Assert.assertEquals(json, send(request("/messages/1")).body());
+        Assert.assertEquals(json, send(request("/messages/1")).body());
+        Assert.assertEquals("[" + json + "]", send(request("/messages")).body());
+
+        Map<?, ?> stats = (Map<?, ?>) objectMapper.readValue(send(request("/stats")).body(), Map.class)
+                .get("messageCache");
+        Assert.assertEquals(2, ((Number) stats.get("jsonHits")).intValue());
+        Assert.assertEquals(1, ((Number) stats.get("jsonMisses")).intValue());
+
+        send(request("/messages/1")
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\": \"updated message\"}"))
+                .header("Content-Type", "application/json"));
+        Assert.assertEquals("[" + json.replace("test message 1", "updated message") + "]",
+                send(request("/messages")).body());
+    }
+
+    /**
+     * A message put after a write is dropped again when an invalidation happened since the stamp was read, since
+     * the invalidation may have been for the message itself.
+     */
+    @Test
+    public void putAfterRacingInvalidationIsDropped() {
+        MessageCache messageCache = new MessageCache(100, Duration.ofMinutes(1));
+        AtomicInteger loads = new AtomicInteger();
+        Message created = new Message(5, 1, "created", 1669947792);
+
+        long stamp = messageCache.stamp();
+        messageCache.invalidate(5);
+        messageCache.put(created, stamp);
+        messageCache.get(5, message_id -> {
+            loads.incrementAndGet();
+            return created;
+        });
+        Assert.assertEquals(1, loads.get());
+
+        messageCache.put(new Message(6, 1, "created", 1669947792), messageCache.stamp());
+        messageCache.get(6, message_id -> {
+            loads.incrementAndGet();
+            return null;
+        });
+        Assert.assertEquals(1, loads.get());
+    }
+
+    /**
+     * A load that read the old message and is held up until after the writer's invalidate() returned never makes
+     * that message visible, not even briefly, to other readers.
+     */
+    @Test
+    public void loadRacingInvalidationIsNeverServed() throws InterruptedException {
+        MessageCache messageCache = new MessageCache(100, Duration.ofMinutes(1));
+        Message stale = new Message(7, 1, "before update", 1669947792);
+        Message fresh = new Message(7, 1, "after update", 1669947792);
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch invalidated = new CountDownLatch(1);
+
+        AtomicReference<Message> loadedBySlowReader = new AtomicReference<>();
+        Thread slowReader = new Thread(() -> loadedBySlowReader.set(messageCache.get(7, message_id -> {
+            loading.countDown();
+            try {
+                invalidated.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return stale;
+        })));
+        slowReader.start();
+        Assert.assertTrue(loading.await(5, TimeUnit.SECONDS));
+
+        // The writer commits and invalidates while the slow reader is parked holding the old row.
+        messageCache.invalidate(7);
+        AtomicBoolean sawStale = new AtomicBoolean();
+        AtomicBoolean done = new AtomicBoolean();
+        Thread watcher = new Thread(() -> {
+            while (!done.get()) {
+                if (stale.equals(messageCache.get(7, message_id -> null))) {
+                    sawStale.set(true);
+                }
+            }
+        });
+        watcher.start();
+        invalidated.countDown();
+        slowReader.join(5000);
+        done.set(true);
+        watcher.join(5000);
+
+        Assert.assertEquals(stale, loadedBySlowReader.get());
+        Assert.assertFalse(sawStale.get());
+        Assert.assertEquals(fresh, messageCache.get(7, message_id -> fresh));
+    }
+}
@@ -0,0 +1,124 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import DAO.FollowDAO;
+import DAO.MessageDAO;
+import Util.ConnectionUtil;
+import Util.SchemaMigrator;
+
+/**
+ * Guards the access paths of the hot queries. Each test runs EXPLAIN on the SQL
+ * a DAO issues and fails if H2 would answer it with a full table scan, or, for
+ * queries that read in message_id order, with a sort of every matching row.
+ */
+public class MessageQueryPlanTest {
+
+    /**
+     * Before every test, reset the database and apply the schema migrations the
+     * way startAPI() does.
+     */
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+        SchemaMigrator.migrate();
+    }
+
+    private String explain(String sql, int parameters) throws SQLException {
+        try (Connection connection = ConnectionUtil.getConnection();
+                PreparedStatement ps = connection.prepareStatement("EXPLAIN " + sql)) {
+            for (int i = 1; i <= parameters; i++) {
+                ps.setInt(i, 1);
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                return rs.getString(1);
+            }
+        }
+    }
+
+    /**
+     * H2 prints the access path as a comment such as
+     * PUBLIC.IDX_NAME: POSTED_BY = ?1, or PUBLIC.MESSAGE.tableScan for a full scan.
+     */
+    private void assertIndexed(String sql, int parameters, String condition) throws SQLException {
+        String plan = explain(sql, parameters);
+        Assert.assertFalse("Table scan in plan: " + plan, plan.contains("tableScan"));
+        Assert.assertTrue("Expected an index lookup on " + condition + " in plan: " + plan,
+                plan.contains(": " + condition));
+    }
+
+    /**
+     * H2 ends the plan with an index sorted comment when rows come out of the
+     * index in ORDER BY order, and sorts them all otherwise.
+     */
+    private void assertIndexSorted(String sql, int parameters, String index, String condition) throws SQLException {
+        String plan = explain(sql, parameters);
+        assertIndexed(sql, parameters, condition);
+        Assert.assertTrue("Expected index " + index + " in plan: " + plan, plan.contains("PUBLIC." + index + ":"));
+        Assert.assertTrue("Sort step in plan: " + plan, plan.contains("/* index sorted */"));
+    }
+
+    @Test
+    public void migrationsAreRecorded() throws SQLException {
+        try (Connection connection = ConnectionUtil.getConnection()) {
+            Assert.assertEquals(5, SchemaMigrator.currentVersion(connection));
+        }
+    }
+
+    @Test
+    public void messageByIdUsesPrimaryKey() throws SQLException {
+        assertIndexed("SELECT * FROM message WHERE message_id = ?", 1, "MESSAGE_ID = ?1");
+    }
+
+    @Test
+    public void messagesFromUserReadAuthorIndexInOrder() throws SQLException {
+        assertIndexSorted(MessageDAO.MESSAGES_FROM_USER_SQL, 1, "IDX_MESSAGE_POSTED_BY_ID", "POSTED_BY = ?1");
+    }
+
+    @Test
+    public void recentMessageIdsFromUserReadAuthorIndexNewestFirst() throws SQLException {
+        assertIndexSorted(MessageDAO.RECENT_MESSAGE_IDS_FROM_USER_SQL, 2, "IDX_MESSAGE_POSTED_BY_ID_DESC",
+                "POSTED_BY = ?1");
+    }
+
+    @Test
+    public void messagesPageFromUserReadsAuthorIndexInOrder() throws SQLException {
+        assertIndexSorted(MessageDAO.messagesPageSql(true, true, false), 3, "IDX_MESSAGE_POSTED_BY_ID",
+                "POSTED_BY = ?1");
+        assertIndexSorted(MessageDAO.messagesPageSql(true, true, true), 4, "IDX_MESSAGE_POSTED_BY_ID",
+                "POSTED_BY = ?1");
+        assertIndexSorted(MessageDAO.messagesPageSql(true, false, true), 3, "IDX_MESSAGE_POSTED_BY_ID_DESC",
+                "POSTED_BY = ?1");
+    }
+
+    @Test
+    public void messagesPageReadsPrimaryKeyInOrder() throws SQLException {
+        assertIndexSorted(MessageDAO.messagesPageSql(false, true, false), 2, "PRIMARY_KEY_6", "MESSAGE_ID > ?1");
+    }
+
+    /**
+     * A feed merges several authors, so H2 sorts what it reads; it must still only read the followed authors'
+     * ranges from the author index.
+     */
+    @Test
+    public void feedReadsAuthorIndexRanges() throws SQLException {
+        String plan = explain(FollowDAO.FEED_MESSAGE_IDS_SQL, 4);
+        Assert.assertFalse("Table scan in plan: " + plan, plan.contains("tableScan"));
+        Assert.assertTrue("Expected a posted_by range on the author index in plan: " + plan,
+                plan.matches("(?s).*PUBLIC\\.IDX_MESSAGE_POSTED_BY_ID(_DESC)?: "
+                        + "MESSAGE_ID < \\?3\\s+AND POSTED_BY IN.*"));
+    }
+
+    @Test
+    public void accountByUsernameUsesUniqueIndex() throws SQLException {
+        String plan = explain("SELECT * FROM account WHERE username = ?", 0);
+        Assert.assertFalse("Table scan in plan: " + plan, plan.contains("tableScan"));
+        Assert.assertTrue("Expected an index lookup on USERNAME in plan: " + plan, plan.contains(": USERNAME = ?1"));
+    }
+}
@@ -0,0 +1,73 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class MetricsEndpointTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * After a GET localhost:8080/messages/1, GET localhost:8080/metrics lists
+     * the route's latency quantiles and count, the DAO call behind it, the
+     * connection pool and the JVM.
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Content type: Prometheus text format
+     */
+    @Test
+    public void metricsCoverRoutesDaoPoolAndJvm() throws IOException, InterruptedException {
+        HttpRequest getMessage = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1"))
+                .build();
+        Assert.assertEquals(200, webClient.send(getMessage, HttpResponse.BodyHandlers.ofString()).statusCode());
+
+        HttpRequest getMetrics = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/metrics"))
+                .build();
+        HttpResponse<String> response = webClient.send(getMetrics, HttpResponse.BodyHandlers.ofString());
+        String body = response.body();
+
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertTrue(response.headers().firstValue("Content-Type").orElse("").startsWith("text/plain"));
+        Assert.assertTrue(body, body.contains("http_server_requests_seconds{route=\"GET /messages/{message_id}\",quantile=\"0.99\"}"));
+        Assert.assertTrue(body, body.contains("http_server_requests_seconds{route=\"GET /messages/{message_id}\",quantile=\"0.999\"}"));
+        Assert.assertTrue(body, body.contains("http_server_requests_seconds_count{route=\"GET /messages/{message_id}\"}"));
+        Assert.assertTrue(body, body.contains("dao_queries_seconds_count{method=\"MessageDAO.getOneMessageGivenMessageId\"}"));
+        Assert.assertTrue(body, body.contains("db_pool_connections{state=\"active\"}"));
+        Assert.assertTrue(body, body.contains("jvm_memory_used_bytes{area=\"heap\"}"));
+        Assert.assertTrue(body, body.contains("jvm_gc_collections_total{gc="));
+    }
+}
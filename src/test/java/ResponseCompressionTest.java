@@ -0,0 +1,146 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import Util.ResponseCompression;
+import io.javalin.Javalin;
+
+public class ResponseCompressionTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    private HttpRequest.Builder request(String path) {
+        return HttpRequest.newBuilder().uri(URI.create("http://localhost:8080" + path));
+    }
+
+    private HttpResponse<byte[]> getGzip(String path) throws IOException, InterruptedException {
+        return webClient.send(request(path).header("Accept-Encoding", "gzip").build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private static String gunzip(byte[] body) throws IOException {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private void createMessages(int count) throws IOException, InterruptedException {
+        StringBuilder batch = new StringBuilder("[");
+        for (int i = 0; i < count; i++) {
+            batch.append(i == 0 ? "" : ",").append("{\"posted_by\":1, \"message_text\": \"message number ")
+                    .append(i).append("\", \"time_posted_epoch\": 1669947792}");
+        }
+        HttpResponse<String> response = webClient.send(request("/messages/batch")
+                .POST(HttpRequest.BodyPublishers.ofString(batch.append("]").toString()))
+                .header("Content-Type", "application/json").build(), HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+    }
+
+    /**
+     * A list above the size threshold is gzipped for clients that accept gzip, and the second request reuses the
+     * gzipped bytes from the response cache.
+     */
+    @Test
+    public void largeListIsGzipped() throws IOException, InterruptedException {
+        createMessages(100);
+        String plain = webClient.send(request("/accounts/1/messages").build(), HttpResponse.BodyHandlers.ofString())
+                .body();
+
+        for (int i = 0; i < 2; i++) {
+            HttpResponse<byte[]> response = getGzip("/accounts/1/messages");
+            Assert.assertEquals(200, response.statusCode());
+            Assert.assertEquals("gzip", response.headers().firstValue("Content-Encoding").orElse(null));
+            Assert.assertTrue(response.body().length < plain.length() / 2);
+            Assert.assertEquals(plain, gunzip(response.body()));
+        }
+
+        String stats = webClient.send(request("/stats").build(), HttpResponse.BodyHandlers.ofString()).body();
+        Map<?, ?> responseCache = (Map<?, ?>) objectMapper.readValue(stats, Map.class).get("responseCache");
+        Assert.assertEquals(2, ((Number) responseCache.get("hits")).intValue());
+        Assert.assertEquals(2, ((Number) responseCache.get("gzippedResponses")).intValue());
+        Assert.assertTrue(((Number) responseCache.get("bytesSaved")).intValue() > plain.length());
+    }
+
+    /**
+     * Bodies below the size threshold are sent as they are.
+     */
+    @Test
+    public void smallResponsesAreNotGzipped() throws IOException, InterruptedException {
+        Assert.assertFalse(getGzip("/messages").headers().firstValue("Content-Encoding").isPresent());
+        HttpResponse<byte[]> response = getGzip("/messages/1");
+        Assert.assertFalse(response.headers().firstValue("Content-Encoding").isPresent());
+        Assert.assertTrue(new String(response.body(), StandardCharsets.UTF_8).contains("test message 1"));
+    }
+
+    /**
+     * Lists that are not cached, like search results, are gzipped by Javalin when large enough.
+     */
+    @Test
+    public void uncachedListIsGzipped() throws IOException, InterruptedException {
+        createMessages(100);
+        HttpResponse<byte[]> response = getGzip("/messages/search?q=message&limit=100");
+        Assert.assertEquals("gzip", response.headers().firstValue("Content-Encoding").orElse(null));
+        Assert.assertEquals(100, objectMapper.readValue(gunzip(response.body()), Object[].class).length);
+    }
+
+    /**
+     * Accept-Encoding is read with its q-values, so a client that refuses gzip with q=0 gets the body as it is.
+     */
+    @Test
+    public void refusedGzipIsNotSent() throws IOException, InterruptedException {
+        createMessages(100);
+        HttpResponse<byte[]> response = webClient.send(request("/accounts/1/messages")
+                .header("Accept-Encoding", "gzip;q=0, identity").build(), HttpResponse.BodyHandlers.ofByteArray());
+        Assert.assertFalse(response.headers().firstValue("Content-Encoding").isPresent());
+        Assert.assertEquals(101, objectMapper.readValue(response.body(), Object[].class).length);
+
+        ResponseCompression compression = new ResponseCompression(true, 6, 0);
+        Assert.assertTrue(compression.shouldCompress(1, "gzip"));
+        Assert.assertTrue(compression.shouldCompress(1, "br, GZIP;q=0.5"));
+        Assert.assertTrue(compression.shouldCompress(1, "*"));
+        Assert.assertTrue(compression.shouldCompress(1, "x-gzip"));
+        Assert.assertFalse(compression.shouldCompress(1, "gzip;q=0"));
+        Assert.assertFalse(compression.shouldCompress(1, "gzip; q=0.000, *"));
+        Assert.assertFalse(compression.shouldCompress(1, "*;q=0"));
+        Assert.assertFalse(compression.shouldCompress(1, "br, identity"));
+        Assert.assertFalse(compression.shouldCompress(1, null));
+    }
+}
@@ -18,6 +18,7 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import Controller.SocialMediaController;
+import DAO.Stores;
 import Model.Message;
 import Util.ConnectionUtil;
 import io.javalin.Javalin;
@@ -105,7 +106,9 @@ public class RetrieveAllMessagesTest {
                 PreparedStatement ps = conn.prepareStatement("delete from message where message_id = ?");
                 ps.setInt(1, 1);
                 ps.executeUpdate();
-        } catch (SQLException e) {
+                // The log store keeps its own copy of the messages; load it again from the database.
+                Stores.reset();
+        } catch (SQLException | IOException e) {
                 e.printStackTrace();
         }
     }
@@ -0,0 +1,137 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class RetrieveMessagesPageTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web. Four more messages are posted so there is something to page through.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws IOException, InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+
+        for (int i = 2; i <= 5; i++) {
+            HttpRequest postMessageRequest = HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:8080/messages"))
+                    .POST(HttpRequest.BodyPublishers.ofString("{"+
+                            "\"posted_by\":1, " +
+                            "\"message_text\": \"test message " + i + "\", " +
+                            "\"time_posted_epoch\": 1669947792}"))
+                    .header("Content-Type", "application/json")
+                    .build();
+            webClient.send(postMessageRequest, HttpResponse.BodyHandlers.ofString());
+        }
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private List<Message> messages(HttpResponse<String> response) throws IOException {
+        return objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages?limit=2&after_id=1
+     * 
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: messages 2 and 3, with a Link header to the next page
+     */
+    @Test
+    public void getMessagesAfterId() throws IOException, InterruptedException {
+        HttpResponse<String> response = get("/messages?limit=2&after_id=1");
+
+        Assert.assertEquals(200, response.statusCode());
+        List<Message> page = messages(response);
+        Assert.assertEquals(2, page.size());
+        Assert.assertEquals(2, page.get(0).getMessage_id());
+        Assert.assertEquals(3, page.get(1).getMessage_id());
+        Assert.assertTrue(response.headers().firstValue("Link").orElse("").contains("after_id=3"));
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/accounts/1/messages?limit=2&before_id=5
+     * 
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: messages 3 and 4, in ascending order
+     */
+    @Test
+    public void getMessagesFromUserBeforeId() throws IOException, InterruptedException {
+        HttpResponse<String> response = get("/accounts/1/messages?limit=2&before_id=5");
+
+        Assert.assertEquals(200, response.statusCode());
+        List<Message> page = messages(response);
+        Assert.assertEquals(2, page.size());
+        Assert.assertEquals(3, page.get(0).getMessage_id());
+        Assert.assertEquals(4, page.get(1).getMessage_id());
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages?limit=0
+     * 
+     * Expected Response:
+     *  Status Code: 400
+     */
+    @Test
+    public void getMessagesInvalidLimit() throws IOException, InterruptedException {
+        HttpResponse<String> response = get("/messages?limit=0");
+
+        Assert.assertEquals(400, response.statusCode());
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages?stream=true
+     * 
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: all five messages
+     */
+    @Test
+    public void streamAllMessages() throws IOException, InterruptedException {
+        HttpResponse<String> response = get("/messages?stream=true");
+
+        Assert.assertEquals(200, response.statusCode());
+        List<Message> all = messages(response);
+        Assert.assertEquals(5, all.size());
+        Assert.assertEquals(new Message(1, 1, "test message 1", 1669947792), all.get(0));
+    }
+}
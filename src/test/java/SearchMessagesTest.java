@@ -0,0 +1,152 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class SearchMessagesTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web. Messages 2 to 4 are posted so there is something to search.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws IOException, InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+
+        postMessage("Coffee in the park");
+        postMessage("the weather in the park is great");
+        postMessage("more coffee, please");
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    private void postMessage(String text) throws IOException, InterruptedException {
+        HttpRequest postMessageRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{"+
+                        "\"posted_by\":1, " +
+                        "\"message_text\": \"" + text + "\", " +
+                        "\"time_posted_epoch\": 1669947792}"))
+                .header("Content-Type", "application/json")
+                .build();
+        webClient.send(postMessageRequest, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private List<Message> messages(HttpResponse<String> response) throws IOException {
+        return objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages/search?q=coffee%20park
+     * 
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: message 2, which has both words, then the newer of the
+     *  messages with one word each
+     */
+    @Test
+    public void searchRanksByRelevanceThenRecency() throws IOException, InterruptedException {
+        HttpResponse<String> response = get("/messages/search?q=coffee%20park");
+
+        Assert.assertEquals(200, response.statusCode());
+        List<Message> results = messages(response);
+        Assert.assertEquals(3, results.size());
+        Assert.assertEquals(new Message(2, 1, "Coffee in the park", 1669947792), results.get(0));
+        Assert.assertEquals(4, results.get(1).getMessage_id());
+        Assert.assertEquals(3, results.get(2).getMessage_id());
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages/search?q=the&limit=1
+     * 
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: the newest match, with a Link header to the next page
+     */
+    @Test
+    public void searchIsPaged() throws IOException, InterruptedException {
+        HttpResponse<String> response = get("/messages/search?q=the&limit=1");
+
+        Assert.assertEquals(200, response.statusCode());
+        List<Message> results = messages(response);
+        Assert.assertEquals(1, results.size());
+        Assert.assertEquals(3, results.get(0).getMessage_id());
+        Assert.assertTrue(response.headers().firstValue("Link").orElse("").contains("offset=1"));
+
+        results = messages(get("/messages/search?q=the&limit=1&offset=1"));
+        Assert.assertEquals(2, results.get(0).getMessage_id());
+    }
+
+    /**
+     * Updated and deleted messages are reflected in later searches.
+     */
+    @Test
+    public void searchFollowsUpdatesAndDeletes() throws IOException, InterruptedException {
+        Assert.assertEquals(2, messages(get("/messages/search?q=coffee")).size());
+
+        HttpRequest patchRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/2"))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\": \"tea in the park\"}"))
+                .header("Content-Type", "application/json")
+                .build();
+        Assert.assertEquals(200, webClient.send(patchRequest, HttpResponse.BodyHandlers.ofString()).statusCode());
+        HttpRequest deleteRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/4"))
+                .DELETE()
+                .build();
+        Assert.assertEquals(200, webClient.send(deleteRequest, HttpResponse.BodyHandlers.ofString()).statusCode());
+
+        Assert.assertTrue(messages(get("/messages/search?q=coffee")).isEmpty());
+        List<Message> results = messages(get("/messages/search?q=tea"));
+        Assert.assertEquals(1, results.size());
+        Assert.assertEquals(2, results.get(0).getMessage_id());
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages/search without q
+     * 
+     * Expected Response:
+     *  Status Code: 400
+     */
+    @Test
+    public void searchWithoutQuery() throws IOException, InterruptedException {
+        Assert.assertEquals(400, get("/messages/search").statusCode());
+        Assert.assertEquals(400, get("/messages/search?q=%20").statusCode());
+    }
+}
@@ -0,0 +1,98 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Service.TimelineCache;
+
+public class TimelineCacheTest {
+    TimelineCache timelineCache;
+    AtomicInteger loads;
+
+    /**
+     * Before every test, create a cache that keeps the 3 most recent IDs per account.
+     */
+    @Before
+    public void setUp() {
+        timelineCache = new TimelineCache(3, 1000);
+        loads = new AtomicInteger();
+    }
+
+    /**
+     * A loader over a fixed timeline, returning the newest IDs first like MessageDAO does.
+     */
+    private IntFunction<int[]> loader(int... ascendingIds) {
+        return limit -> {
+            loads.incrementAndGet();
+            int size = Math.min(limit, ascendingIds.length);
+            int[] newestFirst = new int[size];
+            for (int i = 0; i < size; i++) {
+                newestFirst[i] = ascendingIds[ascendingIds.length - 1 - i];
+            }
+            return newestFirst;
+        };
+    }
+
+    @Test
+    public void smallTimelineIsServedCompletely() {
+        int[] ids = timelineCache.getAll(1, loader(1, 5));
+        Assert.assertArrayEquals(new int[] { 1, 5 }, ids);
+        Assert.assertArrayEquals(new int[] { 1, 5 }, timelineCache.getAll(1, loader(1, 5)));
+        Assert.assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void deepPagesSpillToDatabase() {
+        IntFunction<int[]> loader = loader(1, 2, 3, 4, 5);
+        Assert.assertNull(timelineCache.getAll(1, loader));
+        Assert.assertArrayEquals(new int[] { 4, 5 }, timelineCache.getPage(1, null, 6, 2, loader));
+        Assert.assertArrayEquals(new int[] { 4, 5 }, timelineCache.getPage(1, 3, null, 10, loader));
+        Assert.assertNull(timelineCache.getPage(1, 1, null, 10, loader));
+        Assert.assertNull(timelineCache.getPage(1, null, 4, 2, loader));
+        Assert.assertNull(timelineCache.getPage(1, null, null, 2, loader));
+    }
+
+    @Test
+    public void writesUpdateCachedTimeline() {
+        IntFunction<int[]> loader = loader(1, 2);
+        timelineCache.getAll(1, loader);
+
+        timelineCache.added(1, 7);
+        Assert.assertArrayEquals(new int[] { 1, 2, 7 }, timelineCache.getAll(1, loader));
+
+        timelineCache.removed(1, 2);
+        Assert.assertArrayEquals(new int[] { 1, 7 }, timelineCache.getAll(1, loader));
+
+        timelineCache.added(1, 8);
+        timelineCache.added(1, 9);
+        Assert.assertNull(timelineCache.getAll(1, loader));
+        Assert.assertArrayEquals(new int[] { 8, 9 }, timelineCache.getPage(1, 7, null, 10, loader));
+        Assert.assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void writesToUncachedAccountsAreIgnored() {
+        timelineCache.added(2, 3);
+        timelineCache.removed(2, 3);
+        Assert.assertEquals(0, loads.get());
+        Assert.assertArrayEquals(new int[] { 4 }, timelineCache.getAll(2, loader(4)));
+    }
+
+    /**
+     * A message created while its author's timeline is being loaded must not be
+     * lost when the load, which may have missed it, finishes.
+     */
+    @Test
+    public void writeDuringLoadIsNotLost() {
+        IntFunction<int[]> racingLoader = limit -> {
+            int[] newestFirst = loader(1, 2).apply(limit);
+            timelineCache.added(1, 3);
+            return newestFirst;
+        };
+        Assert.assertArrayEquals(new int[] { 1, 2 }, timelineCache.getAll(1, racingLoader));
+        Assert.assertArrayEquals(new int[] { 1, 2, 3 }, timelineCache.getAll(1, loader(1, 2, 3)));
+        Assert.assertEquals(2, loads.get());
+    }
+}
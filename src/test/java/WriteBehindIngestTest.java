@@ -0,0 +1,178 @@
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import DAO.MessageDAO;
+import DAO.MessageStore;
+import DAO.Stores;
+import Model.Message;
+import Service.MessageWriteBehind;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class WriteBehindIngestTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database and restart the Javalin app with write-behind ingestion turned on,
+     * without waiting for commits.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        System.setProperty("ingest.writeBehind", "true");
+        System.setProperty("ingest.durable", "false");
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+        System.clearProperty("ingest.writeBehind");
+        System.clearProperty("ingest.durable");
+    }
+
+    private HttpResponse<String> postMessage(int posted_by, String text) throws IOException, InterruptedException {
+        HttpRequest postMessageRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{"+
+                        "\"posted_by\":" + posted_by + ", " +
+                        "\"message_text\": \"" + text + "\", " +
+                        "\"time_posted_epoch\": 1669947792}"))
+                .header("Content-Type", "application/json")
+                .build();
+        return webClient.send(postMessageRequest, HttpResponse.BodyHandlers.ofString());
+    }
+
+    /**
+     * A queued message gets its message_id right away and can be read back before and after it is written.
+     */
+    @Test
+    public void queuedMessageIsReadable() throws IOException, InterruptedException {
+        HttpResponse<String> response = postMessage(1, "hello message");
+        Assert.assertEquals(200, response.statusCode());
+        Message expectedResult = new Message(2, 1, "hello message", 1669947792);
+        Assert.assertEquals(expectedResult, objectMapper.readValue(response.body(), Message.class));
+
+        HttpRequest getRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/2"))
+                .build();
+        HttpResponse<String> getResponse = webClient.send(getRequest, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(expectedResult, objectMapper.readValue(getResponse.body(), Message.class));
+    }
+
+    /**
+     * Messages for accounts that do not exist are rejected before they are queued.
+     */
+    @Test
+    public void unknownUserIsRejected() throws IOException, InterruptedException {
+        HttpResponse<String> response = postMessage(3, "message test");
+        Assert.assertEquals(400, response.statusCode());
+        Assert.assertEquals("", response.body());
+    }
+
+    /**
+     * Stopping the app writes out every queued message, and the database hands out IDs past them afterwards. IDs
+     * reserved but not used are skipped.
+     */
+    @Test
+    public void stopDrainsQueue() throws IOException, InterruptedException {
+        Assume.assumeFalse("Reads the H2 message table", Stores.isLogBackend());
+        for (int i = 0; i < 50; i++) {
+            Assert.assertEquals(200, postMessage(1, "queued " + i).statusCode());
+        }
+        app.stop();
+
+        MessageDAO messageDAO = new MessageDAO();
+        List<Message> messages = messageDAO.getAllMessages();
+        Assert.assertEquals(51, messages.size());
+        Message created = messageDAO.createMessage(new Message(1, "after drain", 1669947792));
+        Assert.assertTrue(created.getMessage_id() > messages.get(messages.size() - 1).getMessage_id());
+    }
+
+    /**
+     * If saving a batch throws, every queued message's future still completes, exceptionally, and nothing stays
+     * pending.
+     */
+    @Test
+    public void storeFailureCompletesEveryMessage() throws InterruptedException, TimeoutException {
+        MessageStore failingStore = (MessageStore) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { MessageStore.class }, (proxy, method, args) -> {
+                    if (method.getName().equals("createMessages")) {
+                        throw new IllegalStateException("store is down");
+                    }
+                    return method.getReturnType() == int.class ? 1 : null;
+                });
+        MessageWriteBehind writeBehind = new MessageWriteBehind(failingStore, 10, 10, message -> { }, message -> { });
+        CompletableFuture<Message> first = writeBehind.enqueue(new Message(2, 1, "first", 1669947792));
+        CompletableFuture<Message> second = writeBehind.enqueue(new Message(3, 1, "second", 1669947792));
+
+        for (CompletableFuture<Message> committed : List.of(first, second)) {
+            try {
+                committed.get(5, TimeUnit.SECONDS);
+                Assert.fail("Expected the message to fail");
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+        }
+        Assert.assertNull(writeBehind.getPending(2));
+        Assert.assertNull(writeBehind.getPending(3));
+        writeBehind.close();
+    }
+
+    /**
+     * A callback that throws does not stop a saved message from being reported as saved.
+     */
+    @Test
+    public void callbackFailureStillCompletesMessage() throws Exception {
+        MessageWriteBehind writeBehind = new MessageWriteBehind(Stores.messageStore(), 10, 10, message -> {
+            throw new IllegalStateException("cache update failed");
+        }, message -> { });
+        Message queued = new Message(writeBehind.nextMessageId(), 1, "saved", 1669947792);
+        Assert.assertEquals(queued, writeBehind.enqueue(queued).get(5, TimeUnit.SECONDS));
+        Assert.assertNull(writeBehind.getPending(queued.getMessage_id()));
+        writeBehind.close();
+    }
+
+    /**
+     * IDs reserved for queued messages are never handed out by the store to plain inserts, so both save.
+     */
+    @Test
+    public void reservedIdsDoNotCollideWithPlainInserts() throws Exception {
+        MessageWriteBehind writeBehind = new MessageWriteBehind(Stores.messageStore(), 10, 10, message -> { },
+                message -> { });
+        Message queued = new Message(writeBehind.nextMessageId(), 1, "queued", 1669947792);
+        Message plain = Stores.messageStore().createMessage(new Message(1, "plain", 1669947792));
+        Assert.assertNotNull(plain);
+        Assert.assertNotEquals(queued.getMessage_id(), plain.getMessage_id());
+        Assert.assertEquals(queued, writeBehind.enqueue(queued).get(5, TimeUnit.SECONDS));
+        Assert.assertNotNull(Stores.messageStore().createMessage(new Message(1, "plain again", 1669947792)));
+        writeBehind.close();
+    }
+}